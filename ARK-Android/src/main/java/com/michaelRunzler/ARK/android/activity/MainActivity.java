@@ -1,14 +1,13 @@
 package com.michaelRunzler.ARK.android.activity;
 
 import android.annotation.SuppressLint;
+import android.content.Context;
 import android.content.Intent;
 import android.content.pm.ActivityInfo;
-import android.os.Handler;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
 import android.view.View;
 import android.view.ViewGroup;
-import android.view.animation.AccelerateDecelerateInterpolator;
 import android.view.animation.LinearInterpolator;
 import android.widget.FrameLayout;
 import android.widget.ImageButton;
@@ -18,11 +17,20 @@ import android.widget.RelativeLayout;
 import android.widget.Toast;
 
 import com.michaelRunzler.ARK.android.R;
+import com.michaelRunzler.ARK.android.util.Animation.FrameMonitor;
+import com.michaelRunzler.ARK.android.util.Animation.FrameStats;
+import com.michaelRunzler.ARK.android.util.Animation.Timeline;
 import com.michaelRunzler.ARK.android.util.HelpOverlay.DynamicHelpInterface;
 import com.michaelRunzler.ARK.android.util.HelpOverlay.HelpOverlayScene;
+import com.michaelRunzler.ARK.android.util.Layout.LayoutScheduler;
+import com.michaelRunzler.ARK.android.util.Settings.SettingKey;
+import com.michaelRunzler.ARK.android.util.Settings.SettingsBackground;
+import com.michaelRunzler.ARK.android.util.Settings.SettingsChangeListener;
 import com.michaelRunzler.ARK.android.util.Settings.SettingsManager;
 import com.michaelRunzler.ARK.android.util.Settings.SettingsManagerDelegator;
+import com.michaelRunzler.ARK.android.util.Tracing.Tracer;
 
+import java.io.IOException;
 import java.util.ArrayList;
 
 /**
@@ -44,9 +52,21 @@ public class MainActivity extends AppCompatActivity
     private final float MENU_BAR_SIZE_SMALL = 0.7f;
     private final float MENU_BAR_SIZE_MEDIUM = 0.85f;
     private final float MENU_BAR_SIZE_LARGE = 1.0f;
+    private final int MENU_ANIM_STAGE_TIME = 250;
+    private final int SIDEBAR_ANIM_TIME = 500;
+
+    private static final SettingKey<Boolean> MENU_SLIDEOUT_ANIM_STATE = SettingKey.of("menuSlideoutAnimState", Boolean.class);
+    private static final SettingKey<Boolean> MENU_SIDEBAR_ANIM_STATE = SettingKey.of("menuSidebarAnimState", Boolean.class);
+    private static final SettingKey<Integer> MENU_TOOLBAR_SIZE = SettingKey.of("menuToolbarSize", Integer.class);
 
     private SettingsManager settingsManager;
+    private SettingsChangeListener toolbarSizeListener;
     private DynamicHelpInterface tutorial;
+    private Timeline menuSlideoutTimeline;
+    private Timeline sidebarTimeline;
+    private FrameMonitor menuSlideoutFrameMonitor;
+    private View.OnLongClickListener minimizeToast;
+    private View.OnLongClickListener maximizeToast;
 
     /**
      * Called when the Android System starts this app. Add any method calls to be run during initialization here.
@@ -57,9 +77,15 @@ public class MainActivity extends AppCompatActivity
     protected void onCreate(Bundle savedInstanceState)
     {
         super.onCreate(savedInstanceState);
+        Tracer.begin("MainActivity.onCreate");
 
         settingsManager = SettingsManagerDelegator.getMainInstance();
 
+        // Resize the menu toolbar whenever its size setting changes, rather than checking it every time
+        // the settings menu is closed.
+        toolbarSizeListener = (manager, changedKeys) -> applyMenuToolbarSize();
+        settingsManager.addChangeListener(MENU_TOOLBAR_SIZE.getName(), toolbarSizeListener);
+
         // Initialize and display main screen.
         setContentView(R.layout.main_screen);
         initializeMainUI();
@@ -67,6 +93,7 @@ public class MainActivity extends AppCompatActivity
 
         // Allow orientation changes again.
         setRequestedOrientation(ActivityInfo.SCREEN_ORIENTATION_UNSPECIFIED);
+        Tracer.end();
     }
 
     /**
@@ -75,26 +102,23 @@ public class MainActivity extends AppCompatActivity
      */
     private void initializeMainUI()
     {
+        Tracer.begin("MainActivity.initializeMainUI");
         addLongClickToast(R.id.main_sidebar_menu_button, R.string.main_sidebar_menu_button_toast, Toast.LENGTH_SHORT);
         addLongClickToast(R.id.main_sidebar_settings_button, R.string.main_sidebar_settings_button_toast, Toast.LENGTH_SHORT);
         addLongClickToast(R.id.main_sidebar_help_button, R.string.main_sidebar_help_button_toast, Toast.LENGTH_SHORT);
-        addLongClickToast(R.id.main_sidebar_minimize_button, R.string.main_sidebar_minimize_button_toast, Toast.LENGTH_SHORT);
-
-        // Wait a few dozen ms for the UI to finish init, then resize the toolbar and check animation states.
-        findViewById(R.id.main_sidebar_container).postDelayed(() -> {
-            onActivityResult(REQUEST_ID_SETTINGS, 0, null);
 
-            // Set the temporary flag on the settings in the manager that are used for caching.
-            settingsManager.setTemporary("topElementDist", true);
-            settingsManager.setTemporary("lowElementDist", true);
-            settingsManager.setTemporary("menuSidebarAnimState", true);
+        // The minimize button's toast changes with the sidebar's state, so both are built once here and swapped on each tap.
+        minimizeToast = longClickToast(R.string.main_sidebar_minimize_button_toast, Toast.LENGTH_SHORT);
+        maximizeToast = longClickToast(R.string.main_sidebar_maximize_button_toast, Toast.LENGTH_SHORT);
+        findViewById(R.id.main_sidebar_minimize_button).setOnLongClickListener(minimizeToast);
 
-            LinearLayout menuButtonContainer = (LinearLayout)findViewById(R.id.main_sidebar_menu_button);
-            ImageView mid = (ImageView)menuButtonContainer.getChildAt(1);
+        // Once the UI has its first layout, resize the toolbar and check animation states before anything is drawn.
+        LayoutScheduler.beforeDraw(findViewById(R.id.main_sidebar_container), () -> {
+            Tracer.begin("MainActivity.restoreUIState");
+            applyMenuToolbarSize();
 
             // Check to see what the animation state on the menu slideout should be. Correct it if it is incorrect.
-            if(mid.getVisibility() == View.VISIBLE && settingsManager.getSetting("topElementDist") != null
-                    && (Float)settingsManager.getSetting("topElementDist") != 0.0f) {
+            if(settingsManager.getVolatileBoolean(MENU_SLIDEOUT_ANIM_STATE, false)) {
                 activateMenuSlideout(null);
             }else{
                 // Set the slideout to its default state if there is no correction necessary.
@@ -103,22 +127,10 @@ public class MainActivity extends AppCompatActivity
                 slideout.setVisibility(View.GONE);
             }
 
-            RelativeLayout sidebarContainer = (RelativeLayout)findViewById(R.id.main_sidebar_container);
-            ImageButton minimize = (ImageButton)findViewById(R.id.main_sidebar_minimize_button);
-            ImageView logo = (ImageView)findViewById(R.id.main_sidebar_logo);
-
             // Check to see what the animation state on the menu toolbar should be. Correct it if it is incorrect.
-            if(settingsManager.getSetting("menuSidebarAnimState") != null
-                    && (Boolean)settingsManager.getSetting("menuSidebarAnimState"))
-            {
-                minimize.setRotation(180.0f);
-                minimize.setBackgroundResource(R.drawable.minimize_button_inv);
-                addLongClickToast(R.id.main_sidebar_minimize_button, R.string.main_sidebar_maximize_button_toast, Toast.LENGTH_SHORT);
-                logo.setImageResource(R.drawable.company_logo_128px);
-                sidebarContainer.setVisibility(View.GONE);
-                sidebarContainer.setTranslationX((-1.0f * ((sidebarContainer.getWidth() - (sidebarContainer.getWidth() * sidebarContainer.getScaleX())) / 2) - sidebarContainer.getWidth()));
-            }
-        }, 50);
+            if(settingsManager.getVolatileBoolean(MENU_SIDEBAR_ANIM_STATE, false)) showOrHideSidebar(null);
+            Tracer.end();
+        });
 
         // Set up main help interface object.
         ArrayList<HelpOverlayScene> scenes = new ArrayList<>();
@@ -129,6 +141,73 @@ public class MainActivity extends AppCompatActivity
         scenes.add(new HelpOverlayScene("This opens the main menu panel, which contains additional functions.", findViewById(R.id.main_sidebar_menu_button), 300, -1));
 
         tutorial = new DynamicHelpInterface(findViewById(R.id.main_help_overlay), scenes);
+
+        buildAnimationTimelines();
+        Tracer.end();
+    }
+
+    /**
+     * Builds the timelines that animate the menu slideout and the sidebar. Each is built once and replayed
+     * on every tap, so nothing is allocated while animating.
+     */
+    private void buildAnimationTimelines()
+    {
+        final LinearLayout menuButton = findViewById(R.id.main_sidebar_menu_button);
+        final ImageView top = (ImageView)menuButton.getChildAt(0);
+        final ImageView mid = (ImageView)menuButton.getChildAt(1);
+        final ImageView low = (ImageView)menuButton.getChildAt(2);
+
+        final ImageButton minimize = findViewById(R.id.main_sidebar_minimize_button);
+        final RelativeLayout slideout = findViewById(R.id.main_slideout_panel);
+        final RelativeLayout sidebar = findViewById(R.id.main_sidebar_container);
+
+        // Opening the slideout pulls the three menu button elements on top of each other while the slideout comes in
+        // and the sidebar minimize button goes out, then hides the middle element and rotates the top and bottom
+        // elements 45 degrees in opposite directions, forming an X. Closing it plays the same thing in reverse.
+        // The minimize button is disabled while the slideout is open, since minimizing the sidebar then
+        // renders the application unusable. The slideout's retracted position is worked out from its width rather
+        // than taken from where it is, since it has not been moved there yet if this activity restarts with it open.
+        menuSlideoutTimeline = new Timeline();
+        menuSlideoutTimeline.addStage(MENU_ANIM_STAGE_TIME)
+                .animate(top, Timeline.Y, mid::getY)
+                .animate(low, Timeline.Y, mid::getY)
+                .animate(minimize, Timeline.TRANSLATION_X, () -> minimize.getTranslationX() - (sidebar.getWidth() * sidebar.getScaleX()))
+                .animate(slideout, Timeline.TRANSLATION_X, () -> -1.0f * (slideout.getWidth() * slideout.getScaleX()), () -> 0.0f)
+                .atStart(() -> {
+                    slideout.setVisibility(View.VISIBLE);
+                    minimize.setEnabled(false);
+                }, () -> {
+                    slideout.setVisibility(View.GONE);
+                    minimize.setEnabled(true);
+                })
+                .atEnd(() -> {
+                    mid.setVisibility(View.INVISIBLE);
+                    minimize.setVisibility(View.GONE);
+                }, () -> {
+                    mid.setVisibility(View.VISIBLE);
+                    minimize.setVisibility(View.VISIBLE);
+                });
+        menuSlideoutTimeline.addStage(MENU_ANIM_STAGE_TIME)
+                .animate(top, Timeline.ROTATION, 45.0f)
+                .animate(low, Timeline.ROTATION, -45.0f);
+
+        // The slideout's contents do not change while it slides, so render them once and move the result around.
+        // Every slide is timed, so that jank in it can be measured and compared across builds.
+        menuSlideoutFrameMonitor = new FrameMonitor(slideout);
+        menuSlideoutTimeline.addHardwareLayer(slideout);
+        menuSlideoutTimeline.setFrameMonitor(menuSlideoutFrameMonitor);
+
+        // Hiding the sidebar slides it off the left edge of the screen and flips the minimize button around.
+        // Its resting position depends on its scale, which can change while it is hidden, so both ends are
+        // worked out afresh every time it moves. The slideout menu button is disabled while the sidebar is hidden,
+        // since opening the slideout then renders the application unusable.
+        sidebarTimeline = new Timeline();
+        sidebarTimeline.addStage(SIDEBAR_ANIM_TIME)
+                .animate(sidebar, Timeline.TRANSLATION_X, () -> -1.0f * ((sidebar.getWidth() - (sidebar.getWidth() * sidebar.getScaleX())) / 2),
+                        () -> (-1.0f * ((sidebar.getWidth() - (sidebar.getWidth() * sidebar.getScaleX())) / 2) - sidebar.getWidth()))
+                .animate(minimize, Timeline.ROTATION, () -> 0.0f, () -> 180.0f)
+                .atStart(() -> menuButton.setEnabled(false), () -> menuButton.setEnabled(true))
+                .atEnd(() -> sidebar.setVisibility(View.GONE), () -> sidebar.setVisibility(View.VISIBLE));
     }
 
     /**
@@ -153,12 +232,50 @@ public class MainActivity extends AppCompatActivity
      * @param length the length the toast should display when called. Use the constants in the {@link Toast} class for length
      *               unless a custom length is desired
      */
-    private void addLongClickToast(int elementID, final int toastStringID, final int length)
+    private void addLongClickToast(int elementID, final int toastStringID, final int length) {
+        findViewById(elementID).setOnLongClickListener(longClickToast(toastStringID, length));
+    }
+
+    /**
+     * Builds a long-press listener that shows a {@link Toast} notification, so that it can be attached to a
+     * UI element later, or swapped in and out of one without building it again.
+     * @param toastStringID the Android String ID of the XML String value to display on the toast
+     * @param length the length the toast should display when called. Use the constants in the {@link Toast} class for length
+     *               unless a custom length is desired
+     * @return the new listener
+     */
+    private View.OnLongClickListener longClickToast(final int toastStringID, final int length)
     {
-        findViewById(elementID).setOnLongClickListener(v -> {
+        return v -> {
             Toast.makeText(getApplicationContext(), toastStringID, length).show();
             return true;
-        });
+        };
+    }
+
+
+    /**
+     * Gets the frame timing statistics for the most recent menu slideout animation. An animation that is
+     * reversed part-way through counts as one animation.
+     * @return the {@link FrameStats} for the last animation, or {@code null} if none has finished since
+     * the statistics were last reset
+     */
+    public FrameStats getLastMenuSlideoutStats() {
+        return menuSlideoutFrameMonitor.getLastStats();
+    }
+
+    /**
+     * Gets the combined frame timing statistics for every menu slideout animation since the statistics were last reset.
+     * @return the combined {@link FrameStats}, or {@code null} if no animation has finished since they were last reset
+     */
+    public FrameStats getTotalMenuSlideoutStats() {
+        return menuSlideoutFrameMonitor.getTotalStats();
+    }
+
+    /**
+     * Discards all recorded menu slideout frame timing statistics.
+     */
+    public void resetMenuSlideoutStats() {
+        menuSlideoutFrameMonitor.reset();
     }
 
 
@@ -167,37 +284,80 @@ public class MainActivity extends AppCompatActivity
     //
 
 
+    @Override
+    protected void onPause()
+    {
+        super.onPause();
+
+        // Push any pending settings changes to disk now, in case this app is not resumed.
+        settingsManager.flushNow();
+
+        // Keep a trace of everything up to this point in app storage, where it can be pulled off the device.
+        // The dump goes on the settings I/O thread, behind the flush above, rather than on a thread of its own.
+        if(Tracer.isEnabled())
+        {
+            // Record how smoothly the menu slideout has animated so far, so that it shows up alongside everything else.
+            FrameStats slideoutStats = getTotalMenuSlideoutStats();
+            if(slideoutStats != null)
+            {
+                Tracer.counter("MainActivity.menuSlideoutFrames", slideoutStats.getFrameCount());
+                Tracer.counter("MainActivity.menuSlideoutDroppedFrames", slideoutStats.getDroppedFrames());
+            }
+
+            final Context context = getApplicationContext();
+            SettingsBackground.execute(() -> {
+                try {
+                    Tracer.dump(context);
+                } catch (IOException e) {
+                    // Traces are only a debugging aid, so a failed dump is not worth interrupting anything for.
+                }
+            });
+        }
+    }
+
+    @Override
+    protected void onDestroy()
+    {
+        super.onDestroy();
+
+        // The settings manager outlives this activity, so make sure it doesn't keep calling into it.
+        settingsManager.removeChangeListener(toolbarSizeListener);
+    }
+
     @SuppressLint("WrongViewCast")
     @Override
     protected void onActivityResult(int requestCode, int resultCode, Intent data)
     {
         if(requestCode == REQUEST_ID_SETTINGS)
         {
-            // Check to see if the returned value from the settings menu is null. If so, the settings
-            // activity probably crashed, so we can ignore any state changes for the sizing system.
-            if(settingsManager.getSetting("menuToolbarSize") == null){
-                settingsManager.loadDefault("menuToolbarSize");
-            }
-
-            float multiplier = 0.0f;
-            switch ((Integer)settingsManager.getSetting("menuToolbarSize"))
-            {
-                case 0:
-                    multiplier = MENU_BAR_SIZE_SMALL;
-                    break;
-                case 1:
-                    multiplier = MENU_BAR_SIZE_MEDIUM;
-                    break;
-                case 2:
-                    multiplier = MENU_BAR_SIZE_LARGE;
-                    break;
-            }
-            autoSizeMenuToolbar(multiplier);
+            // Any change to the toolbar size has already been picked up by its change listener.
             // Rotate the settings icon back again. NOT AN ERROR, COMPILES AND RUNS FINE, STOP YELLING AT ME
             findViewById(R.id.main_sidebar_settings_button).animate().rotation(0.0f).setDuration(500).setInterpolator(new LinearInterpolator());
         }
     }
 
+    /**
+     * Scales the menu toolbar to the size currently selected in the settings.
+     */
+    private void applyMenuToolbarSize()
+    {
+        // If the stored value is missing, the read falls back to the default toolbar size.
+        float multiplier = 0.0f;
+        switch (settingsManager.getInt(MENU_TOOLBAR_SIZE, 0))
+        {
+            case 0:
+                multiplier = MENU_BAR_SIZE_SMALL;
+                break;
+            case 1:
+                multiplier = MENU_BAR_SIZE_MEDIUM;
+                break;
+            case 2:
+                multiplier = MENU_BAR_SIZE_LARGE;
+                break;
+        }
+        autoSizeMenuToolbar(multiplier);
+    }
+
     /**
      * Automatically scales the menu toolbar to the specified size.
      * Will autohandle any added buttons in the toolbar.
@@ -205,6 +365,7 @@ public class MainActivity extends AppCompatActivity
      */
     private void autoSizeMenuToolbar(float multiplier)
     {
+        Tracer.begin("MainActivity.autoSizeMenuToolbar");
         RelativeLayout sidebar = findViewById(R.id.main_sidebar_container);
         ImageView logo = findViewById(R.id.main_sidebar_logo);
         ImageButton minimize = findViewById(R.id.main_sidebar_minimize_button);
@@ -261,6 +422,7 @@ public class MainActivity extends AppCompatActivity
         // been reset by the change to its Y-translation earlier in the method.
         if(minimize.getVisibility() == View.GONE)
             minimize.animate().translationXBy(-1.0f * (sidebar.getWidth() * sidebar.getScaleX())).setDuration(0).start();
+        Tracer.end();
     }
 
 
@@ -279,93 +441,14 @@ public class MainActivity extends AppCompatActivity
      */
     public void activateMenuSlideout(View view)
     {
-        // If this is being called from an internal method with a null argument, change state without animating.
-        final int ANIM_STAGE_DELAY = view == null ? 0 : 250;
-
-        final LinearLayout container = findViewById(R.id.main_sidebar_menu_button);
-        final ImageView top = (ImageView)container.getChildAt(0);
-        final ImageView mid = (ImageView)container.getChildAt(1);
-        final ImageView low = (ImageView)container.getChildAt(2);
-
-        final ImageButton minimize = findViewById(R.id.main_sidebar_minimize_button);
-        final RelativeLayout slideout = findViewById(R.id.main_slideout_panel);
-        final RelativeLayout sidebar = findViewById(R.id.main_sidebar_container);
-
-        // Disable the slideout menu button to prevent spamming of the slideout animation.
-        container.setEnabled(false);
-
-        Handler handler = new Handler();
-
-        // The animation has not fired.
-        if(mid.getVisibility() == View.VISIBLE)
-        {
-            // Store the distance that the elements are going to translate for future use, and update the animation state.
-            settingsManager.storeSetting("topElementDist", (top.getY() - mid.getY()));
-            settingsManager.storeSetting("lowElementDist", (low.getY() - mid.getY()));
-
-            // Disable sidebar minimize button before animating to make sure that the user cannot
-            // minimize the sidebar during the animation, since this renders the application unusable.
-            minimize.setEnabled(false);
-
-            // Pull all three elements on top of each other.
-            top.animate().y(mid.getY()).setDuration(ANIM_STAGE_DELAY).start();
-            low.animate().y(mid.getY()).setDuration(ANIM_STAGE_DELAY).start();
-
-            // Hide the middle element and rotate the top and bottom elements 45 degrees in opposite
-            // directions (forming an X) once the first animation set is done.
-            handler.postDelayed(() -> {
-                mid.setVisibility(View.INVISIBLE);
-                top.animate().rotation(45.0f).setDuration(ANIM_STAGE_DELAY).start();
-                low.animate().rotation(-45.0f).setDuration(ANIM_STAGE_DELAY).start();
-            }, ANIM_STAGE_DELAY);
-
-            // Hide the menu bar minimize button.
-            minimize.animate().translationXBy(-1.0f * (sidebar.getWidth() * sidebar.getScaleX())).setDuration(ANIM_STAGE_DELAY).start();
-            handler.postDelayed(() -> minimize.setVisibility(View.GONE), ANIM_STAGE_DELAY);
-
-            handler.postDelayed(() -> {
-                // Re-enable the slideout button since the animation is now finished.
-                container.setEnabled(true);
-            }, ANIM_STAGE_DELAY * 2);
-
-            // Show the menu slideout.
-            slideout.setVisibility(View.VISIBLE);
-            slideout.animate().translationX(0).setDuration(ANIM_STAGE_DELAY).start();
-        }else // The animation has fired, and the elements should be returned to their default state.
-        {
-            // Rotate the top and bottom elements back to their original position.
-            top.animate().rotation(0.0f).setDuration(ANIM_STAGE_DELAY).start();
-            low.animate().rotation(0.0f).setDuration(ANIM_STAGE_DELAY).start();
-
-            // Store the distance values pulled from the settings manager so that we can delete them straight away.
-            final float topElementDist = (Float)settingsManager.getSetting("topElementDist");
-            final float lowElementDist = (Float)settingsManager.getSetting("lowElementDist");
-
-            // Reveal the middle element and push the elements back apart once the first animation set is done.
-            handler.postDelayed(() -> {
-                mid.setVisibility(View.VISIBLE);
-                top.animate().translationYBy(topElementDist).setDuration(ANIM_STAGE_DELAY).start();
-                low.animate().translationYBy(lowElementDist).setDuration(ANIM_STAGE_DELAY).start();
-            }, ANIM_STAGE_DELAY);
-
-            // Show and re-enable the menu bar minimize button.
-            minimize.animate().translationXBy(sidebar.getWidth() * sidebar.getScaleX()).setDuration(ANIM_STAGE_DELAY).start();
-            minimize.setVisibility(View.VISIBLE);
-            minimize.setEnabled(true);
-
-            // Hide the menu slideout.
-            slideout.animate().translationX(-1.0f * (slideout.getWidth() * slideout.getScaleX())).setDuration(ANIM_STAGE_DELAY).start();
-            handler.postDelayed(() -> slideout.setVisibility(View.GONE), ANIM_STAGE_DELAY);
-
-            handler.postDelayed(() -> {
-                // Re-enable the slideout button since the animation is now finished.
-                container.setEnabled(true);
-            }, ANIM_STAGE_DELAY * 2);
-
-            // Set cached settings in the settings manager to their default state. We could remove them,
-            // but this is more efficient.
-            settingsManager.storeSetting("topElementDist", 0.0f);
-            settingsManager.storeSetting("lowElementDist", 0.0f);
+        // Open the slideout if it is closed or on its way closed, and close it otherwise. If the timeline is
+        // still running, it turns around where it is, so there is no need to block taps while it runs.
+        if(!menuSlideoutTimeline.isForward()){
+            settingsManager.storeVolatileBoolean(MENU_SLIDEOUT_ANIM_STATE, true);
+            menuSlideoutTimeline.play(view != null);
+        }else{
+            settingsManager.storeVolatileBoolean(MENU_SLIDEOUT_ANIM_STATE, false);
+            menuSlideoutTimeline.reverse(view != null);
         }
     }
 
@@ -397,61 +480,32 @@ public class MainActivity extends AppCompatActivity
      * Also rotates the minimize button, changes to the alternate-color versions of the logo and
      * minimize button, and animates the entire sequence. Caches its state to the {@link SettingsManager},
      * and as such can react to Activity restarts.
-     * @param view the {@link View} that called this method
+     * @param view the {@link View} that called this method. If it is {@code null}, the state is changed without animating.
      */
     public void showOrHideSidebar(View view)
     {
-        final RelativeLayout container = findViewById(R.id.main_sidebar_container);
-        LinearLayout menuButton = findViewById(R.id.main_sidebar_menu_button);
-        final ImageButton minimize = findViewById(R.id.main_sidebar_minimize_button);
+        ImageButton minimize = findViewById(R.id.main_sidebar_minimize_button);
         ImageView logo = findViewById(R.id.main_sidebar_logo);
 
-        // Disable the minimize button to prevent spamming of the minimize function.
-        minimize.setEnabled(false);
-
-        // Set visibility of the sidebar itself, and the color/rotation of the minimize button,
-        // based on its current visibility state.
-        if(container.getVisibility() == View.VISIBLE)
+        // Hide the sidebar if it is showing or on its way in, and show it otherwise. The alternate-color
+        // drawables are switched over straight away, and the timeline handles everything else.
+        if(!sidebarTimeline.isForward())
         {
-            settingsManager.storeSetting("menuSidebarAnimState", true);
-
-            // Disable slideout menu button before animating to make sure that the user cannot
-            // maximize the slideout during the animation, since this renders the application unusable.
-            menuButton.setEnabled(false);
-
-            // HERE THERE BE DRAGONS
-            // ...OF THE ALGEBRA KIND
-            container.animate().translationX((-1.0f * ((container.getWidth() - (container.getWidth() * container.getScaleX())) / 2) - container.getWidth())).setDuration(500).setInterpolator(new AccelerateDecelerateInterpolator());
+            settingsManager.storeVolatileBoolean(MENU_SIDEBAR_ANIM_STATE, true);
 
             minimize.setBackgroundResource(R.drawable.minimize_button_inv);
-            addLongClickToast(R.id.main_sidebar_minimize_button, R.string.main_sidebar_maximize_button_toast, Toast.LENGTH_SHORT);
+            minimize.setOnLongClickListener(maximizeToast);
             logo.setImageResource(R.drawable.company_logo_128px);
 
-            minimize.animate().rotation(180.0f).setDuration(500).setInterpolator(new AccelerateDecelerateInterpolator());
-
-            // Re-enable the minimize button since the animation is now finished.
-            container.postDelayed(() -> {
-                container.setVisibility(View.GONE);
-                minimize.setEnabled(true);
-            }, 505);
-        }else if(container.getVisibility() == View.GONE)
-        {
-            settingsManager.storeSetting("menuSidebarAnimState", false);
-
-            // Re-enable the slideout menu button.
-            menuButton.setEnabled(true);
-
-            container.setVisibility(View.VISIBLE);
-            container.animate().translationX(-1.0f * ((container.getWidth() - (container.getWidth() * container.getScaleX())) / 2)).setDuration(500).setInterpolator(new AccelerateDecelerateInterpolator());
+            sidebarTimeline.play(view != null);
+        }else{
+            settingsManager.storeVolatileBoolean(MENU_SIDEBAR_ANIM_STATE, false);
 
             minimize.setBackgroundResource(R.drawable.minimize_button);
-            addLongClickToast(R.id.main_sidebar_minimize_button, R.string.main_sidebar_minimize_button_toast, Toast.LENGTH_SHORT);
+            minimize.setOnLongClickListener(minimizeToast);
             logo.setImageResource(R.drawable.company_logo_128px_inv);
 
-            minimize.animate().rotation(0.0f).setDuration(500).setInterpolator(new AccelerateDecelerateInterpolator());
-
-            // Re-enable the minimize button since the animation is now finished.
-            container.postDelayed(() -> minimize.setEnabled(true), 500);
+            sidebarTimeline.reverse(view != null);
         }
     }
 
@@ -48,7 +48,7 @@ public class SettingsMenuActivity extends AppCompatActivity
         // such automatic event, so we can just load, assuming that the stored copy is valid.
         // If not, store a cached copy of current settings. We'll use them if the user decides to
         // exit without saving settings.
-        if(settingsManager.getCache() == null){
+        if(!settingsManager.hasCache()){
             settingsManager.fillCache();
         }
 
@@ -78,7 +78,7 @@ public class SettingsMenuActivity extends AppCompatActivity
 
         String[] sizes = getResources().getStringArray(R.array.settings_menu_toolbar_resize_button_options);
         RelativeLayout menuToolbarSizeLayout = findViewById(R.id.settings_menu_bar_size_button);
-        HybridMultiSelectButton menuToolbarSize = new HybridMultiSelectButton(menuToolbarSizeLayout, getString(R.string.settings_menu_toolbar_resize_button_text), null, button1ID, (Integer)settingsManager.getSetting(button1ID), sizes);
+        HybridMultiSelectButton menuToolbarSize = new HybridMultiSelectButton(menuToolbarSizeLayout, getString(R.string.settings_menu_toolbar_resize_button_text), null, button1ID, settingsManager.getInt(button1ID, 0), sizes);
 
         menuToolbarSize.setDefaultState((Integer)settingsManager.getDefaultSetting(button1ID));
 
@@ -149,26 +149,8 @@ public class SettingsMenuActivity extends AppCompatActivity
     public void settingsBack(View view)
     {
         // Check if anything has changed from the stored settings copy. If they haven't, skip the confirmation dialog.
-        boolean identical = true;
-        HashMap<String, Object> cache = settingsManager.getCache();
-        HashMap<String, Object> live = settingsManager.getAllSettings();
-
-        // If the two maps are mapped to the same object, OR both caches are NOT null and their sizes are the same,
-        // (so in other words, the two are not obviously different in some way), proceed to test them for sameness.
-        if(cache == live || ((cache != null && live != null) && cache.size() == live.size())){
-            // Iterate through the key set of the live map, testing to make sure that each key is also
-            // possessed by the cached map, and that all objects referenced by the keys are identical.
-            // If any key violates this convention, flag as such and break the loop.
-            for(String k : live.keySet()){
-                if(!cache.containsKey(k) || live.get(k) != cache.get(k)){
-                    identical = false;
-                    break;
-                }
-            }
-        }else{
-            // The two are obviously different in some way, even without testing their contents, so we can assume that something was changed.
-            identical = false;
-        }
+        // If there is no stored copy at all, something went wrong, so ask the user to be safe.
+        boolean identical = settingsManager.hasCache() && !settingsManager.isCacheModified();
 
         if(identical){
             // The user went back before changing anything, so the cache and live copies are the exact same.
@@ -230,14 +212,11 @@ public class SettingsMenuActivity extends AppCompatActivity
 
     public void settingsApply(View view)
     {
-        // The user accepted the modified settings (if there were any), so we tell the SettingsManager
-        // to drop its stored index copy, since we don't need it anymore.
-        settingsManager.clearCache();
-        Toast.makeText(getApplicationContext(), R.string.settings_apply_notice_toast, Toast.LENGTH_LONG).show();
-
-        // Store a new copy of the accepted settings, so that if the user chooses to make additional
-        // changes, and later discards them, we can reload from this point.
+        // The user accepted the modified settings (if there were any), so we replace the SettingsManager's
+        // stored index copy with the accepted settings. If the user chooses to make additional changes,
+        // and later discards them, we can reload from this point.
         settingsManager.fillCache();
+        Toast.makeText(getApplicationContext(), R.string.settings_apply_notice_toast, Toast.LENGTH_LONG).show();
     }
 
     // DYNAMIC - NO NEED TO MODIFY
@@ -5,6 +5,7 @@ import android.content.Intent;
 import android.content.pm.ActivityInfo;
 import android.content.res.Configuration;
 import android.os.Handler;
+import android.support.v4.content.ContextCompat;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
 import android.view.View;
@@ -14,6 +15,12 @@ import android.widget.Toast;
 import com.michaelRunzler.ARK.android.R;
 import com.michaelRunzler.ARK.android.util.Settings.SettingsManager;
 import com.michaelRunzler.ARK.android.util.Settings.SettingsManagerDelegator;
+import com.michaelRunzler.ARK.android.util.Startup.StartupGraph;
+import com.michaelRunzler.ARK.android.util.Startup.StartupListener;
+import com.michaelRunzler.ARK.android.util.Tracing.Tracer;
+
+import java.io.File;
+import java.io.IOException;
 
 /**
  * Default template class for the ARK Android UI settings screen.
@@ -29,6 +36,15 @@ public class SplashScreenActivity extends AppCompatActivity
     // SYSTEM INITIALIZATION
     //
 
+    private final String CONFIG_FILE_NAME = "config.cfg";
+    private final long CONFIG_WRITE_DELAY = 500;
+
+    private final String TASK_DEFAULTS = "defaults";
+    private final String TASK_CONFIG = "config";
+    private final String TASK_DRAWABLES = "drawables";
+    private final int[] PRELOADED_DRAWABLES = {R.drawable.menu_button_element, R.drawable.settings_button,
+            R.drawable.help_button, R.drawable.minimize_button, R.drawable.minimize_button_inv, R.drawable.company_logo_128px_inv};
+
     private SettingsManager settingsManager;
 
     /**
@@ -40,6 +56,7 @@ public class SplashScreenActivity extends AppCompatActivity
     protected void onCreate(Bundle savedInstanceState)
     {
         super.onCreate(savedInstanceState);
+        Tracer.begin("SplashScreenActivity.onCreate");
 
         // Initialize and display splash screen.
         setContentView(R.layout.splash_screen);
@@ -47,6 +64,7 @@ public class SplashScreenActivity extends AppCompatActivity
 
         // Initialize main program elements, display main menu after load is completed.
         initializeSystem();
+        Tracer.end();
     }
 
     /**
@@ -65,37 +83,75 @@ public class SplashScreenActivity extends AppCompatActivity
 
     /**
      * Add your code for system background initialization here.
-     * Use the {@link SplashScreenActivity#postASyncProgress(ProgressBar, int)} method to increment the progress bar on the splash UI.
+     * Each piece of startup work is a task in a {@link StartupGraph}, with a weight for its share of the work and
+     * the names of any tasks that have to finish before it can start. Independent tasks run in parallel, the
+     * splash progress bar follows the weight of the finished tasks, and the main screen is shown as soon as the
+     * last task is done.
      */
     private void initializeSystem()
     {
         // Get the global instance of the settings manager object.
         settingsManager = SettingsManagerDelegator.getMainInstance();
+        settingsManager.setTarget(new File(getFilesDir(), CONFIG_FILE_NAME));
 
-        //todo temporary config placeholder
-        settingsManager.setDefaultSetting("menuToolbarSize", 1);
-        settingsManager.loadDefault("menuToolbarSize");
-
-        // Test pseudo-load segment
         final Handler msg = new Handler();
         final Context context = this.getApplicationContext();
-        new Thread(() -> {
-            final ProgressBar splashProgress = findViewById(R.id.splash_progress_bar);
-            for(int i = 0; i < 100; i++){
-                splashProgress.post(() -> splashProgress.incrementProgressBy(1));
-
-                try {
-                    Thread.sleep(50);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
+        final ProgressBar splashProgress = findViewById(R.id.splash_progress_bar);
+        final int progressMax = splashProgress.getMax();
+
+        StartupGraph startup = new StartupGraph();
+
+        //todo temporary config placeholder
+        startup.addTask(TASK_DEFAULTS, 5, () -> settingsManager.setDefaultSetting("menuToolbarSize", 1));
+
+        // Apply the defaults first, so that listeners only see a single round of changes once the config is loaded.
+        startup.addTask(TASK_CONFIG, 60, () -> {
+            // Load the stored config, if there is one. Anything missing from it falls back to its default.
+            try {
+                settingsManager.loadConfigFromFile();
+            } catch (IOException e) {
+                // No config has been written yet, or it could not be read. Defaults will be used instead.
+            }
+
+            // From here on, write changes back to disk in the background once they settle.
+            settingsManager.setWriteBehind(CONFIG_WRITE_DELAY);
+        }, TASK_DEFAULTS);
+
+        // Decode the main screen's images now, so that they come out of the resource cache when it is inflated.
+        startup.addTask(TASK_DRAWABLES, 35, () -> {
+            for(int id : PRELOADED_DRAWABLES) {
+                ContextCompat.getDrawable(context, id);
+            }
+        });
+
+        startup.start(new StartupListener() {
+            private int shownProgress = 0;
+
+            @Override
+            public void onProgress(int completedWeight, int totalWeight)
+            {
+                int progress = totalWeight == 0 ? progressMax : (int)((long)completedWeight * progressMax / totalWeight);
+                postASyncProgress(splashProgress, progress - shownProgress);
+                shownProgress = progress;
             }
-            msg.post(() -> {
-                // Initialize and display main screen, exiting this activity in the process.
-                finish();
-                startActivity(new Intent(context, MainActivity.class));
-            });
-        }).start();
+
+            @Override
+            public void onTaskFailed(String name, Exception error) {
+                // Startup tasks only prepare things ahead of time, so the main screen can still start without them.
+                error.printStackTrace();
+            }
+
+            @Override
+            public void onFinished()
+            {
+                Tracer.instant("Startup.finished");
+                msg.post(() -> {
+                    // Initialize and display main screen, exiting this activity in the process.
+                    finish();
+                    startActivity(new Intent(context, MainActivity.class));
+                });
+            }
+        });
     }
 
 
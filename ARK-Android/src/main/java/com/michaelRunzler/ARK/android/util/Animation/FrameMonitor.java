@@ -0,0 +1,136 @@
+package com.michaelRunzler.ARK.android.util.Animation;
+
+import android.support.annotation.NonNull;
+import android.view.Choreographer;
+import android.view.Display;
+import android.view.View;
+
+/**
+ * Measures how smoothly an animation runs by watching the frames that the UI thread produces while it plays.
+ * Each monitored span produces a {@link FrameStats} record, and the records are also combined into a running
+ * total, so that jank can be measured over many animations. Recording a frame does not allocate.
+ * All methods of this class must be called from the UI thread.
+ */
+public class FrameMonitor implements Choreographer.FrameCallback
+{
+    /**
+     * The number of individual frame times kept for each monitored span. Frames past this are still counted.
+     */
+    public static final int MAX_RECORDED_FRAMES = 512;
+
+    private static final float DEFAULT_REFRESH_RATE = 60.0f;
+
+    private final View view;
+    private final long[] durations;
+    private boolean running;
+    private long frameInterval;
+    private long firstFrame;
+    private long lastFrame;
+    private long worstFrame;
+    private int frames;
+    private int dropped;
+    private FrameStats last;
+    private FrameStats total;
+
+    /**
+     * Constructs a new instance of this object.
+     * @param view a {@link View} on the display that the monitored animations are shown on, used to find the
+     *             display's refresh rate
+     */
+    public FrameMonitor(@NonNull View view)
+    {
+        this.view = view;
+        this.durations = new long[MAX_RECORDED_FRAMES];
+    }
+
+    /**
+     * Starts monitoring frames. If this object is already monitoring, no action is taken.
+     */
+    public void start()
+    {
+        if(running) return;
+        running = true;
+
+        // The refresh rate can change between displays, so check it each time.
+        Display display = view.getDisplay();
+        float refreshRate = display == null || display.getRefreshRate() <= 0 ? DEFAULT_REFRESH_RATE : display.getRefreshRate();
+        frameInterval = (long)(1000000000L / refreshRate);
+
+        firstFrame = 0;
+        lastFrame = 0;
+        worstFrame = 0;
+        frames = 0;
+        dropped = 0;
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    /**
+     * Stops monitoring frames, and records the frames seen since the last call to {@link FrameMonitor#start()}.
+     * If this object is not monitoring, no action is taken.
+     */
+    public void stop()
+    {
+        if(!running) return;
+        running = false;
+        Choreographer.getInstance().removeFrameCallback(this);
+
+        long[] recorded = new long[Math.max(0, Math.min(frames - 1, MAX_RECORDED_FRAMES))];
+        System.arraycopy(durations, 0, recorded, 0, recorded.length);
+        last = new FrameStats(frames, dropped, lastFrame - firstFrame, worstFrame, recorded);
+        total = (total == null ? FrameStats.EMPTY : total).plus(last);
+    }
+
+    /**
+     * Checks if this object is currently monitoring frames.
+     * @return {@code true} if monitoring, {@code false} if otherwise
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Gets the statistics for the most recently completed monitoring span.
+     * @return the {@link FrameStats} for the last span, or {@code null} if none has completed since the last reset
+     */
+    public FrameStats getLastStats() {
+        return last;
+    }
+
+    /**
+     * Gets the combined statistics for every monitoring span completed since the last reset.
+     * @return the combined {@link FrameStats}, or {@code null} if no span has completed since the last reset
+     */
+    public FrameStats getTotalStats() {
+        return total;
+    }
+
+    /**
+     * Discards every recorded statistic. A span that is in progress is not affected.
+     */
+    public void reset()
+    {
+        last = null;
+        total = null;
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos)
+    {
+        if(!running) return;
+
+        if(frames == 0){
+            firstFrame = frameTimeNanos;
+        }else{
+            long delta = frameTimeNanos - lastFrame;
+            if(frames - 1 < MAX_RECORDED_FRAMES) durations[frames - 1] = delta;
+            worstFrame = Math.max(worstFrame, delta);
+
+            // Every refresh that went by between these two frames is a frame that the user never saw.
+            dropped += FrameStats.droppedFrames(delta, frameInterval);
+        }
+
+        lastFrame = frameTimeNanos;
+        frames++;
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+}
@@ -0,0 +1,109 @@
+package com.michaelRunzler.ARK.android.util.Animation;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Frame timing statistics for one or more animations, as recorded by a {@link FrameMonitor}.
+ * A frame is counted as dropped for every display refresh that passed without a new frame being drawn.
+ * Container-type object, all values are fixed at construction.
+ */
+public final class FrameStats
+{
+    /**
+     * Statistics covering no frames at all.
+     */
+    static final FrameStats EMPTY = new FrameStats(0, 0, 0, 0, new long[0]);
+
+    private final int frames;
+    private final int droppedFrames;
+    private final long duration;
+    private final long worstFrame;
+    private final long[] frameDurations;
+
+    /**
+     * Constructs a new instance of this object.
+     * @param frames the number of frames drawn
+     * @param droppedFrames the number of display refreshes that passed without a new frame
+     * @param duration the total time covered in nanoseconds
+     * @param worstFrame the longest time between two frames in nanoseconds
+     * @param frameDurations the time between each pair of consecutive frames in nanoseconds, in order
+     */
+    FrameStats(int frames, int droppedFrames, long duration, long worstFrame, @NonNull long[] frameDurations)
+    {
+        this.frames = frames;
+        this.droppedFrames = droppedFrames;
+        this.duration = duration;
+        this.worstFrame = worstFrame;
+        this.frameDurations = frameDurations;
+    }
+
+    /**
+     * Gets the number of frames drawn.
+     * @return the frame count
+     */
+    public int getFrameCount() {
+        return frames;
+    }
+
+    /**
+     * Gets the number of frames that should have been drawn, but were not.
+     * @return the number of display refreshes that passed without a new frame
+     */
+    public int getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    /**
+     * Gets the total time covered by these statistics, from the first frame to the last.
+     * @return the duration in milliseconds
+     */
+    public float getDurationMillis() {
+        return duration / 1000000.0f;
+    }
+
+    /**
+     * Gets the longest time between two consecutive frames.
+     * @return the worst frame time in milliseconds, or {@code 0} if fewer than two frames were drawn
+     */
+    public float getWorstFrameMillis() {
+        return worstFrame / 1000000.0f;
+    }
+
+    /**
+     * Gets the time between each pair of consecutive frames, in the order they were drawn. Only a limited
+     * number of frames are kept per animation (see {@link FrameMonitor#MAX_RECORDED_FRAMES}), and none are
+     * kept for combined statistics.
+     * @return a copy of the frame times in nanoseconds
+     */
+    public long[] getFrameDurations() {
+        return frameDurations.clone();
+    }
+
+    /**
+     * Combines these statistics with another set, as if both had been recorded as one. Per-frame times are not kept.
+     * @param other the {@link FrameStats} to add to these
+     * @return the combined statistics
+     */
+    FrameStats plus(@NonNull FrameStats other) {
+        return new FrameStats(frames + other.frames, droppedFrames + other.droppedFrames, duration + other.duration, Math.max(worstFrame, other.worstFrame), EMPTY.frameDurations);
+    }
+
+    /**
+     * Works out how many display refreshes went by without a new frame between two consecutive frames.
+     * The time between the frames is rounded to the nearest whole number of refreshes, so that the small
+     * amount of jitter in frame timestamps is not counted as a dropped frame.
+     * @param frameTime the time between the two frames in nanoseconds
+     * @param frameInterval the time between two display refreshes in nanoseconds
+     * @return the number of dropped frames, which is never negative
+     */
+    static int droppedFrames(long frameTime, long frameInterval)
+    {
+        long missed = (frameTime + frameInterval / 2) / frameInterval - 1;
+        return missed > 0 ? (int)missed : 0;
+    }
+
+    @Override
+    public String toString() {
+        return frames + " frames, " + droppedFrames + " dropped, " + getDurationMillis() + "ms total, " + getWorstFrameMillis() + "ms worst";
+    }
+}
@@ -0,0 +1,569 @@
+package com.michaelRunzler.ARK.android.util.Animation;
+
+import android.animation.Animator;
+import android.animation.AnimatorListenerAdapter;
+import android.animation.TimeInterpolator;
+import android.animation.ValueAnimator;
+import android.support.annotation.NonNull;
+import android.view.View;
+import android.view.animation.AccelerateDecelerateInterpolator;
+import android.view.animation.LinearInterpolator;
+
+import java.util.ArrayList;
+
+/**
+ * Reusable, reversible animation timeline for multi-stage view animations.
+ * A timeline is built once from stages, each of which animates a set of view properties in parallel over its
+ * duration. Stages either follow each other, or start alongside an earlier stage. Stages can also carry actions,
+ * such as visibility changes, which run as the timeline passes the start or end of the stage, with a matching
+ * action for when it passes the same point in reverse.
+ * The whole timeline is driven by a single {@link ValueAnimator}, which is reused every time it plays, so playing
+ * a timeline does not allocate. A timeline can be reversed at any point while it plays, and will head back
+ * from wherever it is, so there is no need to block input while it runs.
+ * Each property of a view should only be animated by one stage of a timeline.
+ * All methods of this class must be called from the UI thread.
+ */
+public class Timeline
+{
+    public static final int TRANSLATION_X = 0;
+    public static final int TRANSLATION_Y = 1;
+    public static final int X = 2;
+    public static final int Y = 3;
+    public static final int ROTATION = 4;
+    public static final int SCALE_X = 5;
+    public static final int SCALE_Y = 6;
+    public static final int ALPHA = 7;
+
+    /**
+     * The interpolator used by stages that do not set their own. Shared between all timelines.
+     */
+    public static final TimeInterpolator DEFAULT_INTERPOLATOR = new AccelerateDecelerateInterpolator();
+
+    private static final TimeInterpolator LINEAR = new LinearInterpolator();
+
+    private final ArrayList<Track> tracks;
+    private final ArrayList<Action> actions;
+    private final ArrayList<View> layerViews;
+    private final ValueAnimator animator;
+    private int[] layerTypes;
+    private TimelineListener listener;
+    private FrameMonitor monitor;
+    private int length;
+    private float position;
+    private float runFrom;
+    private float runTo;
+    private boolean forward;
+    private boolean played;
+    private boolean cancelled;
+    private boolean turning;
+    private boolean active;
+
+    /**
+     * Constructs a new instance of this object with no stages.
+     */
+    public Timeline()
+    {
+        tracks = new ArrayList<>();
+        actions = new ArrayList<>();
+        layerViews = new ArrayList<>();
+
+        // The animator only supplies the passage of time. Easing is applied per stage.
+        animator = ValueAnimator.ofFloat(0.0f, 1.0f);
+        animator.setInterpolator(LINEAR);
+        animator.addUpdateListener(animation -> {
+            float fraction = animation.getAnimatedFraction();
+            moveTo(fraction >= 1.0f ? runTo : runFrom + (runTo - runFrom) * fraction);
+        });
+        animator.addListener(new AnimatorListenerAdapter() {
+            @Override
+            public void onAnimationStart(Animator animation) {
+                activate();
+            }
+
+            @Override
+            public void onAnimationCancel(Animator animation) {
+                cancelled = true;
+            }
+
+            @Override
+            public void onAnimationEnd(Animator animation)
+            {
+                // Turning around is part of the same motion as far as layers and frame timing are concerned.
+                if(turning) return;
+
+                deactivate();
+                if(!cancelled && listener != null) listener.onTimelineFinished(Timeline.this, forward);
+            }
+        });
+    }
+
+    /**
+     * Adds a stage that starts once every stage added so far has finished.
+     * @param duration the duration of the stage in milliseconds
+     * @return the new {@link Stage}
+     */
+    public Stage addStage(int duration) {
+        return addStage(length, duration);
+    }
+
+    /**
+     * Adds a stage that starts at the same time as an existing stage, and runs alongside it.
+     * @param other the {@link Stage} to start alongside
+     * @param duration the duration of the stage in milliseconds
+     * @return the new {@link Stage}
+     */
+    public Stage addStageWith(@NonNull Stage other, int duration)
+    {
+        if(other.timeline() != this) throw new IllegalArgumentException("Stage belongs to a different timeline");
+        return addStage(other.start, duration);
+    }
+
+    /**
+     * Plays this timeline forwards from its current position. If it is already playing forwards, no action is taken.
+     * If it is playing in reverse, it turns around where it is.
+     * @param animate {@code true} to animate, {@code false} to jump straight to the end
+     */
+    public void play(boolean animate) {
+        run(true, animate);
+    }
+
+    /**
+     * Plays this timeline in reverse from its current position. If it is already playing in reverse, no action is taken.
+     * If it is playing forwards, it turns around where it is.
+     * @param animate {@code true} to animate, {@code false} to jump straight to the start
+     */
+    public void reverse(boolean animate) {
+        run(false, animate);
+    }
+
+    /**
+     * Stops this timeline where it is. It can be resumed in either direction with {@link Timeline#play(boolean)}
+     * or {@link Timeline#reverse(boolean)}. The listener is not notified.
+     */
+    public void cancel() {
+        animator.cancel();
+    }
+
+    /**
+     * Checks which direction this timeline was last played in.
+     * @return {@code true} if this timeline was last played forwards, {@code false} if it was last played in reverse
+     * or has never been played
+     */
+    public boolean isForward() {
+        return forward;
+    }
+
+    /**
+     * Checks if this timeline is currently animating.
+     * @return {@code true} if this timeline is running, {@code false} if otherwise
+     */
+    public boolean isRunning() {
+        return animator.isRunning();
+    }
+
+    /**
+     * Gets the total length of this timeline.
+     * @return the time from the start of the first stage to the end of the last in milliseconds
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Sets the listener to notify when this timeline finishes playing.
+     * @param listener the {@link TimelineListener} to notify, or {@code null} to remove the current one
+     */
+    public void setListener(TimelineListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Renders a view into a hardware layer while this timeline is animating, so that moving, rotating, scaling, or
+     * fading it does not redraw its contents on every frame. The view's previous layer type is restored once the
+     * timeline comes to rest. Best used on the largest views that a timeline moves, rather than their children.
+     * @param v the {@link View} to promote while animating
+     */
+    public void addHardwareLayer(@NonNull View v)
+    {
+        if(played) throw new IllegalStateException("Layers cannot be added once the timeline has been played");
+        layerViews.add(v);
+        layerTypes = new int[layerViews.size()];
+    }
+
+    /**
+     * Sets a {@link FrameMonitor} to record frame timings while this timeline is animating. Each continuous
+     * motion, from rest to rest, is recorded as one span, even if the timeline is reversed along the way.
+     * @param monitor the {@link FrameMonitor} to use, or {@code null} to stop recording
+     */
+    public void setFrameMonitor(FrameMonitor monitor)
+    {
+        if(active) throw new IllegalStateException("Frame monitor cannot be changed while the timeline is animating");
+        this.monitor = monitor;
+    }
+
+    /**
+     * Gets the {@link FrameMonitor} recording this timeline's frame timings.
+     * @return the current {@link FrameMonitor}, or {@code null} if none is set
+     */
+    public FrameMonitor getFrameMonitor() {
+        return monitor;
+    }
+
+    /**
+     * Adds a stage at the specified offset from the start of the timeline.
+     */
+    private Stage addStage(int start, int duration)
+    {
+        if(duration <= 0) throw new IllegalArgumentException("Stage duration must be greater than zero");
+        if(played) throw new IllegalStateException("Stages cannot be added once the timeline has been played");
+
+        length = Math.max(length, start + duration);
+        return new Stage(start, duration);
+    }
+
+    /**
+     * Starts a run towards one end of the timeline, turning around first if it is heading towards the other end.
+     */
+    private void run(boolean forward, boolean animate)
+    {
+        if(animator.isRunning()){
+            if(this.forward == forward && animate) return;
+
+            // Only a jump to one end brings the timeline to rest.
+            turning = animate;
+            animator.cancel();
+            turning = false;
+        }
+
+        this.forward = forward;
+        this.played = true;
+
+        // Endpoints that depend on the current state of the views can only be taken from the very start.
+        for(int i = 0; i < tracks.size(); i++)
+        {
+            Track t = tracks.get(i);
+            if(t.fromValue != null || (forward && position == 0)) t.capture();
+        }
+
+        float goal = forward ? length : 0;
+        if(!animate || position == goal){
+            moveTo(goal);
+            deactivate();
+            if(listener != null) listener.onTimelineFinished(this, forward);
+            return;
+        }
+
+        runFrom = position;
+        runTo = goal;
+        animator.setDuration((long)Math.abs(goal - position));
+        cancelled = false;
+        animator.start();
+    }
+
+    /**
+     * Sets up hardware layers and frame monitoring as this timeline starts moving from rest.
+     */
+    private void activate()
+    {
+        if(active) return;
+        active = true;
+
+        for(int i = 0; i < layerViews.size(); i++)
+        {
+            View v = layerViews.get(i);
+            layerTypes[i] = v.getLayerType();
+            v.setLayerType(View.LAYER_TYPE_HARDWARE, null);
+        }
+
+        if(monitor != null) monitor.start();
+    }
+
+    /**
+     * Restores layer types and stops frame monitoring as this timeline comes to rest.
+     */
+    private void deactivate()
+    {
+        if(!active) return;
+        active = false;
+
+        for(int i = 0; i < layerViews.size(); i++) {
+            layerViews.get(i).setLayerType(layerTypes[i], null);
+        }
+
+        if(monitor != null) monitor.stop();
+    }
+
+    /**
+     * Moves this timeline to the specified position, running any actions that it passes,
+     * and updating every animated property to match.
+     */
+    private void moveTo(float target)
+    {
+        if(target > position)
+        {
+            for(int i = 0; i < actions.size(); i++)
+            {
+                Action a = actions.get(i);
+                if(!a.done && (a.at < target || target == length)){
+                    a.done = true;
+                    if(a.forward != null) a.forward.run();
+                }
+            }
+        }else if(target < position)
+        {
+            for(int i = actions.size() - 1; i >= 0; i--)
+            {
+                Action a = actions.get(i);
+                if(a.done && (a.at > target || target == 0)){
+                    a.done = false;
+                    if(a.backward != null) a.backward.run();
+                }
+            }
+        }
+
+        position = target;
+        for(int i = 0; i < tracks.size(); i++) {
+            tracks.get(i).apply(target);
+        }
+    }
+
+    /**
+     * Adds an action, keeping the action list in time order.
+     */
+    private void addAction(int at, Runnable forward, Runnable backward)
+    {
+        int index = actions.size();
+        while(index > 0 && actions.get(index - 1).at > at) {
+            index--;
+        }
+        actions.add(index, new Action(at, forward, backward));
+    }
+
+    /**
+     * Gets the value of an animated property.
+     */
+    private static float getProperty(View v, int property)
+    {
+        switch (property)
+        {
+            case TRANSLATION_X: return v.getTranslationX();
+            case TRANSLATION_Y: return v.getTranslationY();
+            case X: return v.getX();
+            case Y: return v.getY();
+            case ROTATION: return v.getRotation();
+            case SCALE_X: return v.getScaleX();
+            case SCALE_Y: return v.getScaleY();
+            case ALPHA: return v.getAlpha();
+            default: throw new IllegalArgumentException("Unknown property " + property);
+        }
+    }
+
+    /**
+     * Sets the value of an animated property.
+     */
+    private static void setProperty(View v, int property, float value)
+    {
+        switch (property)
+        {
+            case TRANSLATION_X: v.setTranslationX(value); break;
+            case TRANSLATION_Y: v.setTranslationY(value); break;
+            case X: v.setX(value); break;
+            case Y: v.setY(value); break;
+            case ROTATION: v.setRotation(value); break;
+            case SCALE_X: v.setScaleX(value); break;
+            case SCALE_Y: v.setScaleY(value); break;
+            case ALPHA: v.setAlpha(value); break;
+            default: throw new IllegalArgumentException("Unknown property " + property);
+        }
+    }
+
+    /**
+     * A span of time in a {@link Timeline} over which a set of view properties are animated in parallel.
+     */
+    public final class Stage
+    {
+        private final int start;
+        private final int duration;
+        private TimeInterpolator interpolator;
+
+        private Stage(int start, int duration)
+        {
+            this.start = start;
+            this.duration = duration;
+            this.interpolator = DEFAULT_INTERPOLATOR;
+        }
+
+        /**
+         * Animates a view property from its value when the timeline starts playing to a fixed value.
+         * @param v the {@link View} to animate
+         * @param property the property to animate, such as {@link Timeline#TRANSLATION_X}
+         * @param to the value of the property at the end of this stage
+         * @return this stage
+         */
+        public Stage animate(@NonNull View v, int property, float to) {
+            return animate(v, property, null, () -> to);
+        }
+
+        /**
+         * Animates a view property from its value when the timeline starts playing to a computed value.
+         * The end value is computed once, when the timeline starts playing forwards from the very start.
+         * @param v the {@link View} to animate
+         * @param property the property to animate, such as {@link Timeline#TRANSLATION_X}
+         * @param to supplies the value of the property at the end of this stage
+         * @return this stage
+         */
+        public Stage animate(@NonNull View v, int property, @NonNull TimelineValue to) {
+            return animate(v, property, null, to);
+        }
+
+        /**
+         * Animates a view property between two computed values. Both values are computed again each time the
+         * timeline starts playing in either direction, so they can follow layout changes made in between.
+         * @param v the {@link View} to animate
+         * @param property the property to animate, such as {@link Timeline#TRANSLATION_X}
+         * @param from supplies the value of the property at the start of this stage, or {@code null} to use
+         *             its value when the timeline starts playing forwards from the very start
+         * @param to supplies the value of the property at the end of this stage
+         * @return this stage
+         */
+        public Stage animate(@NonNull View v, int property, TimelineValue from, @NonNull TimelineValue to)
+        {
+            // Check the property ID straight away rather than on the first frame.
+            getProperty(v, property);
+
+            tracks.add(new Track(this, v, property, from, to));
+            return this;
+        }
+
+        /**
+         * Runs an action as the timeline passes the start of this stage.
+         * @param forward the action to run when passing the start while playing forwards, may be {@code null}
+         * @param backward the action to run when passing the start while playing in reverse, which should undo
+         *                 the forward action. May be {@code null}.
+         * @return this stage
+         */
+        public Stage atStart(Runnable forward, Runnable backward)
+        {
+            addAction(start, forward, backward);
+            return this;
+        }
+
+        /**
+         * Runs an action as the timeline passes the end of this stage.
+         * @param forward the action to run when passing the end while playing forwards, may be {@code null}
+         * @param backward the action to run when passing the end while playing in reverse, which should undo
+         *                 the forward action. May be {@code null}.
+         * @return this stage
+         */
+        public Stage atEnd(Runnable forward, Runnable backward)
+        {
+            addAction(start + duration, forward, backward);
+            return this;
+        }
+
+        /**
+         * Sets the interpolator used by every property animated in this stage.
+         * Defaults to {@link Timeline#DEFAULT_INTERPOLATOR}.
+         * @param interpolator the {@link TimeInterpolator} to use. Should be shared rather than created per stage.
+         * @return this stage
+         */
+        public Stage setInterpolator(@NonNull TimeInterpolator interpolator)
+        {
+            this.interpolator = interpolator;
+            return this;
+        }
+
+        /**
+         * Gets the offset of this stage from the start of its timeline.
+         * @return the offset in milliseconds
+         */
+        public int getStart() {
+            return start;
+        }
+
+        /**
+         * Gets the duration of this stage.
+         * @return the duration in milliseconds
+         */
+        public int getDuration() {
+            return duration;
+        }
+
+        /**
+         * Gets the timeline that this stage belongs to.
+         */
+        private Timeline timeline() {
+            return Timeline.this;
+        }
+    }
+
+    /**
+     * A single view property animated over the span of a stage.
+     */
+    private static final class Track
+    {
+        private final Stage stage;
+        private final View view;
+        private final int property;
+        private final TimelineValue fromValue;
+        private final TimelineValue toValue;
+        private float from;
+        private float to;
+        private float applied;
+        private boolean captured;
+
+        Track(Stage stage, View view, int property, TimelineValue fromValue, TimelineValue toValue)
+        {
+            this.stage = stage;
+            this.view = view;
+            this.property = property;
+            this.fromValue = fromValue;
+            this.toValue = toValue;
+            this.applied = Float.NaN;
+        }
+
+        /**
+         * Computes this track's endpoints.
+         */
+        void capture()
+        {
+            from = fromValue == null ? getProperty(view, property) : fromValue.get();
+            to = toValue.get();
+            applied = Float.NaN;
+            captured = true;
+        }
+
+        /**
+         * Sets the property to its value at the specified timeline position, unless it already has that value.
+         * Properties are left alone until their endpoints are known.
+         */
+        void apply(float position)
+        {
+            if(!captured) return;
+
+            float local = Math.max(0.0f, Math.min(1.0f, (position - stage.start) / stage.duration));
+            if(local == applied) return;
+
+            applied = local;
+            setProperty(view, property, from + (to - from) * stage.interpolator.getInterpolation(local));
+        }
+    }
+
+    /**
+     * A pair of actions that run as a timeline passes a point in time.
+     */
+    private static final class Action
+    {
+        private final int at;
+        private final Runnable forward;
+        private final Runnable backward;
+        private boolean done;
+
+        Action(int at, Runnable forward, Runnable backward)
+        {
+            this.at = at;
+            this.forward = forward;
+            this.backward = backward;
+        }
+    }
+}
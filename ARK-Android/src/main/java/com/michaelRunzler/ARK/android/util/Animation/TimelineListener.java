@@ -0,0 +1,15 @@
+package com.michaelRunzler.ARK.android.util.Animation;
+
+/**
+ * Receives notification when a {@link Timeline} finishes playing in either direction.
+ */
+public interface TimelineListener
+{
+    /**
+     * Called on the UI thread when a timeline reaches the end it was playing towards. Not called if the timeline
+     * is cancelled, or reversed before reaching that end.
+     * @param timeline the {@link Timeline} that finished
+     * @param forward {@code true} if the timeline finished playing forwards, {@code false} if it finished in reverse
+     */
+    void onTimelineFinished(Timeline timeline, boolean forward);
+}
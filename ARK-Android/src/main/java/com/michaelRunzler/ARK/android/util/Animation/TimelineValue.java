@@ -0,0 +1,14 @@
+package com.michaelRunzler.ARK.android.util.Animation;
+
+/**
+ * Supplies an endpoint for an animated property in a {@link Timeline}. Endpoints are computed when the timeline
+ * starts playing rather than when it is built, so that they can depend on view sizes and positions.
+ */
+public interface TimelineValue
+{
+    /**
+     * Computes the endpoint value.
+     * @return the value of the property at this endpoint
+     */
+    float get();
+}
@@ -67,7 +67,7 @@ public class HybridBooleanSelectButton extends HybridSettingsButton
     {
         this.state = !this.state;
 
-        if(manager != null && super.settingID != null) manager.storeSetting(super.settingID, this.state);
+        if(manager != null && super.settingID != null) manager.storeBoolean(super.settingID, this.state);
 
         updateLinkedView();
     }
@@ -112,6 +112,6 @@ public class HybridBooleanSelectButton extends HybridSettingsButton
     @Override
     public void loadDefaultState(SettingsManager manager) {
         this.state = DEFAULT_STATE;
-        if(manager != null && super.settingID != null) manager.storeSetting(super.settingID, this.state);
+        if(manager != null && super.settingID != null) manager.storeBoolean(super.settingID, this.state);
     }
 }
@@ -70,7 +70,7 @@ public class HybridMultiSelectButton extends HybridSettingsButton
         if(state < options.length - 1) state ++;
         else state = 0;
 
-        if(manager != null && super.settingID != null) manager.storeSetting(super.settingID, this.state);
+        if(manager != null && super.settingID != null) manager.storeInt(super.settingID, this.state);
 
         updateLinkedView();
     }
@@ -135,6 +135,6 @@ public class HybridMultiSelectButton extends HybridSettingsButton
     @Override
     public void loadDefaultState(SettingsManager manager) {
         this.state = DEFAULT_STATE;
-        if(manager != null && super.settingID != null) manager.storeSetting(super.settingID, this.state);
+        if(manager != null && super.settingID != null) manager.storeInt(super.settingID, this.state);
     }
 }
@@ -73,7 +73,7 @@ public class HybridTargetActivatorButton extends HybridSettingsButton
     {
         if(handler != null){
             state = handler.handleEvent(state);
-            if(manager != null && super.settingID != null) manager.storeSetting(super.settingID, this.state);
+            if(manager != null && super.settingID != null) manager.storeBoolean(super.settingID, this.state);
             updateLinkedView();
         }
     }
@@ -135,7 +135,7 @@ public class HybridTargetActivatorButton extends HybridSettingsButton
     @Override
     public void loadDefaultState(SettingsManager manager) {
         this.state = DEFAULT_STATE;
-        if(manager != null && super.settingID != null) manager.storeSetting(super.settingID, this.state);
+        if(manager != null && super.settingID != null) manager.storeBoolean(super.settingID, this.state);
     }
 }
 
@@ -9,7 +9,9 @@ import android.widget.RelativeLayout;
 import android.widget.TextView;
 
 import com.michaelRunzler.ARK.android.R;
+import com.michaelRunzler.ARK.android.util.Layout.LayoutScheduler;
 import com.michaelRunzler.ARK.android.util.StaticUtils;
+import com.michaelRunzler.ARK.android.util.Tracing.Tracer;
 
 import java.util.ArrayList;
 
@@ -204,6 +206,8 @@ public class DynamicHelpInterface
      */
     public void updateLinkedView()
     {
+        Tracer.begin("HelpOverlay.updateLinkedView");
+
         // Get the display field and its container from the layout.
         FrameLayout display = (FrameLayout)linkedView.getChildAt(0);
         final TextView label = (TextView)linkedView.getChildAt(1);
@@ -251,13 +255,17 @@ public class DynamicHelpInterface
         linkedView.invalidate();
         linkedView.requestLayout();
 
-        label.postDelayed(() -> {
+        // The label's new size is only known once it has been laid out, so align it just before it is drawn.
+        LayoutScheduler.beforeDraw(label, () -> {
+            Tracer.begin("HelpOverlay.adaptiveCorrelation");
             adaptiveCorrelation(targetView, label);
 
             label.invalidate();
             linkedView.invalidate();
             linkedView.requestLayout();
-        }, 10);
+            Tracer.end();
+        });
+        Tracer.end();
     }
 
     /**
@@ -269,6 +277,7 @@ public class DynamicHelpInterface
     public void showOverlay(int animation)
     {
         if(linkedView.getVisibility() == View.VISIBLE) return;
+        Tracer.instant("HelpOverlay.show");
 
         if(animation <= 0){
             updateLinkedView();
@@ -295,6 +304,7 @@ public class DynamicHelpInterface
     public void hideOverlay(int animation)
     {
         if(linkedView.getVisibility() == View.GONE) return;
+        Tracer.instant("HelpOverlay.hide");
 
         if(animation <= 0) {
             linkedView.setVisibility(View.GONE);
@@ -345,6 +355,7 @@ public class DynamicHelpInterface
         this.maxLabelWidth = scene.getMaxLabelWidth();
 
         sceneCounter ++;
+        Tracer.counter("HelpOverlay.scene", sceneCounter);
 
         if(this.linkedView.getVisibility() == View.GONE) showOverlay(animation);
         else updateLinkedView();
@@ -0,0 +1,68 @@
+package com.michaelRunzler.ARK.android.util.Layout;
+
+import android.support.annotation.NonNull;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+/**
+ * Schedules work against a {@link View}'s layout passes, instead of guessing how long layout will take with
+ * a fixed delay. Work that reads view sizes or positions can run as soon as they are known, and work that
+ * corrects the UI's visual state can run before the frame it affects is drawn, so the user never sees the
+ * uncorrected state. Each scheduled action runs once, on the UI thread, and then unregisters itself.
+ * All methods of this class must be called from the UI thread.
+ */
+public final class LayoutScheduler
+{
+    private LayoutScheduler() {}
+
+    /**
+     * Runs an action once the provided {@link View} has been laid out. If the view has already been laid out,
+     * and no new layout has been requested since, the action runs straight away. Otherwise, it runs as soon
+     * as the next layout pass completes.
+     * @param v the {@link View} whose layout the action depends on
+     * @param action the action to run
+     */
+    public static void afterLayout(@NonNull final View v, @NonNull final Runnable action)
+    {
+        if(v.isLaidOut() && !v.isLayoutRequested()){
+            action.run();
+            return;
+        }
+
+        v.getViewTreeObserver().addOnGlobalLayoutListener(new ViewTreeObserver.OnGlobalLayoutListener() {
+            @Override
+            public void onGlobalLayout()
+            {
+                // The observer that this listener was added to may have been replaced if the view
+                // was attached to a window since, so always remove it from the current one.
+                ViewTreeObserver observer = v.getViewTreeObserver();
+                if(observer.isAlive()) observer.removeOnGlobalLayoutListener(this);
+                action.run();
+            }
+        });
+    }
+
+    /**
+     * Runs an action just before the next frame that includes the provided {@link View} is drawn. Sizes and
+     * positions are final at that point, so the action can read them, and anything it changes is visible in the
+     * very same frame. If the action requests a new layout, the frame is skipped and laid out again instead,
+     * so that a half-corrected frame is never shown.
+     * @param v the {@link View} whose frame the action should run before
+     * @param action the action to run
+     */
+    public static void beforeDraw(@NonNull final View v, @NonNull final Runnable action)
+    {
+        v.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw()
+            {
+                ViewTreeObserver observer = v.getViewTreeObserver();
+                if(observer.isAlive()) observer.removeOnPreDrawListener(this);
+                action.run();
+
+                // Drawing now would show the layout from before the action, so wait for the new one.
+                return !v.isLayoutRequested();
+            }
+        });
+    }
+}
@@ -0,0 +1,113 @@
+package com.michaelRunzler.ARK.android.util.Settings;
+
+import android.support.annotation.NonNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Provides crash-safe replacement of a config file on disk. New contents are written to a temporary
+ * sibling file and synced to storage before being renamed over the live file, so the live file is
+ * never left half-written. The previous live file is retained as a backup generation, which readers
+ * should fall back to if the live file is missing or unreadable.
+ */
+class AtomicConfigFile
+{
+    static final String TEMP_SUFFIX = ".tmp";
+    static final String BACKUP_SUFFIX = ".bak";
+
+    private File base;
+    private File temp;
+    private File backup;
+
+    /**
+     * Constructs a new instance of this object managing the specified file.
+     * @param base the live config file that this object should manage
+     */
+    AtomicConfigFile(@NonNull File base)
+    {
+        this.base = base;
+        this.temp = new File(base.getPath() + TEMP_SUFFIX);
+        this.backup = new File(base.getPath() + BACKUP_SUFFIX);
+    }
+
+    /**
+     * Opens a new write to this file. The returned stream writes to a temporary file, and must be
+     * passed to either {@link AtomicConfigFile#finishWrite(FileOutputStream)} or
+     * {@link AtomicConfigFile#failWrite(FileOutputStream)} once the caller is done with it.
+     * Callers should wrap the returned stream in a buffered stream before writing to it.
+     * @return a {@link FileOutputStream} targeting the temporary file
+     * @throws IOException if the temporary file or its parent directory could not be created
+     */
+    FileOutputStream startWrite() throws IOException
+    {
+        File parent = base.getAbsoluteFile().getParentFile();
+        if(parent != null && !parent.exists() && !parent.mkdirs()) throw new IOException("Unable to create necessary config directory path");
+
+        // Clear out any temporary file left behind by an interrupted write.
+        if(temp.exists() && !temp.delete()) throw new IOException("Unable to delete stale temporary config file");
+
+        return new FileOutputStream(temp);
+    }
+
+    /**
+     * Commits a write started with {@link AtomicConfigFile#startWrite()}. The stream is synced to the
+     * storage device and closed, the current live file (if any) becomes the backup generation, and the
+     * temporary file is renamed into place. Any buffering streams wrapping the provided stream must be
+     * flushed before calling this method.
+     * @param stream the stream returned by {@link AtomicConfigFile#startWrite()}
+     * @throws IOException if the sync or either rename failed. The previous live file or backup will
+     * still be intact if this occurs.
+     */
+    void finishWrite(@NonNull FileOutputStream stream) throws IOException
+    {
+        try {
+            stream.flush();
+            stream.getFD().sync();
+        } finally {
+            stream.close();
+        }
+
+        // Retire the current live file to the backup slot. Renames replace their destination atomically,
+        // so there is always at least one complete copy of the config on disk.
+        if(base.exists() && !base.renameTo(backup)) {
+            temp.delete();
+            throw new IOException("Unable to retire current config file to backup");
+        }
+
+        if(!temp.renameTo(base)) throw new IOException("Unable to move written config file into place");
+    }
+
+    /**
+     * Aborts a write started with {@link AtomicConfigFile#startWrite()}. The stream is closed and the
+     * temporary file is deleted. The live file and backup are left untouched.
+     * @param stream the stream returned by {@link AtomicConfigFile#startWrite()}
+     */
+    void failWrite(FileOutputStream stream)
+    {
+        if(stream != null){
+            try {
+                stream.close();
+            } catch (IOException ignored) {}
+        }
+
+        temp.delete();
+    }
+
+    /**
+     * Gets the list of files that a reader should attempt to load from, in order of preference.
+     * @return a {@link File} array containing the live file followed by the backup generation
+     */
+    File[] getReadCandidates() {
+        return new File[]{base, backup};
+    }
+
+    /**
+     * Gets the backup generation file for this object.
+     * @return the {@link File} that holds the last known-good config generation
+     */
+    File getBackupFile() {
+        return backup;
+    }
+}
@@ -0,0 +1,259 @@
+package com.michaelRunzler.ARK.android.util.Settings;
+
+import android.support.annotation.NonNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Stores large setting values out of line, in content-addressed files in a directory beside the config file.
+ * Each blob holds the encoded form of a single value, optionally deflated, and is named after the SHA-1 hash
+ * of that encoded form, so identical values share a file and a value that has not changed is never written twice.
+ * The config file itself only holds a short reference record (see {@link ConfigCodec#TYPE_BLOB}).
+ * Blobs that are no longer referenced by either the current or the previous config generation, or by an open
+ * transaction's undo records, are deleted after each complete write, once this object has seen two complete
+ * writes in a row.
+ * Container-type object, used internally by {@link SettingsManager} and {@link ConfigCodec}.
+ */
+final class BlobStore
+{
+    static final String DIRECTORY_SUFFIX = ".blobs";
+    static final int HASH_LENGTH = 20;
+    static final int REFERENCE_LENGTH = HASH_LENGTH + 1;
+
+    private static final byte FLAG_DEFLATED = 0x01;
+    private static final String DEFLATED_SUFFIX = ".z";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final File directory;
+    private final int threshold;
+    private final boolean compress;
+
+    // Blob names referenced by the write in progress, and by the last complete write. Guarded by this object.
+    private HashSet<String> retained;
+    private HashSet<String> previous;
+
+    /**
+     * Constructs a new instance of this object storing blobs beside the specified config file.
+     * @param config the config file that the blobs belong to
+     * @param threshold the encoded size in bytes at or above which values are moved out of line, or {@code 0}
+     *                  to keep every new value inline. Existing blob references can always be read.
+     * @param compress {@code true} to deflate new blobs, {@code false} to store them as-is
+     */
+    BlobStore(@NonNull File config, int threshold, boolean compress)
+    {
+        this.directory = new File(config.getPath() + DIRECTORY_SUFFIX);
+        this.threshold = threshold;
+        this.compress = compress;
+    }
+
+    /**
+     * Checks if this object stores its blobs in the same place as another, so that references made by one
+     * can be resolved by the other.
+     * @param other the object to compare against, may be {@code null}
+     * @return {@code true} if both objects use the same blob directory
+     */
+    boolean sameDirectory(BlobStore other) {
+        return other != null && (other == this || other.directory.equals(directory));
+    }
+
+    /**
+     * Checks if a value of the specified encoded size should be stored out of line.
+     * @param length the encoded size of the value in bytes
+     * @return {@code true} if the value should become a blob
+     */
+    boolean shouldStore(int length) {
+        return threshold > 0 && length >= threshold;
+    }
+
+    /**
+     * Stores an encoded value as a blob if an identical one is not already stored, and writes a reference
+     * to it to the provided stream.
+     * @param encoded a buffer holding the encoded type-length-value triplet
+     * @param length the number of valid bytes in the buffer
+     * @param os the stream to write the reference record to
+     * @throws IOException if the blob could not be written
+     */
+    void store(@NonNull byte[] encoded, int length, @NonNull DataOutputStream os) throws IOException
+    {
+        byte[] hash = hash(encoded, length);
+        String name = nameOf(hash, compress);
+
+        File file = new File(directory, name);
+        if(!file.exists())
+        {
+            AtomicConfigFile target = new AtomicConfigFile(file);
+            FileOutputStream fs = target.startWrite();
+            try{
+                if(compress){
+                    DeflaterOutputStream ds = new DeflaterOutputStream(fs);
+                    ds.write(encoded, 0, length);
+                    ds.finish();
+                }else{
+                    fs.write(encoded, 0, length);
+                }
+                target.finishWrite(fs);
+            }catch(IOException e){
+                target.failWrite(fs);
+                throw e;
+            }
+        }
+
+        writeReference(os, compress, hash);
+    }
+
+    /**
+     * Writes a reference record to an existing blob, and marks it as still in use.
+     * @param os the stream to write the record to
+     * @param deflated {@code true} if the blob is deflated
+     * @param hash the hash of the blob's contents
+     * @throws IOException if the write failed
+     */
+    void writeReference(@NonNull DataOutputStream os, boolean deflated, @NonNull byte[] hash) throws IOException
+    {
+        os.writeByte(ConfigCodec.TYPE_BLOB);
+        os.writeInt(REFERENCE_LENGTH);
+        os.writeByte(deflated ? FLAG_DEFLATED : 0);
+        os.write(hash);
+        retain(deflated, hash);
+    }
+
+    /**
+     * Marks a blob as referenced by the write in progress, if any, without writing a reference to it.
+     * Used for blobs that are not in the snapshot being written, but may still be put back into the index.
+     * @param deflated {@code true} if the blob is deflated
+     * @param hash the hash of the blob's contents
+     */
+    void retain(boolean deflated, @NonNull byte[] hash) {
+        retain(nameOf(hash, deflated));
+    }
+
+    /**
+     * Reads and decodes the value held by a blob. The blob's contents are checked against its hash.
+     * @param deflated {@code true} if the blob is deflated
+     * @param hash the hash of the blob's contents
+     * @return the decoded value
+     * @throws IOException if the blob is missing, damaged, or could not be decoded
+     */
+    Object load(boolean deflated, @NonNull byte[] hash) throws IOException
+    {
+        File file = new File(directory, nameOf(hash, deflated));
+        if(!file.exists()) throw new IOException("Config blob " + file.getName() + " is missing");
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        InputStream is = new FileInputStream(file);
+        try{
+            if(deflated) is = new InflaterInputStream(is);
+
+            byte[] chunk = new byte[8192];
+            int read;
+            while((read = is.read(chunk)) >= 0) {
+                buffer.write(chunk, 0, read);
+            }
+        }finally{
+            is.close();
+        }
+
+        byte[] encoded = buffer.toByteArray();
+        if(!Arrays.equals(hash(encoded, encoded.length), hash)) throw new IOException("Config blob " + file.getName() + " is damaged");
+
+        return ConfigCodec.readValue(new DataInputStream(new ByteArrayInputStream(encoded)), this);
+    }
+
+    /**
+     * Parses a reference record's payload.
+     * @param payload the {@link BlobStore#REFERENCE_LENGTH} bytes following the record header
+     * @return a placeholder that loads the referenced blob on first access
+     * @throws IOException if the payload is malformed
+     */
+    BlobValue parseReference(@NonNull byte[] payload) throws IOException
+    {
+        if(payload.length != REFERENCE_LENGTH) throw new IOException("Config blob reference has an invalid length");
+        return new BlobValue(this, (payload[0] & FLAG_DEFLATED) != 0, Arrays.copyOfRange(payload, 1, REFERENCE_LENGTH));
+    }
+
+    /**
+     * Starts tracking which blobs are referenced by a config write.
+     */
+    synchronized void beginWrite() {
+        retained = new HashSet<>();
+    }
+
+    /**
+     * Finishes a config write started with {@link BlobStore#beginWrite()}. If the write covered the whole
+     * index, blobs referenced by neither this write nor the previous complete write are deleted.
+     * @param complete {@code true} if every setting was written, {@code false} if the write failed or only
+     *                 covered part of the index
+     */
+    synchronized void finishWrite(boolean complete)
+    {
+        HashSet<String> current = retained;
+        retained = null;
+
+        // A partial write says nothing about which blobs the files on disk still use, so collection has to
+        // wait until two complete writes have been seen again.
+        if(!complete || current == null){
+            previous = null;
+            return;
+        }
+
+        String[] names = previous == null ? null : directory.list();
+        if(names != null)
+        {
+            for(String name : names) {
+                if(!current.contains(name) && !previous.contains(name) && !name.endsWith(AtomicConfigFile.TEMP_SUFFIX)) new File(directory, name).delete();
+            }
+        }
+
+        previous = current;
+    }
+
+    /**
+     * Marks a blob as referenced by the write in progress, if any.
+     */
+    private synchronized void retain(String name) {
+        if(retained != null) retained.add(name);
+    }
+
+    /**
+     * Computes the content hash that a blob is named after.
+     */
+    private static byte[] hash(byte[] data, int length)
+    {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(data, 0, length);
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java and Android runtime is required to provide SHA-1.
+            throw new IllegalStateException("SHA-1 is not available", e);
+        }
+    }
+
+    /**
+     * Gets the file name of a blob.
+     */
+    private static String nameOf(byte[] hash, boolean deflated)
+    {
+        char[] retV = new char[hash.length * 2];
+        for(int i = 0; i < hash.length; i++) {
+            retV[i * 2] = HEX[(hash[i] >> 4) & 0xF];
+            retV[i * 2 + 1] = HEX[hash[i] & 0xF];
+        }
+
+        return deflated ? new String(retV) + DEFLATED_SUFFIX : new String(retV);
+    }
+}
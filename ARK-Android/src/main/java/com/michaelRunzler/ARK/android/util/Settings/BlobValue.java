@@ -0,0 +1,78 @@
+package com.michaelRunzler.ARK.android.util.Settings;
+
+import android.support.annotation.NonNull;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Placeholder for a setting value that is stored out of line in a {@link BlobStore}, and has not been
+ * loaded yet. The blob is read the first time the value is requested, and the value is kept from then on.
+ * As long as the value is not replaced, writing it back only writes the reference, never the blob.
+ * Container-type object, used internally by {@link SettingsManager} and {@link ConfigCodec}.
+ */
+final class BlobValue
+{
+    private static final Object UNLOADED = new Object();
+
+    private final BlobStore store;
+    private final boolean deflated;
+    private final byte[] hash;
+    private volatile Object value;
+
+    /**
+     * Constructs a new placeholder for the specified blob.
+     * @param store the {@link BlobStore} holding the blob
+     * @param deflated {@code true} if the blob is deflated
+     * @param hash the hash of the blob's contents
+     */
+    BlobValue(@NonNull BlobStore store, boolean deflated, @NonNull byte[] hash)
+    {
+        this.store = store;
+        this.deflated = deflated;
+        this.hash = hash;
+        this.value = UNLOADED;
+    }
+
+    /**
+     * Gets the value represented by this placeholder, loading it if this is the first request.
+     * @return the loaded value, or {@code null} if the blob could not be loaded
+     */
+    Object get()
+    {
+        Object v = value;
+        if(v == UNLOADED)
+        {
+            try {
+                v = store.load(deflated, hash);
+            } catch (IOException e) {
+                v = null;
+            }
+            value = v;
+        }
+
+        return v;
+    }
+
+    /**
+     * Writes this value to the provided stream. If the target config keeps its blobs in the same place,
+     * only the reference is written. Otherwise, the value is loaded and written in full.
+     * @param os the {@link DataOutputStream} to write to
+     * @param blobs the blob store of the config being written, or {@code null} if it has none
+     * @throws IOException if the write failed
+     */
+    void writeTo(@NonNull DataOutputStream os, BlobStore blobs) throws IOException
+    {
+        if(store.sameDirectory(blobs)) blobs.writeReference(os, deflated, hash);
+        else ConfigCodec.writeValue(os, get(), blobs);
+    }
+
+    /**
+     * Marks this value's blob as still in use by the write in progress on the provided store, if it keeps its
+     * blobs in the same place, so that it is not collected while this value can still be written back.
+     * @param blobs the blob store of the config being written
+     */
+    void retainIn(@NonNull BlobStore blobs) {
+        if(store.sameDirectory(blobs)) blobs.retain(deflated, hash);
+    }
+}
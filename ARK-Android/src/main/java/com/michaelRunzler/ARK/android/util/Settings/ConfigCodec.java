@@ -0,0 +1,854 @@
+package com.michaelRunzler.ARK.android.util.Settings;
+
+import android.support.annotation.NonNull;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Encodes and decodes settings indices using the binary config file format.
+ * Files start with a magic number, format version, and entry count, followed by one record per entry.
+ * Each record consists of the entry's key, a one-byte type tag, a four-byte payload length, the
+ * payload itself, and a CRC32 checksum of everything before it in the record. Common value types are
+ * stored natively. Any other {@link java.io.Serializable} value is stored as a Java serialization blob,
+ * which is only used as a fallback for opaque types.
+ * The records are followed by an index of each key and the file offset of its value, and a fixed-size
+ * footer pointing to the start of that index. The index ends with a CRC32 checksum of its own. This allows
+ * a file to be memory-mapped and its values decoded individually on demand
+ * (see {@link ConfigCodec#mapConfig(File)}) instead of all up front.
+ * When a {@link BlobStore} is provided, large object values are moved out of line into blob files, and
+ * their records only hold a reference to the blob (see {@link ConfigCodec#TYPE_BLOB}).
+ * The checksums let a reader tell exactly which records are damaged, so that the intact records of a
+ * damaged file can still be recovered (see {@link ConfigCodec#salvageConfig(File, BlobStore, List)}).
+ * Files written by older versions of this app (a single serialized {@link HashMap}) are also readable.
+ */
+final class ConfigCodec
+{
+    static final int MAGIC = 0x41524B43; // 'ARKC'
+    static final short VERSION = 4;
+    static final int FOOTER_MAGIC = 0x49445832; // 'IDX2'
+
+    // Version 1 files have no index or footer, and can only be read sequentially.
+    // Version 3 adds blob references, and is otherwise identical to version 2.
+    // Version 4 adds the record and index checksums.
+    private static final short FIRST_INDEXED_VERSION = 2;
+    private static final short FIRST_CHECKED_VERSION = 4;
+    private static final int HEADER_SIZE = 10;
+    private static final int FOOTER_SIZE = 8;
+    private static final int VALUE_HEADER_SIZE = 5;
+    private static final int CHECKSUM_SIZE = 4;
+
+    // Payloads larger than this are read in chunks, so that a damaged length can't cause a huge allocation.
+    private static final int MAX_UNCHECKED_PAYLOAD = 64 * 1024;
+
+    static final byte TYPE_NULL = 0;
+    static final byte TYPE_INT = 1;
+    static final byte TYPE_FLOAT = 2;
+    static final byte TYPE_BOOLEAN = 3;
+    static final byte TYPE_STRING = 4;
+    static final byte TYPE_LONG = 5;
+    static final byte TYPE_FILE = 6;
+    static final byte TYPE_SERIALIZED = 7;
+    static final byte TYPE_BLOB = 8;
+
+    private static final Charset UTF8 = StandardCharsets.UTF_8;
+
+    // Stream header written by ObjectOutputStream, used to identify legacy config files.
+    private static final int LEGACY_MAGIC = 0xACED;
+
+    private ConfigCodec() {}
+
+    /**
+     * Checks if the provided stream contains a legacy (Java-serialized) config file.
+     * The stream's position is not changed by this method.
+     * @param is the {@link BufferedInputStream} to check. Must support mark/reset.
+     * @return {@code true} if the stream contains a legacy config, {@code false} if otherwise
+     * @throws IOException if the stream could not be read
+     */
+    static boolean isLegacyFormat(@NonNull BufferedInputStream is) throws IOException
+    {
+        is.mark(2);
+        int header = (is.read() << 8) | is.read();
+        is.reset();
+
+        return header == LEGACY_MAGIC;
+    }
+
+    /**
+     * Writes a settings table to the provided stream in the binary config format.
+     * The stream is flushed, but not closed, after writing.
+     * @param out the {@link OutputStream} to write to. Should be buffered.
+     * @param entries the settings table to write. Slots are mapped to keys through the {@link SettingKey} registry.
+     * @throws IOException if an error occurred during the write or encoding process
+     */
+    static void writeConfig(@NonNull OutputStream out, @NonNull SettingsTable entries) throws IOException {
+        writeConfig(out, entries, null);
+    }
+
+    /**
+     * Writes a settings table to the provided stream in the binary config format, moving large values
+     * out of line into the provided blob store. The stream is flushed, but not closed, after writing.
+     * @param out the {@link OutputStream} to write to. Should be buffered.
+     * @param entries the settings table to write. Slots are mapped to keys through the {@link SettingKey} registry.
+     * @param blobs the {@link BlobStore} to move large values into, or {@code null} to write every value inline
+     * @throws IOException if an error occurred during the write or encoding process, or a blob could not be written
+     */
+    static void writeConfig(@NonNull OutputStream out, @NonNull SettingsTable entries, BlobStore blobs) throws IOException
+    {
+        // Everything written passes through the checksum, which is reset at the start of each record.
+        CRC32 checksum = new CRC32();
+        DataOutputStream os = new DataOutputStream(new CheckedOutputStream(out, checksum));
+
+        os.writeInt(MAGIC);
+        os.writeShort(VERSION);
+        os.writeInt(entries.size());
+
+        // Write each record, noting down where its value starts for the index.
+        int[] slots = new int[entries.size()];
+        int[] offsets = new int[entries.size()];
+        int i = 0;
+        for(int slot = entries.nextSlot(0); slot >= 0; slot = entries.nextSlot(slot + 1))
+        {
+            slots[i] = slot;
+            checksum.reset();
+            os.writeUTF(SettingKey.nameOf(slot));
+            offsets[i] = os.size();
+            writeValue(os, entries.tag(slot), entries.bits(slot), entries.ref(slot), blobs);
+            os.writeInt((int)checksum.getValue());
+            i++;
+        }
+
+        // Write the key index and the footer pointing to it.
+        int indexOffset = os.size();
+        checksum.reset();
+        for(i = 0; i < slots.length; i++) {
+            os.writeUTF(SettingKey.nameOf(slots[i]));
+            os.writeInt(offsets[i]);
+        }
+
+        os.writeInt((int)checksum.getValue());
+        os.writeInt(indexOffset);
+        os.writeInt(FOOTER_MAGIC);
+        os.flush();
+    }
+
+    /**
+     * Memory-maps a config file and reads its key index, without decoding any values.
+     * Each returned entry is a {@link LazyValue} that decodes its value from the mapped file the
+     * first time it is requested. The mapping remains valid even if the file is later replaced.
+     * @param source the config {@link File} to map
+     * @return the settings index contained in the file, with {@link LazyValue} placeholders as values,
+     * or {@code null} if the file does not contain a usable index (such as legacy or version 1 files).
+     * Files for which this method returns {@code null} should be read with {@link ConfigCodec#readConfig(InputStream)}.
+     * @throws IOException if the file could not be mapped
+     */
+    static HashMap<String, Object> mapConfig(@NonNull File source) throws IOException {
+        return mapConfig(source, null);
+    }
+
+    /**
+     * Memory-maps a config file and reads its key index, without decoding any values.
+     * Works as {@link ConfigCodec#mapConfig(File)} does, but also resolves blob references through the provided store.
+     * @param source the config {@link File} to map
+     * @param blobs the {@link BlobStore} holding the file's blobs, or {@code null} if it has none
+     * @return the settings index contained in the file, or {@code null} if the file does not contain a usable index
+     * @throws IOException if the file could not be mapped
+     */
+    static HashMap<String, Object> mapConfig(@NonNull File source, BlobStore blobs) throws IOException
+    {
+        MappedByteBuffer buffer;
+        FileInputStream fs = new FileInputStream(source);
+        try{
+            FileChannel channel = fs.getChannel();
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }finally{
+            fs.close();
+        }
+
+        // Check that the file is indexed, and that its footer is intact.
+        int size = buffer.capacity();
+        if(size < HEADER_SIZE + FOOTER_SIZE || buffer.getInt(0) != MAGIC) return null;
+
+        short version = buffer.getShort(4);
+        if(version < FIRST_INDEXED_VERSION || version > VERSION) return null;
+
+        int footer = size - FOOTER_SIZE;
+        int indexOffset = buffer.getInt(footer);
+        if(buffer.getInt(footer + 4) != FOOTER_MAGIC || indexOffset < HEADER_SIZE || indexOffset > footer) return null;
+
+        int count = buffer.getInt(6);
+        if(count < 0) return null;
+
+        // Copy out the index only. Values stay in the mapped file until they are asked for.
+        byte[] index = new byte[footer - indexOffset];
+        ByteBuffer view = buffer.duplicate();
+        view.position(indexOffset);
+        view.get(index);
+
+        // A damaged index would point values at the wrong records, so let the sequential reader decide instead.
+        boolean checked = version >= FIRST_CHECKED_VERSION;
+        if(checked && !checkIndex(index)) return null;
+
+        ByteArrayInputStream bs = new ByteArrayInputStream(index);
+        DataInputStream is = new DataInputStream(bs);
+        HashMap<String, Object> retV = new HashMap<>();
+        try{
+            for(int i = 0; i < count; i++)
+            {
+                // Note down how long the key is, so that each value can find the start of its record to check it.
+                int keyStart = bs.available();
+                String key = is.readUTF();
+                int keyLength = keyStart - bs.available();
+                int offset = is.readInt();
+                if(offset < HEADER_SIZE + keyLength || offset >= indexOffset) return null;
+
+                retV.put(key, new LazyValue(buffer, offset, checked ? keyLength : 0, blobs));
+            }
+        }catch(IOException e){
+            // Damaged index. The records themselves may still be fine, so let the sequential reader decide.
+            return null;
+        }
+
+        return retV;
+    }
+
+    /**
+     * Reads a settings index in the binary config format from the provided stream.
+     * The stream is not closed after reading.
+     * @param in the {@link InputStream} to read from. Should be buffered.
+     * @return the settings index contained in the stream
+     * @throws IOException if an error occurred during the read or decoding process, or if the stream
+     * does not contain a valid config
+     */
+    static HashMap<String, Object> readConfig(@NonNull InputStream in) throws IOException {
+        return readConfig(in, null);
+    }
+
+    /**
+     * Reads a settings index in the binary config format from the provided stream.
+     * Blob references are not loaded, but become {@link BlobValue} placeholders that load their blob on first access.
+     * The stream is not closed after reading.
+     * @param in the {@link InputStream} to read from. Should be buffered.
+     * @param blobs the {@link BlobStore} holding the config's blobs, or {@code null} if it has none
+     * @return the settings index contained in the stream
+     * @throws IOException if an error occurred during the read or decoding process, or if the stream
+     * does not contain a valid config
+     */
+    static HashMap<String, Object> readConfig(@NonNull InputStream in, BlobStore blobs) throws IOException
+    {
+        CRC32 checksum = new CRC32();
+        DataInputStream is = new DataInputStream(new CheckedInputStream(in, checksum));
+
+        if(is.readInt() != MAGIC) throw new IOException("File is not a valid config file");
+        short version = is.readShort();
+        if(version > VERSION) throw new IOException("Config file version " + version + " is not supported");
+
+        int count = is.readInt();
+        if(count < 0) throw new IOException("Config file has an invalid entry count");
+
+        boolean checked = version >= FIRST_CHECKED_VERSION;
+        HashMap<String, Object> retV = new HashMap<>();
+        for(int i = 0; i < count; i++)
+        {
+            checksum.reset();
+            String key = is.readUTF();
+            Object value = readValue(is, blobs);
+
+            int expected = (int)checksum.getValue();
+            if(checked && is.readInt() != expected) throw new IOException("Config record for " + key + " is damaged");
+            retV.put(key, value);
+        }
+
+        return retV;
+    }
+
+    /**
+     * Reads every intact record from a config file, skipping over any damaged ones. Records are read and checked
+     * in a single streaming pass, so the file is never held in memory as a whole. If a damaged record throws the
+     * pass off track, the rest of the records are found through the file's index instead, if the index is intact.
+     * Only files with record checksums (format version 4 and up) can be salvaged.
+     * @param source the config {@link File} to read
+     * @param blobs the {@link BlobStore} holding the file's blobs, or {@code null} if it has none
+     * @param damaged a list to add the keys of damaged records to. Keys that come after the point where the pass
+     *                went off track can only be reported if the index is intact.
+     * @return the intact records in the file, or {@code null} if the file can't be salvaged (because it is too old,
+     * or its header is damaged). Nothing is added to {@code damaged} in that case.
+     * @throws IOException if the file could not be opened
+     */
+    static HashMap<String, Object> salvageConfig(@NonNull File source, BlobStore blobs, @NonNull List<String> damaged) throws IOException
+    {
+        long size = source.length();
+        HashMap<String, Integer> index = readIndex(source, size);
+
+        CRC32 checksum = new CRC32();
+        CountingInputStream counter = new CountingInputStream(new BufferedInputStream(new FileInputStream(source)));
+        DataInputStream is = new DataInputStream(new CheckedInputStream(counter, checksum));
+
+        HashMap<String, Object> retV = new HashMap<>();
+        ArrayList<String> lost = new ArrayList<>();
+        String key = null;
+        try{
+            if(is.readInt() != MAGIC) return null;
+            short version = is.readShort();
+            if(version < FIRST_CHECKED_VERSION || version > VERSION) return null;
+
+            int count = is.readInt();
+            if(count < 0) return null;
+
+            for(int i = 0; i < count; i++)
+            {
+                checksum.reset();
+                key = is.readUTF();
+                byte[] record = readRecord(is, size - counter.position());
+                int expected = (int)checksum.getValue();
+
+                if(is.readInt() == expected){
+                    try {
+                        retV.put(key, readValue(new DataInputStream(new ByteArrayInputStream(record)), blobs));
+                    } catch (IOException e) {
+                        // Intact, but not decodable (a serialized class that no longer exists, for instance).
+                        lost.add(key);
+                    }
+                }else if(index == null){
+                    // Without an index, a damaged record's length can't be trusted to find the next one.
+                    // The key is most likely fine though, since the framing was still intact up to here.
+                    lost.add(key);
+                    key = null;
+                    break;
+                }
+
+                key = null;
+            }
+        }catch(IOException e){
+            // Lost track of where records start. Whatever is left can only be found through the index.
+            // If there is none, the record that the pass stopped at is the last one whose key is known.
+            if(index == null && key != null) lost.add(key);
+        }finally{
+            is.close();
+        }
+
+        // Go back for every indexed record that the streaming pass did not get to, or found damaged.
+        if(index != null)
+        {
+            RandomAccessFile file = new RandomAccessFile(source, "r");
+            try{
+                for(Map.Entry<String, Integer> e : index.entrySet())
+                {
+                    key = e.getKey();
+                    if(retV.containsKey(key) || lost.contains(key)) continue;
+
+                    try {
+                        retV.put(key, readRecordAt(file, key, e.getValue(), blobs));
+                    } catch (IOException ex) {
+                        lost.add(key);
+                    }
+                }
+            }finally{
+                file.close();
+            }
+        }
+
+        damaged.addAll(lost);
+        return retV;
+    }
+
+    /**
+     * Reads a legacy (Java-serialized) settings index from the provided stream.
+     * The stream is not closed after reading.
+     * @param in the {@link InputStream} to read from. Should be buffered.
+     * @return the settings index contained in the stream
+     * @throws IOException if an error occurred during the read or interpretation process
+     */
+    static HashMap<String, Object> readLegacyConfig(@NonNull InputStream in) throws IOException
+    {
+        Object buffer;
+        try{
+            buffer = new ObjectInputStream(in).readObject();
+        } catch(ClassNotFoundException | IOException e){
+            throw new IOException("Unable to load from config. Cause: " +
+                    (e.getLocalizedMessage() == null ? e.toString() : e.getLocalizedMessage()));
+        }
+
+        // Check that the file actually contained a valid HashMap.
+        if(!(buffer instanceof HashMap)) throw new IOException("Read succeeded, but the file did not contain valid settings");
+
+        // Not an unchecked cast, but IntelliJ seems to think so...
+        //noinspection unchecked
+        return (HashMap<String, Object>)buffer;
+    }
+
+    /**
+     * Writes a single keyed record to the provided stream.
+     * @param os the {@link DataOutputStream} to write to
+     * @param key the key of the record
+     * @param value the value of the record. Must be {@code null}, a natively supported type, or {@link java.io.Serializable}.
+     * @throws IOException if an error occurred during the write or encoding process
+     */
+    static void writeEntry(@NonNull DataOutputStream os, @NonNull String key, Object value) throws IOException
+    {
+        os.writeUTF(key);
+        writeValue(os, value);
+    }
+
+    /**
+     * Writes a single type-length-value triplet to the provided stream.
+     * @param os the {@link DataOutputStream} to write to
+     * @param value the value to write. Must be {@code null}, a natively supported type, or {@link java.io.Serializable}.
+     * @throws IOException if an error occurred during the write or encoding process
+     */
+    static void writeValue(@NonNull DataOutputStream os, Object value) throws IOException {
+        writeValue(os, value, null);
+    }
+
+    /**
+     * Writes a single type-length-value triplet to the provided stream. If the encoded value is at least as
+     * large as the blob store's threshold, it is stored as a blob, and a reference to it is written instead.
+     * @param os the {@link DataOutputStream} to write to
+     * @param value the value to write. Must be {@code null}, a natively supported type, or {@link java.io.Serializable}.
+     * @param blobs the {@link BlobStore} to move large values into, or {@code null} to write the value inline
+     * @throws IOException if an error occurred during the write or encoding process, or the blob could not be written
+     */
+    static void writeValue(@NonNull DataOutputStream os, Object value, BlobStore blobs) throws IOException
+    {
+        if(value instanceof LazyValue){
+            // Values that were never changed since they were mapped can be copied over as-is.
+            ((LazyValue)value).writeTo(os, blobs);
+        }else if(value instanceof BlobValue){
+            // Same for blobs, which only need their reference written again.
+            ((BlobValue)value).writeTo(os, blobs);
+        }else if(blobs == null || value == null || value instanceof Integer || value instanceof Float
+                || value instanceof Boolean || value instanceof Long){
+            writeInlineValue(os, value);
+        }else{
+            // Encode the value on its own first, so its size can be checked against the threshold.
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            writeInlineValue(new DataOutputStream(buffer), value);
+
+            if(blobs.shouldStore(buffer.size())) blobs.store(buffer.toByteArray(), buffer.size(), os);
+            else buffer.writeTo(os);
+        }
+    }
+
+    /**
+     * Writes a single type-length-value triplet to the provided stream, always in its inline form.
+     */
+    private static void writeInlineValue(DataOutputStream os, Object value) throws IOException
+    {
+        if(value == null){
+            os.writeByte(TYPE_NULL);
+            os.writeInt(0);
+        }else if(value instanceof Integer){
+            os.writeByte(TYPE_INT);
+            os.writeInt(4);
+            os.writeInt((Integer)value);
+        }else if(value instanceof Float){
+            os.writeByte(TYPE_FLOAT);
+            os.writeInt(4);
+            os.writeFloat((Float)value);
+        }else if(value instanceof Boolean){
+            os.writeByte(TYPE_BOOLEAN);
+            os.writeInt(1);
+            os.writeBoolean((Boolean)value);
+        }else if(value instanceof Long){
+            os.writeByte(TYPE_LONG);
+            os.writeInt(8);
+            os.writeLong((Long)value);
+        }else if(value instanceof String){
+            byte[] data = ((String)value).getBytes(UTF8);
+            os.writeByte(TYPE_STRING);
+            os.writeInt(data.length);
+            os.write(data);
+        }else if(value instanceof File){
+            byte[] data = ((File)value).getPath().getBytes(UTF8);
+            os.writeByte(TYPE_FILE);
+            os.writeInt(data.length);
+            os.write(data);
+        }else{
+            // Not a natively supported type, fall back to Java serialization for this value only.
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            ObjectOutputStream oos = new ObjectOutputStream(buffer);
+            oos.writeObject(value);
+            oos.close();
+
+            os.writeByte(TYPE_SERIALIZED);
+            os.writeInt(buffer.size());
+            buffer.writeTo(os);
+        }
+    }
+
+    /**
+     * Writes a single type-length-value triplet to the provided stream from its {@link SettingsTable} form.
+     * Primitive values are written straight from their raw bits, without being boxed first.
+     * @param os the {@link DataOutputStream} to write to
+     * @param tag the {@link SettingsTable} type tag of the value
+     * @param bits the raw bits of the value, if it is a primitive
+     * @param ref the value itself, if it is an object
+     * @throws IOException if an error occurred during the write or encoding process
+     */
+    static void writeValue(@NonNull DataOutputStream os, byte tag, long bits, Object ref) throws IOException {
+        writeValue(os, tag, bits, ref, null);
+    }
+
+    /**
+     * Writes a single type-length-value triplet to the provided stream from its {@link SettingsTable} form,
+     * moving it into the provided blob store if it is a large object value.
+     * @param os the {@link DataOutputStream} to write to
+     * @param tag the {@link SettingsTable} type tag of the value
+     * @param bits the raw bits of the value, if it is a primitive
+     * @param ref the value itself, if it is an object
+     * @param blobs the {@link BlobStore} to move large values into, or {@code null} to write the value inline
+     * @throws IOException if an error occurred during the write or encoding process
+     */
+    static void writeValue(@NonNull DataOutputStream os, byte tag, long bits, Object ref, BlobStore blobs) throws IOException
+    {
+        switch(tag)
+        {
+            case SettingsTable.TAG_INT:
+                os.writeByte(TYPE_INT);
+                os.writeInt(4);
+                os.writeInt((int)bits);
+                break;
+            case SettingsTable.TAG_FLOAT:
+                os.writeByte(TYPE_FLOAT);
+                os.writeInt(4);
+                os.writeInt((int)bits);
+                break;
+            case SettingsTable.TAG_BOOLEAN:
+                os.writeByte(TYPE_BOOLEAN);
+                os.writeInt(1);
+                os.writeBoolean(bits != 0);
+                break;
+            case SettingsTable.TAG_LONG:
+                os.writeByte(TYPE_LONG);
+                os.writeInt(8);
+                os.writeLong(bits);
+                break;
+            default:
+                writeValue(os, ref, blobs);
+        }
+    }
+
+    /**
+     * Reads a single type-length-value triplet from the provided stream.
+     * @param is the {@link DataInputStream} to read from
+     * @return the decoded value, which may be {@code null}
+     * @throws IOException if an error occurred during the read or decoding process
+     */
+    static Object readValue(@NonNull DataInputStream is) throws IOException {
+        return readValue(is, null);
+    }
+
+    /**
+     * Reads a single type-length-value triplet from the provided stream.
+     * @param is the {@link DataInputStream} to read from
+     * @param blobs the {@link BlobStore} that blob references should be resolved through, or {@code null} if there is none
+     * @return the decoded value, which may be {@code null}. Blob references are returned as {@link BlobValue} placeholders.
+     * @throws IOException if an error occurred during the read or decoding process, or the triplet is a blob
+     * reference and no blob store was provided
+     */
+    static Object readValue(@NonNull DataInputStream is, BlobStore blobs) throws IOException
+    {
+        byte type = is.readByte();
+        int length = is.readInt();
+        if(length < 0) throw new IOException("Config record has an invalid length");
+
+        switch(type)
+        {
+            case TYPE_NULL:
+                is.skipBytes(length);
+                return null;
+            case TYPE_INT:
+                checkLength(length, 4);
+                return is.readInt();
+            case TYPE_FLOAT:
+                checkLength(length, 4);
+                return is.readFloat();
+            case TYPE_BOOLEAN:
+                checkLength(length, 1);
+                return is.readBoolean();
+            case TYPE_LONG:
+                checkLength(length, 8);
+                return is.readLong();
+            case TYPE_STRING:
+                return new String(readPayload(is, length), UTF8);
+            case TYPE_FILE:
+                return new File(new String(readPayload(is, length), UTF8));
+            case TYPE_SERIALIZED:
+                try {
+                    return new ObjectInputStream(new ByteArrayInputStream(readPayload(is, length))).readObject();
+                } catch (ClassNotFoundException e) {
+                    throw new IOException("Unable to deserialize config value. Cause: " + e.toString());
+                }
+            case TYPE_BLOB:
+                if(blobs == null) throw new IOException("Config record refers to a blob, but no blob store is available");
+                return blobs.parseReference(readPayload(is, length));
+            default:
+                throw new IOException("Config record has an unknown type tag: " + type);
+        }
+    }
+
+    /**
+     * Reads a single type-length-value triplet from a buffer at the specified absolute position.
+     * The buffer's position is not changed by this method.
+     * @param buffer the {@link ByteBuffer} to read from
+     * @param offset the offset of the triplet's type tag within the buffer
+     * @return the decoded value, which may be {@code null}
+     * @throws IOException if the triplet is out of the buffer's bounds or could not be decoded
+     */
+    static Object readValue(@NonNull ByteBuffer buffer, int offset) throws IOException {
+        return readValue(buffer, offset, null);
+    }
+
+    /**
+     * Reads a single type-length-value triplet from a buffer at the specified absolute position.
+     * The buffer's position is not changed by this method.
+     * @param buffer the {@link ByteBuffer} to read from
+     * @param offset the offset of the triplet's type tag within the buffer
+     * @param blobs the {@link BlobStore} that blob references should be resolved through, or {@code null} if there is none
+     * @return the decoded value, which may be {@code null}. Blob references are returned as {@link BlobValue} placeholders.
+     * @throws IOException if the triplet is out of the buffer's bounds or could not be decoded
+     */
+    static Object readValue(@NonNull ByteBuffer buffer, int offset, BlobStore blobs) throws IOException
+    {
+        int start = offset + VALUE_HEADER_SIZE;
+        int length = checkBounds(buffer, offset) - start;
+
+        switch(buffer.get(offset))
+        {
+            case TYPE_NULL:
+                return null;
+            case TYPE_INT:
+                checkLength(length, 4);
+                return buffer.getInt(start);
+            case TYPE_FLOAT:
+                checkLength(length, 4);
+                return buffer.getFloat(start);
+            case TYPE_BOOLEAN:
+                checkLength(length, 1);
+                return buffer.get(start) != 0;
+            case TYPE_LONG:
+                checkLength(length, 8);
+                return buffer.getLong(start);
+            default:
+                // Variable-length types share the same decoding path as the stream reader.
+                byte[] raw = new byte[VALUE_HEADER_SIZE + length];
+                ByteBuffer view = buffer.duplicate();
+                view.position(offset);
+                view.get(raw);
+                return readValue(new DataInputStream(new ByteArrayInputStream(raw)), blobs);
+        }
+    }
+
+    /**
+     * Copies a single encoded type-length-value triplet from a buffer to the provided stream without decoding it.
+     * @param buffer the {@link ByteBuffer} to copy from. Its position is not changed by this method.
+     * @param offset the offset of the triplet's type tag within the buffer
+     * @param os the {@link DataOutputStream} to write to
+     * @throws IOException if the triplet is out of the buffer's bounds, or the write failed
+     */
+    static void copyValue(@NonNull ByteBuffer buffer, int offset, @NonNull DataOutputStream os) throws IOException
+    {
+        byte[] raw = new byte[checkBounds(buffer, offset) - offset];
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.get(raw);
+        os.write(raw);
+    }
+
+    /**
+     * Checks a single record in a buffer against its checksum, without decoding it.
+     * @param buffer the {@link ByteBuffer} holding the record. Its position is not changed by this method.
+     * @param start the offset of the start of the record, which is where its key starts
+     * @param offset the offset of the record's type tag within the buffer
+     * @return {@code true} if the record is intact, {@code false} if it is damaged or out of the buffer's bounds
+     */
+    static boolean checkRecord(@NonNull ByteBuffer buffer, int start, int offset)
+    {
+        try {
+            int end = checkBounds(buffer, offset);
+            if(start < 0 || start > offset || end > buffer.limit() - CHECKSUM_SIZE) return false;
+
+            byte[] raw = new byte[end - start];
+            ByteBuffer view = buffer.duplicate();
+            view.position(start);
+            view.get(raw);
+
+            CRC32 checksum = new CRC32();
+            checksum.update(raw, 0, raw.length);
+            return (int)checksum.getValue() == buffer.getInt(end);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Reads and checks the key index at the end of a config file, without reading anything else.
+     * @return each key in the index mapped to the offset of its value, or {@code null} if the file has no intact index
+     */
+    private static HashMap<String, Integer> readIndex(File source, long size) throws IOException
+    {
+        if(size < HEADER_SIZE + FOOTER_SIZE) return null;
+
+        RandomAccessFile file = new RandomAccessFile(source, "r");
+        try{
+            // Like the mapped reader, only trust an index in a file that is recognizably a checked config.
+            if(file.readInt() != MAGIC) return null;
+            short version = file.readShort();
+            if(version < FIRST_CHECKED_VERSION || version > VERSION) return null;
+            int count = file.readInt();
+
+            long footer = size - FOOTER_SIZE;
+            file.seek(footer);
+            int indexOffset = file.readInt();
+            if(file.readInt() != FOOTER_MAGIC || count < 0 || indexOffset < HEADER_SIZE || indexOffset > footer) return null;
+
+            byte[] index = new byte[(int)(footer - indexOffset)];
+            file.seek(indexOffset);
+            file.readFully(index);
+            if(!checkIndex(index)) return null;
+
+            DataInputStream is = new DataInputStream(new ByteArrayInputStream(index));
+            HashMap<String, Integer> retV = new HashMap<>();
+            for(int i = 0; i < count; i++)
+            {
+                String key = is.readUTF();
+                int offset = is.readInt();
+                if(offset < HEADER_SIZE || offset >= indexOffset) return null;
+                retV.put(key, offset);
+            }
+
+            return retV;
+        }catch(IOException e){
+            return null;
+        }finally{
+            file.close();
+        }
+    }
+
+    /**
+     * Checks a copied-out key index against the checksum at its end.
+     */
+    private static boolean checkIndex(byte[] index)
+    {
+        int length = index.length - CHECKSUM_SIZE;
+        if(length < 0) return false;
+
+        CRC32 checksum = new CRC32();
+        checksum.update(index, 0, length);
+        return (int)checksum.getValue() == ByteBuffer.wrap(index, length, CHECKSUM_SIZE).getInt();
+    }
+
+    /**
+     * Reads a single encoded type-length-value triplet from a stream without decoding it.
+     * @param remaining the number of bytes left in the file, which the triplet and its checksum must fit into
+     */
+    private static byte[] readRecord(DataInput is, long remaining) throws IOException
+    {
+        byte type = is.readByte();
+        int length = is.readInt();
+        if(length < 0 || length > remaining - VALUE_HEADER_SIZE - CHECKSUM_SIZE) throw new IOException("Config record has an invalid length");
+
+        byte[] retV = new byte[VALUE_HEADER_SIZE + length];
+        ByteBuffer.wrap(retV).put(type).putInt(length);
+        is.readFully(retV, VALUE_HEADER_SIZE, length);
+        return retV;
+    }
+
+    /**
+     * Reads, checks and decodes a single record at a known position in a file.
+     * @param key the key that the index lists for the record, which must match the key stored in the record
+     * @param offset the offset of the record's type tag
+     */
+    private static Object readRecordAt(RandomAccessFile file, String key, int offset, BlobStore blobs) throws IOException
+    {
+        // Records start with their key, so work back from the value to where the record starts.
+        ByteArrayOutputStream encodedKey = new ByteArrayOutputStream();
+        new DataOutputStream(encodedKey).writeUTF(key);
+        byte[] expectedKey = encodedKey.toByteArray();
+
+        long start = offset - expectedKey.length;
+        if(start < HEADER_SIZE) throw new IOException("Config record offset is out of range");
+
+        byte[] storedKey = new byte[expectedKey.length];
+        file.seek(start);
+        file.readFully(storedKey);
+        if(!Arrays.equals(storedKey, expectedKey)) throw new IOException("Config record for " + key + " is damaged");
+
+        byte[] record = readRecord(file, file.length() - offset);
+
+        CRC32 checksum = new CRC32();
+        checksum.update(storedKey, 0, storedKey.length);
+        checksum.update(record, 0, record.length);
+        if(file.readInt() != (int)checksum.getValue()) throw new IOException("Config record for " + key + " is damaged");
+
+        return readValue(new DataInputStream(new ByteArrayInputStream(record)), blobs);
+    }
+
+    /**
+     * Checks that a type-length-value triplet lies completely within a buffer.
+     * @return the offset of the first byte following the triplet
+     */
+    private static int checkBounds(ByteBuffer buffer, int offset) throws IOException
+    {
+        if(offset < 0 || offset > buffer.limit() - VALUE_HEADER_SIZE) throw new IOException("Config record offset is out of range");
+
+        int length = buffer.getInt(offset + 1);
+        if(length < 0 || length > buffer.limit() - offset - VALUE_HEADER_SIZE) throw new IOException("Config record has an invalid length");
+
+        return offset + VALUE_HEADER_SIZE + length;
+    }
+
+    private static byte[] readPayload(DataInputStream is, int length) throws IOException
+    {
+        if(length <= MAX_UNCHECKED_PAYLOAD)
+        {
+            byte[] data = new byte[length];
+            is.readFully(data);
+            return data;
+        }
+
+        // A damaged length could ask for far more than the file holds, so grow the buffer as data actually arrives.
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(MAX_UNCHECKED_PAYLOAD);
+        byte[] chunk = new byte[MAX_UNCHECKED_PAYLOAD];
+        int remaining = length;
+        while(remaining > 0)
+        {
+            int read = is.read(chunk, 0, Math.min(remaining, chunk.length));
+            if(read < 0) throw new EOFException("Config record is cut off");
+            buffer.write(chunk, 0, read);
+            remaining -= read;
+        }
+
+        return buffer.toByteArray();
+    }
+
+    private static void checkLength(int length, int expected) throws IOException {
+        if(length != expected) throw new IOException("Config record has an invalid length for its type");
+    }
+}
@@ -0,0 +1,52 @@
+package com.michaelRunzler.ARK.android.util.Settings;
+
+import android.support.annotation.NonNull;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Tracks how many bytes have been consumed from the wrapped stream.
+ * Used by readers that need to know where in a file a record starts or ends.
+ */
+final class CountingInputStream extends FilterInputStream
+{
+    private long consumed;
+
+    CountingInputStream(InputStream in) {
+        super(in);
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        int b = super.read();
+        if(b != -1) consumed ++;
+        return b;
+    }
+
+    @Override
+    public int read(@NonNull byte[] b, int off, int len) throws IOException
+    {
+        int read = super.read(b, off, len);
+        if(read > 0) consumed += read;
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException
+    {
+        long skipped = super.skip(n);
+        consumed += skipped;
+        return skipped;
+    }
+
+    /**
+     * Gets the number of bytes consumed from the wrapped stream so far.
+     * @return the current position in the wrapped stream
+     */
+    long position() {
+        return consumed;
+    }
+}
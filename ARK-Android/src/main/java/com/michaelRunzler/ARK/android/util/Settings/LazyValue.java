@@ -0,0 +1,132 @@
+package com.michaelRunzler.ARK.android.util.Settings;
+
+import android.support.annotation.NonNull;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Placeholder for a setting value that has not been decoded from its memory-mapped config file yet.
+ * The value is decoded the first time it is requested, and kept from then on. If the encoded value is a
+ * blob reference, the blob is also loaded at that point. Records with a checksum are checked before they
+ * are first decoded or copied, and a damaged record reads as {@code null}.
+ * Container-type object, used internally by {@link SettingsManager} and {@link ConfigCodec}.
+ */
+final class LazyValue
+{
+    private static final Object UNDECODED = new Object();
+
+    private static final int UNCHECKED = 0;
+    private static final int INTACT = 1;
+    private static final int DAMAGED = 2;
+
+    private final ByteBuffer source;
+    private final int offset;
+    private final int keyLength;
+    private final BlobStore blobs;
+    private volatile Object value;
+    private volatile int integrity;
+
+    /**
+     * Constructs a new placeholder for the encoded value at the specified position in a buffer.
+     * @param source the {@link ByteBuffer} holding the encoded value
+     * @param offset the offset of the value's type tag within the buffer
+     * @param keyLength the encoded length of the key that precedes the value in its record, or {@code 0} if the
+     *                  record has no checksum
+     * @param blobs the {@link BlobStore} that blob references should be resolved through, or {@code null} if there is none
+     */
+    LazyValue(@NonNull ByteBuffer source, int offset, int keyLength, BlobStore blobs)
+    {
+        this.source = source;
+        this.offset = offset;
+        this.keyLength = keyLength;
+        this.blobs = blobs;
+        this.value = UNDECODED;
+        this.integrity = keyLength == 0 ? INTACT : UNCHECKED;
+    }
+
+    /**
+     * Gets the value represented by this placeholder, decoding it if this is the first request.
+     * @return the decoded value, or {@code null} if the stored value was {@code null} or could not be decoded
+     */
+    Object get()
+    {
+        Object v = value;
+        if(v == UNDECODED)
+        {
+            try {
+                v = isIntact() ? ConfigCodec.readValue(source, offset, blobs) : null;
+                if(v instanceof BlobValue) v = ((BlobValue)v).get();
+            } catch (IOException e) {
+                v = null;
+            }
+            value = v;
+        }
+
+        return v;
+    }
+
+    /**
+     * Writes the encoded form of this value to the provided stream as-is, without decoding it.
+     * Blob references are handed to {@link BlobValue#writeTo(DataOutputStream, BlobStore)}, so that they are
+     * only copied if the target uses the same blob store, and are noted down as still in use. A damaged record
+     * is written as {@code null}, so that the damage is not carried over under a new, valid checksum.
+     * @param os the {@link DataOutputStream} to write to
+     * @param blobs the blob store of the config being written, or {@code null} if it has none
+     * @throws IOException if the write failed
+     */
+    void writeTo(@NonNull DataOutputStream os, BlobStore blobs) throws IOException
+    {
+        if(!isIntact()) ConfigCodec.writeValue(os, null, blobs);
+        else if(source.get(offset) == ConfigCodec.TYPE_BLOB) ((BlobValue)ConfigCodec.readValue(source, offset, this.blobs)).writeTo(os, blobs);
+        else ConfigCodec.copyValue(source, offset, os);
+    }
+
+    /**
+     * Marks the blob referenced by this value, if it is a blob reference, as still in use by the write in
+     * progress on the provided store. Decoding the value does not change the fact that writing it copies the
+     * reference, so this applies whether or not the value has been decoded yet.
+     * @param blobs the blob store of the config being written
+     * @see BlobValue#retainIn(BlobStore)
+     */
+    void retainIn(@NonNull BlobStore blobs)
+    {
+        if(!isIntact() || source.get(offset) != ConfigCodec.TYPE_BLOB) return;
+
+        try {
+            ((BlobValue)ConfigCodec.readValue(source, offset, this.blobs)).retainIn(blobs);
+        } catch (IOException e) {
+            // A malformed reference is written back as-is, and points to no blob that could be kept.
+        }
+    }
+
+    /**
+     * Checks the record holding this value against its checksum, if it has one. The result is kept,
+     * so each record is only checked once.
+     * @return {@code true} if the record is intact or has no checksum, {@code false} if it is damaged
+     */
+    boolean isIntact()
+    {
+        int state = integrity;
+        if(state == UNCHECKED)
+        {
+            state = ConfigCodec.checkRecord(source, offset - keyLength, offset) ? INTACT : DAMAGED;
+            integrity = state;
+        }
+
+        return state == INTACT;
+    }
+
+    /**
+     * Unwraps a stored setting value, decoding it if it is a {@link LazyValue} or loading it if it is a {@link BlobValue}.
+     * @param stored the value as stored in a settings index
+     * @return the actual setting value
+     */
+    static Object resolve(Object stored)
+    {
+        if(stored instanceof LazyValue) return ((LazyValue)stored).get();
+        if(stored instanceof BlobValue) return ((BlobValue)stored).get();
+        return stored;
+    }
+}
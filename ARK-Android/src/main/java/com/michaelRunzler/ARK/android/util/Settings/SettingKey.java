@@ -0,0 +1,149 @@
+package com.michaelRunzler.ARK.android.util.Settings;
+
+import android.support.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A pre-resolved handle to a setting key. Every key used with a {@link SettingsManager} is registered
+ * once in a global registry and assigned a dense slot index, which is shared by all manager instances.
+ * Reads and writes made through a handle go straight to that slot, with no hashing and no casting at
+ * the call site. The {@link String}-based methods of {@link SettingsManager} resolve through the same
+ * registry, so handles and plain keys can be mixed freely.
+ * Handles should be obtained once with {@link SettingKey#of(String, Class)} and kept in a constant.
+ * @param <T> the type of value stored under this key
+ */
+public final class SettingKey<T>
+{
+    private static final Object registryLock = new Object();
+    private static final ConcurrentHashMap<String, Integer> slots = new ConcurrentHashMap<>();
+    private static volatile String[] names = new String[16];
+    private static SettingKey<?>[] handles = new SettingKey<?>[16];
+
+    private final String name;
+    private final Class<T> type;
+    private final int slot;
+
+    private SettingKey(String name, Class<T> type, int slot)
+    {
+        this.name = name;
+        this.type = type;
+        this.slot = slot;
+    }
+
+    /**
+     * Gets the handle for the specified key, registering the key if it has not been used yet.
+     * Repeated calls with the same name and type return the same handle.
+     * @param name the name of the key
+     * @param type the type of value stored under the key. Use the boxed type for primitive values,
+     *             such as {@link Integer} for {@code int}.
+     * @param <T> the type of value stored under the key
+     * @return the handle for the specified key
+     * @throws IllegalArgumentException if the name is zero-length, or if a handle has already been
+     * created for the same name with a different type
+     */
+    public static <T> SettingKey<T> of(@NonNull String name, @NonNull Class<T> type)
+    {
+        if(name.isEmpty()) throw new IllegalArgumentException("Key cannot be zero-length");
+
+        synchronized (registryLock)
+        {
+            int slot = slotFor(name);
+            SettingKey<?> existing = handles[slot];
+            if(existing != null){
+                if(existing.type != type) throw new IllegalArgumentException("Key " + name + " is already registered with type " + existing.type.getSimpleName());
+
+                // Checked against the handle's type on the line above.
+                //noinspection unchecked
+                return (SettingKey<T>)existing;
+            }
+
+            SettingKey<T> retV = new SettingKey<>(name, type, slot);
+            handles[slot] = retV;
+            return retV;
+        }
+    }
+
+    /**
+     * Gets the name of this key.
+     * @return the key name that this handle was created with
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the type of value stored under this key.
+     * @return the value type that this handle was created with
+     */
+    public Class<T> getType() {
+        return type;
+    }
+
+    /**
+     * Gets the slot that this key is stored in.
+     * @return the key's slot index
+     */
+    int slot() {
+        return slot;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    //
+    // REGISTRY
+    //
+
+    /**
+     * Looks up the slot assigned to a key name without registering it. Does not block.
+     * @param name the key name to look up
+     * @return the key's slot, or {@code -1} if it has never been registered
+     */
+    static int slotOf(String name)
+    {
+        Integer slot = slots.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    /**
+     * Gets the slot assigned to a key name, registering it in the next free slot if necessary.
+     * Slots are never reassigned or released.
+     * @param name the key name to look up
+     * @return the key's slot
+     */
+    static int slotFor(String name)
+    {
+        Integer slot = slots.get(name);
+        if(slot != null) return slot;
+
+        synchronized (registryLock)
+        {
+            slot = slots.get(name);
+            if(slot != null) return slot;
+
+            int next = slots.size();
+            if(next == names.length){
+                names = Arrays.copyOf(names, next * 2);
+                handles = Arrays.copyOf(handles, next * 2);
+            }
+
+            // Publish the name before the slot, so that anyone who can see the slot can also see its name.
+            names[next] = name;
+            slots.put(name, next);
+            return next;
+        }
+    }
+
+    /**
+     * Gets the name of the key registered in the specified slot.
+     * @param slot a slot obtained from this registry
+     * @return the name of the key in that slot
+     */
+    static String nameOf(int slot) {
+        return names[slot];
+    }
+}
@@ -0,0 +1,89 @@
+package com.michaelRunzler.ARK.android.util.Settings;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Holds the shared background thread used by {@link SettingsManager} instances for disk I/O that
+ * should not run on the calling thread, such as log compaction. Tasks run one at a time, in the
+ * order in which they were submitted.
+ * Also holds a small shared pool for work that should run in parallel, such as flushing several
+ * {@link SettingsManager} instances at once.
+ * Other code can queue its own disk I/O on the same thread through {@link SettingsBackground#execute(Runnable)},
+ * so that it runs in order with settings writes, without starting a thread of its own.
+ */
+public final class SettingsBackground
+{
+    private static final long POOL_KEEP_ALIVE = 30;
+
+    private static ScheduledExecutorService executor = null;
+    private static ExecutorService pool = null;
+
+    private SettingsBackground() {}
+
+    /**
+     * Gets the shared settings I/O executor, creating it if it does not exist yet.
+     * The executor's thread is a daemon, and will not keep the process alive by itself.
+     * @return the shared {@link ScheduledExecutorService}
+     */
+    static synchronized ScheduledExecutorService get()
+    {
+        if(executor == null)
+        {
+            executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "ARK-Settings-IO");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+
+        return executor;
+    }
+
+    /**
+     * Queues a task on the shared settings I/O thread. The task runs after every settings write queued
+     * before it, and must not block for long, since settings writes queued after it wait for it to finish.
+     * @param task the task to run
+     */
+    public static void execute(@NonNull Runnable task) {
+        get().execute(task);
+    }
+
+    /**
+     * Gets the shared parallel settings I/O pool, creating it if it does not exist yet.
+     * The pool has one thread per processor core, up to four, and its threads are daemons that exit
+     * once they have been idle for a while.
+     * @return the shared {@link ExecutorService}
+     */
+    static synchronized ExecutorService pool()
+    {
+        if(pool == null)
+        {
+            int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+            final AtomicInteger count = new AtomicInteger();
+            ThreadPoolExecutor retV = new ThreadPoolExecutor(threads, threads, POOL_KEEP_ALIVE, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "ARK-Settings-Pool-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            retV.allowCoreThreadTimeOut(true);
+            pool = retV;
+        }
+
+        return pool;
+    }
+}
@@ -0,0 +1,20 @@
+package com.michaelRunzler.ARK.android.util.Settings;
+
+import java.util.Set;
+
+/**
+ * Receives notifications of changes to the settings stored in a {@link SettingsManager}.
+ * Changes are delivered in batches: a listener is called at most once per batch, with every matching
+ * key that was stored, removed or cleared during that batch.
+ * @see SettingsManager#addChangeListener(String, SettingsChangeListener)
+ * @see SettingsManager#addPrefixChangeListener(String, SettingsChangeListener)
+ */
+public interface SettingsChangeListener
+{
+    /**
+     * Called after one or more settings that this listener is registered for have changed.
+     * @param manager the {@link SettingsManager} that the changes were made to
+     * @param changedKeys the keys of the changed settings. This set cannot be modified.
+     */
+    void onSettingsChanged(SettingsManager manager, Set<String> changedKeys);
+}
@@ -0,0 +1,86 @@
+package com.michaelRunzler.ARK.android.util.Settings;
+
+/**
+ * A cursor over a single setting, handed to a {@link SettingsVisitor}. The typed getters read the value
+ * straight from the index snapshot being visited, so nothing is allocated for primitive values.
+ * The cursor is moved from setting to setting during a pass, and is only valid inside of the visitor call.
+ */
+public final class SettingsEntry
+{
+    private SettingsTable table;
+    private int slot;
+
+    SettingsEntry() {
+        this.slot = -1;
+    }
+
+    /**
+     * Moves this cursor to the specified slot of the specified snapshot.
+     * @param table the snapshot being visited
+     * @param slot the slot to point at
+     */
+    void moveTo(SettingsTable table, int slot)
+    {
+        this.table = table;
+        this.slot = slot;
+    }
+
+    /**
+     * Gets the key of the current setting.
+     * @return the key name
+     */
+    public String getKey() {
+        return SettingKey.nameOf(slot);
+    }
+
+    /**
+     * Checks if the current setting is set to {@code null}.
+     * @return {@code true} if the value is {@code null}, {@code false} if otherwise
+     */
+    public boolean isNull() {
+        return table.tag(slot) == SettingsTable.TAG_NULL;
+    }
+
+    /**
+     * Gets the value of the current setting as an object. Primitive values are boxed, so prefer the typed
+     * getters when the type of the setting is known.
+     * @return the current value
+     */
+    public Object getValue() {
+        return table.getBoxed(slot);
+    }
+
+    /**
+     * Gets the value of the current setting as an {@code int}.
+     * @param defaultValue the value to return if the setting is set to {@code null}
+     * @return the current value, or {@code defaultValue}
+     * @throws ClassCastException if the value is not an {@link Integer}
+     */
+    public int getInt(int defaultValue) {
+        return table.getInt(slot, defaultValue);
+    }
+
+    /**
+     * Gets the value of the current setting as a {@code float}.
+     * @see SettingsEntry#getInt(int)
+     */
+    public float getFloat(float defaultValue) {
+        return table.getFloat(slot, defaultValue);
+    }
+
+    /**
+     * Gets the value of the current setting as a {@code boolean}.
+     * @see SettingsEntry#getInt(int)
+     */
+    public boolean getBoolean(boolean defaultValue) {
+        return table.getBoolean(slot, defaultValue);
+    }
+
+    /**
+     * Gets the value of the current setting as a {@code long}.
+     * @see SettingsEntry#getInt(int)
+     */
+    public long getLong(long defaultValue) {
+        return table.getLong(slot, defaultValue);
+    }
+}
@@ -1,37 +1,119 @@
 package com.michaelRunzler.ARK.android.util.Settings;
 
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.NonNull;
 
+import com.michaelRunzler.ARK.android.util.Tracing.Tracer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.InterruptedIOException;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Stores and manages application configuration settings. Also manages read/write to/from the config
  * file stored on disk. Use the {@link SettingsManagerDelegator} class for cross-class instancing.
+ * This class is safe for concurrent use. The index is held in immutable snapshots that are replaced
+ * as a whole on every change, so reads never take a lock and always see a consistent index. Changes
+ * are serialized on an internal lock, which is only ever held for in-memory work, never for config file
+ * writes or write-ahead log appends.
+ * Every read is resolved through a stack of {@link SettingsScope scopes}: defaults, the global index,
+ * the current profile and session overrides. The resolved value of every setting is kept in its own
+ * snapshot, which is updated whenever any layer changes, so a read costs the same single lookup no
+ * matter how many layers there are or which layer the value comes from.
  */
 public class SettingsManager
 {
-    private HashMap<String, Object> storage;
-    private HashMap<String, Object> defaults;
-    private HashMap<String, Object> cache;
-    private HashMap<String, Boolean> tempFlags;
-    private File target;
+    /**
+     * The default size in bytes that the write-ahead log may reach before it is compacted into a new snapshot.
+     */
+    public static final long DEFAULT_LOG_COMPACTION_THRESHOLD = 64 * 1024;
+
+    /**
+     * The default encoded size in bytes at or above which a setting value is stored out of line as a blob.
+     */
+    public static final int DEFAULT_BLOB_THRESHOLD = 16 * 1024;
+
+    // Bounds of the delay before a failed write-behind flush is tried again. The delay doubles with each failure in a row.
+    private static final long MIN_RETRY_DELAY = 1000;
+    private static final long MAX_RETRY_DELAY = 60 * 1000;
+
+    private final Object writeLock = new Object();
+    private final Object fileLock = new Object();
+
+    // Published snapshots. A table is never modified once it has been assigned to one of these fields.
+    private volatile SettingsTable storage;
+    private volatile SettingsTable defaults;
+    private volatile SettingsTable profile;
+    private volatile String profileName;
+    private final ConcurrentHashMap<String, Future<SettingsTable>> profileSnapshots = new ConcurrentHashMap<>();
+    private volatile SettingsTable session;
+    private volatile SettingsTable resolved;
+    private ArrayList<TransactionFrame> transactions;
+    private volatile int cacheDepth;
+    private final VolatileSlots volatileStorage = new VolatileSlots();
+    private volatile long version;
+    private volatile File target;
+    private volatile boolean lazyLoading;
+    private SettingsWriteAheadLog log;
+    private volatile boolean logging;
+    private volatile long logCompactionThreshold;
+    private volatile int shardCount;
+    private volatile int writtenShards;
+    private volatile int blobThreshold;
+    private volatile boolean blobCompression;
+    private volatile BlobStore blobs;
+    private volatile List<String> damagedKeys = Collections.emptyList();
+    private long writtenVersion;
+    private boolean compactionPending;
+    private volatile boolean dirty;
+    private AtomicReference<SettingsManager> dirtyPin;
+    private volatile long writeBehindDelay;
+    private long lastMutationTime;
+    private boolean flushPending;
+    private long retryDelay;
+    private final CopyOnWriteArrayList<ListenerRegistration> listeners = new CopyOnWriteArrayList<>();
+    private Handler mainHandler;
+    private long dispatchedVersion;
+    private boolean dispatchPending;
+    private int batchDepth;
 
     /**
      * Constructs a new instance of this object with an empty internal registry and {@code null} file target.
      */
     public SettingsManager() {
-        storage = new HashMap<>();
-        defaults = new HashMap<>();
-        tempFlags = new HashMap<>();
+        storage = new SettingsTable();
+        defaults = new SettingsTable();
+        profile = new SettingsTable();
+        session = new SettingsTable();
+        resolved = new SettingsTable();
         target = null;
-        cache = null;
+        transactions = new ArrayList<>();
+        cacheDepth = -1;
+        logCompactionThreshold = DEFAULT_LOG_COMPACTION_THRESHOLD;
+        shardCount = 1;
+        blobThreshold = DEFAULT_BLOB_THRESHOLD;
     }
 
     /**
@@ -39,20 +121,119 @@ public class SettingsManager
      * @param target a {@link File} representing the desired target configuration file.
      */
     public SettingsManager(File target){
-        storage = new HashMap<>();
-        defaults = new HashMap<>();
-        tempFlags = new HashMap<>();
+        storage = new SettingsTable();
+        defaults = new SettingsTable();
+        profile = new SettingsTable();
+        session = new SettingsTable();
+        resolved = new SettingsTable();
         this.target = target;
-        cache = null;
+        transactions = new ArrayList<>();
+        cacheDepth = -1;
+        logCompactionThreshold = DEFAULT_LOG_COMPACTION_THRESHOLD;
+        shardCount = 1;
+        blobThreshold = DEFAULT_BLOB_THRESHOLD;
     }
 
     /**
-     * Gets a setting value from the stored list.
+     * Gets a setting value from the stored list. The value is resolved through every {@link SettingsScope scope},
+     * so it comes from the highest scope that holds the key.
      * @param key the key to search for in the settings index
      * @return the value corresponding to the provided key, or {@code null} if the key does not exist in the index
      */
     public Object getSetting(@NonNull String key) {
-        return storage.containsKey(key) ? storage.get(key) : null;
+        int slot = SettingKey.slotOf(key);
+        return slot < 0 ? null : resolved.getBoxed(slot);
+    }
+
+    /**
+     * Gets an {@code int} setting value from the stored list without boxing it.
+     * @param key the key to search for in the settings index
+     * @param defaultValue the value to return if the key does not exist in the index, or is set to {@code null}
+     * @return the value corresponding to the provided key, or {@code defaultValue} if there is none
+     * @throws ClassCastException if the stored value is not an {@link Integer}
+     */
+    public int getInt(@NonNull String key, int defaultValue) {
+        int slot = SettingKey.slotOf(key);
+        return slot < 0 ? defaultValue : resolved.getInt(slot, defaultValue);
+    }
+
+    /**
+     * Gets a {@code float} setting value from the stored list without boxing it.
+     * @param key the key to search for in the settings index
+     * @param defaultValue the value to return if the key does not exist in the index, or is set to {@code null}
+     * @return the value corresponding to the provided key, or {@code defaultValue} if there is none
+     * @throws ClassCastException if the stored value is not a {@link Float}
+     */
+    public float getFloat(@NonNull String key, float defaultValue) {
+        int slot = SettingKey.slotOf(key);
+        return slot < 0 ? defaultValue : resolved.getFloat(slot, defaultValue);
+    }
+
+    /**
+     * Gets a {@code boolean} setting value from the stored list without boxing it.
+     * @param key the key to search for in the settings index
+     * @param defaultValue the value to return if the key does not exist in the index, or is set to {@code null}
+     * @return the value corresponding to the provided key, or {@code defaultValue} if there is none
+     * @throws ClassCastException if the stored value is not a {@link Boolean}
+     */
+    public boolean getBoolean(@NonNull String key, boolean defaultValue) {
+        int slot = SettingKey.slotOf(key);
+        return slot < 0 ? defaultValue : resolved.getBoolean(slot, defaultValue);
+    }
+
+    /**
+     * Gets a {@code long} setting value from the stored list without boxing it.
+     * @param key the key to search for in the settings index
+     * @param defaultValue the value to return if the key does not exist in the index, or is set to {@code null}
+     * @return the value corresponding to the provided key, or {@code defaultValue} if there is none
+     * @throws ClassCastException if the stored value is not a {@link Long}
+     */
+    public long getLong(@NonNull String key, long defaultValue) {
+        int slot = SettingKey.slotOf(key);
+        return slot < 0 ? defaultValue : resolved.getLong(slot, defaultValue);
+    }
+
+    /**
+     * Gets a setting value through a pre-resolved key handle.
+     * @param key the handle of the key to look up
+     * @param <T> the type of value stored under the key
+     * @return the value corresponding to the provided key, or {@code null} if the key does not exist in the index
+     * @throws ClassCastException if the stored value is not of the handle's type
+     */
+    public <T> T get(@NonNull SettingKey<T> key) {
+        return key.getType().cast(resolved.getBoxed(key.slot()));
+    }
+
+    /**
+     * Gets an {@code int} setting value through a pre-resolved key handle, without boxing it.
+     * @see SettingsManager#getInt(String, int)
+     */
+    public int getInt(@NonNull SettingKey<Integer> key, int defaultValue) {
+        return resolved.getInt(key.slot(), defaultValue);
+    }
+
+    /**
+     * Gets a {@code float} setting value through a pre-resolved key handle, without boxing it.
+     * @see SettingsManager#getFloat(String, float)
+     */
+    public float getFloat(@NonNull SettingKey<Float> key, float defaultValue) {
+        return resolved.getFloat(key.slot(), defaultValue);
+    }
+
+    /**
+     * Gets a {@code boolean} setting value through a pre-resolved key handle, without boxing it.
+     * @see SettingsManager#getBoolean(String, boolean)
+     */
+    public boolean getBoolean(@NonNull SettingKey<Boolean> key, boolean defaultValue) {
+        return resolved.getBoolean(key.slot(), defaultValue);
+    }
+
+    /**
+     * Gets a {@code long} setting value through a pre-resolved key handle, without boxing it.
+     * @see SettingsManager#getLong(String, long)
+     */
+    public long getLong(@NonNull SettingKey<Long> key, long defaultValue) {
+        return resolved.getLong(key.slot(), defaultValue);
     }
 
     /**
@@ -66,32 +247,27 @@ public class SettingsManager
     {
         if(keys.length == 0) throw new IllegalArgumentException("Provide one or more key arguments");
 
-        String[] validKeys = new String[keys.length];
-        System.arraycopy(keys, 0, validKeys, 0, keys.length);
-
-        // Check to see how many given keys actually exist in the index,
-        // and copy them over to a temporary array if they do.
-        int validKeyCount = keys.length;
-        int validityCounter = 0;
-
-        for(String k : keys)
-        {
-            if(storage.containsKey(k)){
-                validKeys[validityCounter] = k;
-                validityCounter ++;
-            }else{
-                validKeyCount --;
-            }
+        // Read everything from the same snapshot, so that the index can't change between the two passes.
+        // Count the keys that exist first, so that the output array can be sized exactly without copying the keys.
+        SettingsTable resolved = this.resolved;
+        int validKeyCount = 0;
+        for(String k : keys) {
+            if(resolved.contains(SettingKey.slotOf(k))) validKeyCount ++;
         }
 
         // Return a null array if no keys matched.
         if(validKeyCount == 0) return null;
 
-        // Iterate through the array of valid keys, find the value of each one, and copy the
-        // results over to the output array.
+        // Find the value of each valid key, and copy the results over to the output array.
         Object[] retV = new Object[validKeyCount];
-        for(int i = 0; i < validKeyCount; i++) {
-            retV[i] = storage.get(validKeys[i]);
+        int index = 0;
+        for(String k : keys)
+        {
+            int slot = SettingKey.slotOf(k);
+            if(resolved.contains(slot)){
+                retV[index] = resolved.getBoxed(slot);
+                index ++;
+            }
         }
 
         return retV;
@@ -109,28 +285,156 @@ public class SettingsManager
         if(keys.length == 0) throw new IllegalArgumentException("Provide one or more key arguments");
 
         Object[] retV = new Object[keys.length];
-        for(int i = 0; i < keys.length; i++) {
-            retV[i] = getSetting(keys[i]);
+        getMultipleSettings(keys, retV);
+        return retV;
+    }
+
+    /**
+     * Gets multiple values from the stored index into a caller-supplied buffer, so that repeated reads
+     * do not allocate. All values are read from the same snapshot of the index.
+     * @param keys the keys to look up
+     * @param out the buffer to write the values to. Index {@code i} receives the value of {@code keys[i]},
+     *            or {@code null} if that key does not exist in the index.
+     * @return the number of keys that existed in the index
+     * @throws IllegalArgumentException if the buffer is shorter than the key array
+     */
+    public int getMultipleSettings(@NonNull String[] keys, @NonNull Object[] out)
+    {
+        if(out.length < keys.length) throw new IllegalArgumentException("Output buffer is too small");
+
+        SettingsTable resolved = this.resolved;
+        int retV = 0;
+        for(int i = 0; i < keys.length; i++)
+        {
+            int slot = SettingKey.slotOf(keys[i]);
+            if(resolved.contains(slot)) retV ++;
+            out[i] = resolved.getBoxed(slot);
         }
 
         return retV;
     }
 
     /**
-     * Dumps this object's currently stored settings index.
+     * Gets multiple {@code int} values from the stored index into a caller-supplied buffer, without boxing them.
+     * All values are read from the same snapshot of the index.
+     * @param keys the keys to look up
+     * @param out the buffer to write the values to. Index {@code i} receives the value of {@code keys[i]}.
+     * @param defaultValue the value to write for keys that do not exist in the index, or are set to {@code null}
+     * @throws IllegalArgumentException if the buffer is shorter than the key array
+     * @throws ClassCastException if any of the stored values is not an {@link Integer}
+     */
+    public void getInts(@NonNull String[] keys, @NonNull int[] out, int defaultValue)
+    {
+        if(out.length < keys.length) throw new IllegalArgumentException("Output buffer is too small");
+
+        SettingsTable resolved = this.resolved;
+        for(int i = 0; i < keys.length; i++) {
+            out[i] = resolved.getInt(SettingKey.slotOf(keys[i]), defaultValue);
+        }
+    }
+
+    /**
+     * Gets multiple {@code float} values from the stored index into a caller-supplied buffer, without boxing them.
+     * @see SettingsManager#getInts(String[], int[], int)
+     */
+    public void getFloats(@NonNull String[] keys, @NonNull float[] out, float defaultValue)
+    {
+        if(out.length < keys.length) throw new IllegalArgumentException("Output buffer is too small");
+
+        SettingsTable resolved = this.resolved;
+        for(int i = 0; i < keys.length; i++) {
+            out[i] = resolved.getFloat(SettingKey.slotOf(keys[i]), defaultValue);
+        }
+    }
+
+    /**
+     * Gets multiple {@code boolean} values from the stored index into a caller-supplied buffer, without boxing them.
+     * @see SettingsManager#getInts(String[], int[], int)
+     */
+    public void getBooleans(@NonNull String[] keys, @NonNull boolean[] out, boolean defaultValue)
+    {
+        if(out.length < keys.length) throw new IllegalArgumentException("Output buffer is too small");
+
+        SettingsTable resolved = this.resolved;
+        for(int i = 0; i < keys.length; i++) {
+            out[i] = resolved.getBoolean(SettingKey.slotOf(keys[i]), defaultValue);
+        }
+    }
+
+    /**
+     * Gets multiple {@code long} values from the stored index into a caller-supplied buffer, without boxing them.
+     * @see SettingsManager#getInts(String[], int[], int)
+     */
+    public void getLongs(@NonNull String[] keys, @NonNull long[] out, long defaultValue)
+    {
+        if(out.length < keys.length) throw new IllegalArgumentException("Output buffer is too small");
+
+        SettingsTable resolved = this.resolved;
+        for(int i = 0; i < keys.length; i++) {
+            out[i] = resolved.getLong(SettingKey.slotOf(keys[i]), defaultValue);
+        }
+    }
+
+    /**
+     * Dumps this object's currently stored settings index, as resolved through every {@link SettingsScope scope}.
      * The returned value is a copy of the stored index, not a direct reference.
      * @return a copy of the currently stored settings index
      */
     public HashMap<String, Object> getAllSettings(){
-        return new HashMap<>(storage);
+        return toMap(resolved);
+    }
+
+    /**
+     * Visits every setting in the stored index, without copying it. The whole pass sees a single snapshot
+     * of the index, so changes made while it is running (including by the visitor itself) are not seen.
+     * No memory is allocated for each setting unless the visitor asks for a boxed value.
+     * @param visitor the visitor to call for each setting
+     */
+    public void forEach(@NonNull SettingsVisitor visitor)
+    {
+        SettingsTable resolved = this.resolved;
+        SettingsEntry entry = new SettingsEntry();
+        for(int slot = resolved.nextSlot(0); slot >= 0; slot = resolved.nextSlot(slot + 1)) {
+            entry.moveTo(resolved, slot);
+            visitor.visit(entry);
+        }
+    }
+
+    /**
+     * Gets a read-only {@link Map} view of the stored index. Unlike {@link SettingsManager#getAllSettings()},
+     * the view is not a copy: lookups always see the current index, and each iteration over the view
+     * walks the index as it was when that iteration began. Any attempt to modify the view will throw
+     * an {@link UnsupportedOperationException}.
+     * @return a live, read-only view of the stored index
+     */
+    public Map<String, Object> asMap() {
+        return new SettingsMapView(this);
+    }
+
+    /**
+     * Gets the current snapshot of the stored index, for use by views of this object.
+     * @return the current index snapshot
+     */
+    SettingsTable snapshot() {
+        return resolved;
     }
 
     /**
      * Completely removes a setting entry from the index, acting as if it was never there.
      * @param key the key to search for in the settings index
      */
-    public void removeSetting(@NonNull String key) {
-        if(storage.containsKey(key)) storage.remove(key);
+    public void removeSetting(@NonNull String key)
+    {
+        synchronized (writeLock)
+        {
+            int slot = SettingKey.slotOf(key);
+            if(!storage.contains(slot)) return;
+
+            recordUndo(storage, slot);
+            storage = storage.without(slot, ++version);
+            resolve(slot, version);
+            recordMutation(SettingsWriteAheadLog.OP_REMOVE, key, SettingsTable.TAG_ABSENT, 0, null);
+        }
     }
 
     /**
@@ -158,14 +462,124 @@ public class SettingsManager
         if(key.isEmpty()) throw new IllegalArgumentException("Key cannot be zero-length");
         if(value != null && !(value instanceof Serializable)) throw new IllegalArgumentException("Object must be serializable");
 
-        boolean retV = false;
-        if(storage.containsKey(key)) {
-            storage.remove(key);
-            retV = true;
-        }
+        return storeSlot(key, SettingsTable.tagOf(value), SettingsTable.bitsOf(value), SettingsTable.refOf(value));
+    }
 
-        storage.put(key, value);
-        return retV;
+    /**
+     * Sets a specified key in the internal index to the specified {@code int} value, without boxing it.
+     * If no entry for that key exists, it will be created.
+     * @param key the key to search for in the index, or the new key that will be created, if that key does not exist
+     * @param value the value to set the existing or new key to
+     * @return {@code true} if the specified key existed already, {@code false} if otherwise
+     */
+    public boolean storeInt(@NonNull String key, int value) {
+        return storeSlot(key, SettingsTable.TAG_INT, value, null);
+    }
+
+    /**
+     * Sets a specified key in the internal index to the specified {@code float} value, without boxing it.
+     * If no entry for that key exists, it will be created.
+     * @param key the key to search for in the index, or the new key that will be created, if that key does not exist
+     * @param value the value to set the existing or new key to
+     * @return {@code true} if the specified key existed already, {@code false} if otherwise
+     */
+    public boolean storeFloat(@NonNull String key, float value) {
+        return storeSlot(key, SettingsTable.TAG_FLOAT, Float.floatToRawIntBits(value), null);
+    }
+
+    /**
+     * Sets a specified key in the internal index to the specified {@code boolean} value, without boxing it.
+     * If no entry for that key exists, it will be created.
+     * @param key the key to search for in the index, or the new key that will be created, if that key does not exist
+     * @param value the value to set the existing or new key to
+     * @return {@code true} if the specified key existed already, {@code false} if otherwise
+     */
+    public boolean storeBoolean(@NonNull String key, boolean value) {
+        return storeSlot(key, SettingsTable.TAG_BOOLEAN, value ? 1 : 0, null);
+    }
+
+    /**
+     * Sets a specified key in the internal index to the specified {@code long} value, without boxing it.
+     * If no entry for that key exists, it will be created.
+     * @param key the key to search for in the index, or the new key that will be created, if that key does not exist
+     * @param value the value to set the existing or new key to
+     * @return {@code true} if the specified key existed already, {@code false} if otherwise
+     */
+    public boolean storeLong(@NonNull String key, long value) {
+        return storeSlot(key, SettingsTable.TAG_LONG, value, null);
+    }
+
+    /**
+     * Sets a setting value through a pre-resolved key handle.
+     * Provided object must implement {@link Serializable} to allow reading from/writing to config files.
+     * @param key the handle of the key to set
+     * @param value the value to set the key to
+     * @param <T> the type of value stored under the key
+     * @return {@code true} if the specified key existed already, {@code false} if otherwise
+     */
+    public <T> boolean store(@NonNull SettingKey<T> key, T value)
+    {
+        if(value != null && !(value instanceof Serializable)) throw new IllegalArgumentException("Object must be serializable");
+        return storeSlot(key.slot(), SettingsTable.tagOf(value), SettingsTable.bitsOf(value), SettingsTable.refOf(value));
+    }
+
+    /**
+     * Sets an {@code int} setting value through a pre-resolved key handle, without boxing it.
+     * @see SettingsManager#storeInt(String, int)
+     */
+    public boolean storeInt(@NonNull SettingKey<Integer> key, int value) {
+        return storeSlot(key.slot(), SettingsTable.TAG_INT, value, null);
+    }
+
+    /**
+     * Sets a {@code float} setting value through a pre-resolved key handle, without boxing it.
+     * @see SettingsManager#storeFloat(String, float)
+     */
+    public boolean storeFloat(@NonNull SettingKey<Float> key, float value) {
+        return storeSlot(key.slot(), SettingsTable.TAG_FLOAT, Float.floatToRawIntBits(value), null);
+    }
+
+    /**
+     * Sets a {@code boolean} setting value through a pre-resolved key handle, without boxing it.
+     * @see SettingsManager#storeBoolean(String, boolean)
+     */
+    public boolean storeBoolean(@NonNull SettingKey<Boolean> key, boolean value) {
+        return storeSlot(key.slot(), SettingsTable.TAG_BOOLEAN, value ? 1 : 0, null);
+    }
+
+    /**
+     * Sets a {@code long} setting value through a pre-resolved key handle, without boxing it.
+     * @see SettingsManager#storeLong(String, long)
+     */
+    public boolean storeLong(@NonNull SettingKey<Long> key, long value) {
+        return storeSlot(key.slot(), SettingsTable.TAG_LONG, value, null);
+    }
+
+    /**
+     * Stores a value in its {@link SettingsTable} form, registering the key if it does not have a slot yet.
+     * @return {@code true} if the specified key existed already, {@code false} if otherwise
+     */
+    private boolean storeSlot(String key, byte tag, long bits, Object ref)
+    {
+        if(key.isEmpty()) throw new IllegalArgumentException("Key cannot be zero-length");
+        return storeSlot(SettingKey.slotFor(key), tag, bits, ref);
+    }
+
+    /**
+     * Stores a value in its {@link SettingsTable} form in the specified slot.
+     * @return {@code true} if the slot held a value already, {@code false} if otherwise
+     */
+    private boolean storeSlot(int slot, byte tag, long bits, Object ref)
+    {
+        synchronized (writeLock)
+        {
+            boolean retV = storage.contains(slot);
+            recordUndo(storage, slot);
+            storage = storage.with(slot, tag, bits, ref, ++version);
+            resolve(slot, version);
+            recordMutation(SettingsWriteAheadLog.OP_PUT, SettingKey.nameOf(slot), tag, bits, ref);
+            return retV;
+        }
     }
 
     /**
@@ -197,26 +611,65 @@ public class SettingsManager
         if(settings.size() == 0) throw new IllegalArgumentException("Input HashMap cannot be null");
 
         for(String key : settings.keySet()) {
-            if(storage.containsKey(key)) storage.remove(key);
-            storage.put(key, settings.get(key));
+            Object value = settings.get(key);
+            if(value == null || value instanceof Serializable) storeSetting(key, value);
         }
     }
 
     /**
      * Clears the internal settings index completely.
-     * Also clears the defaults store, temporary flag registry, and cache.
+     * Also clears every other {@link SettingsScope scope}, volatile settings, and cache, deselects the current
+     * profile, and discards any open transactions.
+     */
+    public void clearStorage()
+    {
+        synchronized (writeLock)
+        {
+            // Clear each entry individually rather than starting over with an empty index, so that the
+            // clear shows up in the modification stamps.
+            long stamp = ++version;
+            storage = cleared(storage, stamp);
+
+            // The old values of every open transaction are meaningless now, so drop them without restoring anything.
+            transactions = new ArrayList<>();
+            cacheDepth = -1;
+            defaults = new SettingsTable();
+            profile = new SettingsTable();
+            profileName = null;
+            session = new SettingsTable();
+            resolved = cleared(resolved, stamp);
+            recordMutation(SettingsWriteAheadLog.OP_CLEAR, null, SettingsTable.TAG_ABSENT, 0, null);
+        }
+
+        clearVolatile();
+    }
+
+    /**
+     * Clears every entry of a table individually, so that the clear shows up in its modification stamps.
+     * @param table the table to clear
+     * @param stamp the modification stamp to record for every cleared entry
+     * @return a table with no entries
      */
-    public void clearStorage() {
-        storage = new HashMap<>();
-        cache = new HashMap<>();
-        tempFlags = new HashMap<>();
-        defaults = new HashMap<>();
+    private static SettingsTable cleared(SettingsTable table, long stamp)
+    {
+        SettingsTable retV = table;
+        for(int slot = table.nextSlot(0); slot >= 0; slot = table.nextSlot(slot + 1)) {
+            retV = retV.without(slot, stamp);
+        }
+
+        return retV;
     }
 
     /**
      * Attempts to write the currently stored settings index to the set config file.
-     * Will automatically skip writing any entries that have the temporary flag set for them.
-     * This will NOT remove them from the index, but simply skip writing them to file.
+     * Settings stored with {@link SettingsManager#storeVolatile(String, Object)} and its variants are
+     * kept apart from the index, and are never written.
+     * The index is written to a temporary file first, and is only moved over the existing config file
+     * once it has been completely written and synced to disk. The previous config file is kept as a
+     * backup generation, which {@link SettingsManager#loadConfigFromFile()} will fall back to if the
+     * main file is lost or damaged.
+     * If a {@link SettingsManager#setShardCount(int) sharded layout} is in use, only the shards that contain
+     * settings changed since the last write are rewritten.
      * @throws IOException if an error occurred during the write or serialization process
      */
     public void writeStoredConfigToFile() throws IOException
@@ -224,145 +677,1981 @@ public class SettingsManager
         // Check to make sure the current target is valid.
         if(target == null || target.isDirectory()) throw new IllegalArgumentException("Config target is invalid");
 
-        // If the target is valid, make sure a file exists at the specified location.
-        if(target.exists()){
-            if(!target.delete()) throw new IOException("Unable to delete current config file");
-        }else{
-            if(!target.getParentFile().exists() && !target.getParentFile().mkdirs()) throw new IOException("Unable to create necessary config directory path");
+        Tracer.begin("Settings.write");
+        try{
+            writeConfig();
+        }finally{
+            Tracer.end();
         }
+    }
 
-        if(!target.createNewFile()) throw new IOException("Unable to create config file");
+    /**
+     * Does the work of {@link SettingsManager#writeStoredConfigToFile()} once the target has been checked.
+     * @throws IOException if an error occurred during the write or serialization process
+     */
+    private void writeConfig() throws IOException
+    {
+        synchronized (fileLock)
+        {
+            SettingsTable writeCopy;
+            long writeVersion;
+            boolean rolled = false;
+            SettingsWriteAheadLog wal = null;
+            BlobStore blobs = getBlobStore();
+            synchronized (writeLock)
+            {
+                writeCopy = storage;
+                writeVersion = version;
 
-        // Make sure we can write to the file we just created.
-        if(!target.canRead() || !target.canWrite()) throw new IOException("No access rights for written config file");
+                // Blobs replaced inside an open transaction are not in the snapshot, but a rollback can still put them back.
+                blobs.beginWrite();
+                retainTransactionBlobs(blobs);
 
-        // It's not unchecked, I looked: it ALWAYS returns a HashMap.
-        @SuppressWarnings("unchecked")
-        HashMap<String, Object> writeCopy = (HashMap<String, Object>)storage.clone();
+                // This snapshot covers everything changed up to now.
+                setDirty(false);
 
-        // Check if the temporary flag storage is empty. If it is, skip removal checking, as we know there are no flagged entries.
-        if(tempFlags.keySet().size() > 0) {
-            // Check each entry for temporary flagging, and remove it from to the temporary write array if it is flagged.
-            // Skip removal if the specified key does not exist in the main array for obvious reasons.
-            for (String k : storage.keySet()) {
-                if (tempFlags.containsKey(k) && tempFlags.get(k) && writeCopy.containsKey(k)) writeCopy.remove(k);
+                // Every mutation logged so far is covered by this snapshot, so cut the log here.
+                // Anything that changes while the snapshot is being written goes to a fresh log.
+                if(getLog().exists()){
+                    wal = getLog();
+                    wal.roll();
+                }
             }
-        }
 
-        // Now that we are sure that the file is ready for writing, write the copied index to it
-        ObjectOutputStream os = new ObjectOutputStream(new FileOutputStream(target));
-        os.writeObject(writeCopy);
-        os.flush();
-        os.close();
-    }
+            int shards = shardCount;
+            try{
+                // Moving the log aside is file work, so it is left until the write lock has been released.
+                rolled = wal != null && wal.completeRoll();
 
-    /**
-     * Attempts to read a settings index from the currently set config file.
-     * If the read succeeds, the currently stored index of this object will be replaced by the read
-     * settings, so make sure to store the current index somewhere else if you wish to retain it.
-     * @throws IOException if an error occurred during the read or interpretation process
-     */
-    public void loadConfigFromFile() throws IOException
-    {
-        // Check to make sure the current target is valid.
-        if(target == null || target.isDirectory()) throw new IllegalArgumentException("Config target is invalid");
+                // Only a write that covers every setting knows which blobs are still in use.
+                boolean complete = shards > 1 ? writeShards(writeCopy, shards, blobs) : writeSingleFile(writeCopy, blobs);
+                blobs.finishWrite(complete);
+            }catch(IOException e){
+                blobs.finishWrite(false);
+                synchronized (writeLock)
+                {
+                    // The snapshot never made it to disk, so its changes are unsaved again.
+                    setDirty(true);
+                    scheduleRetry();
+                }
+                throw e;
+            }
 
-        // If the target is valid, make sure a file exists at the specified location.
-        if(!target.exists() || (target.exists() & !target.getName().contains(".cfg")))
-            throw new IOException("No valid config file exists at the specified location");
+            synchronized (writeLock) {
+                retryDelay = 0;
+            }
+            writtenShards = shards;
+            writtenVersion = writeVersion;
 
-        // Target is valid. Try to load from it.
-        ObjectInputStream is = new ObjectInputStream(new FileInputStream(target));
-        Object buffer;
-        try{
-            buffer = is.readObject();
-        } catch(ClassNotFoundException | IOException e){
-            throw new IOException("Unable to load from config. Cause: " +
-                    (e.getLocalizedMessage() == null ? e.toString() : e.getLocalizedMessage()));
+            // The snapshot is safely on disk, so the records that went into it are no longer needed.
+            if(rolled) wal.discardRolled();
         }
-
-        // Check that the file actually contained a valid HashMap.
-        if(!(buffer instanceof HashMap)) throw new IOException("Read succeeded, but the file did not contain valid settings");
-
-        // Store the retrieved data.
-        // Not an unchecked cast, but IntelliJ seems to think so...
-        //noinspection unchecked
-        storage = (HashMap<String,Object>)buffer;
-        is.close();
     }
 
     /**
-     * Gets the current target config file for this object.
-     * @return a copy of the {@link File} that this object is currently managing
+     * Marks every blob referenced by the undo records of the open transactions as still in use by the write in
+     * progress. Must be called with the write lock held.
+     * @param blobs the {@link BlobStore} of the write in progress
      */
-    public File getTarget() {
-        return new File(target.getParent(), target.getName());
+    private void retainTransactionBlobs(BlobStore blobs)
+    {
+        for(TransactionFrame frame : transactions)
+        {
+            for(int i = 0; i < frame.size(); i++)
+            {
+                Object ref = frame.ref(i);
+                if(ref instanceof BlobValue) ((BlobValue)ref).retainIn(blobs);
+                else if(ref instanceof LazyValue) ((LazyValue)ref).retainIn(blobs);
+            }
+        }
     }
 
     /**
-     * Sets the config file target of this object.
-     * @param target a {@link File} representing the target configuration file that this object should manage
+     * Writes a snapshot of the index to the config target as a single file, and removes any sharded layout
+     * left over from before. Must be called with the file lock held.
+     * @param writeCopy the snapshot to write
+     * @param blobs the {@link BlobStore} to move large values into
+     * @return {@code true}, since every setting is written
+     * @throws IOException if an error occurred during the write or serialization process
      */
-    public void setTarget(File target) {
-        this.target = target;
+    private boolean writeSingleFile(SettingsTable writeCopy, BlobStore blobs) throws IOException
+    {
+        // Write the copied index to a temporary file through a buffer, then commit it over the live file.
+        AtomicConfigFile file = new AtomicConfigFile(target);
+        FileOutputStream fs = file.startWrite();
+        try{
+            ConfigCodec.writeConfig(new BufferedOutputStream(fs), writeCopy, blobs);
+            file.finishWrite(fs);
+        }catch(IOException e){
+            file.failWrite(fs);
+            throw e;
+        }
+
+        // A sharded layout takes priority when loading, so it has to go now that the single file is current.
+        ShardedConfig layout = new ShardedConfig(target);
+        if(layout.exists())
+        {
+            int previous = writtenShards;
+            if(previous < 2){
+                try {
+                    previous = layout.readManifest();
+                } catch (IOException e) {
+                    previous = 0;
+                }
+            }
+
+            layout.deleteManifest();
+            if(previous > 1) layout.deleteShards(previous);
+        }
+
+        return true;
     }
 
     /**
-     * Tells this object to copy the contents of its internal index to a separate internal cache.
-     * This is useful if, for example, you wish to allow objects to continue writing changes as normal
-     * to the main index, but keep a separate concurrent global copy in case a user cancels changes.
-     * This object will retain the cached copy until the {@link SettingsManager#clearCache()} or {@link SettingsManager#commitCache()} method is called.
-     * Calling this method when a cached copy already exists will invalidate the cached copy and create
-     * a new one from the master index.
+     * Writes a snapshot of the index to the config target in the sharded layout. If the layout on disk already
+     * has the same number of shards, only the shards containing settings that changed since the last write are
+     * rewritten. Otherwise, every shard is written, the manifest is switched over to the new layout, and the
+     * previous layout is removed. Must be called with the file lock held.
+     * @param writeCopy the snapshot to write
+     * @param count the number of shards to write
+     * @param blobs the {@link BlobStore} to move large values into
+     * @return {@code true} if every shard was written, {@code false} if only the changed ones were
+     * @throws IOException if an error occurred during the write or serialization process
      */
-    public void fillCache()
+    private boolean writeShards(SettingsTable writeCopy, int count, BlobStore blobs) throws IOException
     {
-        cache = new HashMap<>();
-        cache.putAll(storage);
-    }
+        int previous = writtenShards;
+        boolean full = previous != count;
 
-    /**
+        // Find the shards that hold a changed or removed setting from the modification stamps.
+        boolean[] changed = new boolean[count];
+        if(full){
+            Arrays.fill(changed, true);
+        }else{
+            for(int slot : writeCopy.changedSince(writtenVersion)) {
+                changed[ShardedConfig.shardOf(SettingKey.nameOf(slot), count)] = true;
+            }
+        }
+
+        SettingsTable[] parts = new SettingsTable[count];
+        for(int i = 0; i < count; i++) {
+            if(changed[i]) parts[i] = new SettingsTable();
+        }
+
+        for(int slot = writeCopy.nextSlot(0); slot >= 0; slot = writeCopy.nextSlot(slot + 1))
+        {
+            int shard = ShardedConfig.shardOf(SettingKey.nameOf(slot), count);
+            if(changed[shard]) parts[shard] = parts[shard].with(slot, writeCopy.tag(slot), writeCopy.bits(slot), writeCopy.ref(slot), 0);
+        }
+
+        ShardedConfig layout = new ShardedConfig(target);
+        for(int i = 0; i < count; i++)
+        {
+            if(!changed[i]) continue;
+
+            AtomicConfigFile file = new AtomicConfigFile(layout.getShardFile(count, i));
+            FileOutputStream fs = file.startWrite();
+            try{
+                ConfigCodec.writeConfig(new BufferedOutputStream(fs), parts[i], blobs);
+                file.finishWrite(fs);
+            }catch(IOException e){
+                file.failWrite(fs);
+                throw e;
+            }
+        }
+
+        if(!full) return false;
+
+        // Every shard of the new layout is on disk, so switch over to it and clean up whatever it replaces.
+        layout.writeManifest(count);
+        if(previous > 1){
+            layout.deleteShards(previous);
+        }else{
+            for(File f : new AtomicConfigFile(target).getReadCandidates()) {
+                f.delete();
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Attempts to read a settings index from the currently set config file.
+     * If the read succeeds, the currently stored index of this object will be replaced by the read
+     * settings, so make sure to store the current index somewhere else if you wish to retain it.
+     * If the config file is missing or cannot be read, the backup generation kept by
+     * {@link SettingsManager#writeStoredConfigToFile()} will be loaded instead, if one exists.
+     * If the config was written in the {@link SettingsManager#setShardCount(int) sharded layout}, its shards
+     * are read in parallel on a shared background pool.
+     * Every record in the file is checked against its checksum. If neither the file nor its backup is completely
+     * intact, every intact setting is salvaged from them instead of failing the load, and the keys of the settings
+     * that were lost can be found through {@link SettingsManager#getDamagedKeys()}. A salvaged config is marked as
+     * having unsaved changes, so that the next write replaces the damaged files. In lazy mode, records are only
+     * checked when they are first read, and a damaged one reads as {@code null}.
+     * @throws IOException if an error occurred during the read or interpretation process
+     */
+    public void loadConfigFromFile() throws IOException
+    {
+        // Check to make sure the current target is valid.
+        if(target == null || target.isDirectory()) throw new IllegalArgumentException("Config target is invalid");
+        if(!target.getName().contains(".cfg")) throw new IOException("No valid config file exists at the specified location");
+
+        Tracer.begin("Settings.load");
+        try{
+            loadConfig();
+        }finally{
+            Tracer.end();
+        }
+    }
+
+    /**
+     * Does the work of {@link SettingsManager#loadConfigFromFile()} once the target has been checked.
+     * @throws IOException if an error occurred during the read or interpretation process
+     */
+    private void loadConfig() throws IOException
+    {
+        synchronized (fileLock)
+        {
+            // Try the live file first, then the last known-good backup. Keep the first failure around
+            // so that we can report it if neither file can be loaded.
+            HashMap<String, Object> loaded = null;
+            boolean legacy = false;
+            IOException failure = null;
+            BlobStore blobs = getBlobStore();
+            List<String> damaged = Collections.synchronizedList(new ArrayList<String>());
+            int shards = new ShardedConfig(target).readManifest();
+            if(shards > 1) loaded = readShards(shards, blobs, damaged);
+
+            for(File f : new AtomicConfigFile(target).getReadCandidates())
+            {
+                if(loaded != null || !f.exists()) continue;
+
+                // In lazy mode, map the file and read only its index if it has one.
+                if(lazyLoading)
+                {
+                    try{
+                        loaded = ConfigCodec.mapConfig(f, blobs);
+                        if(loaded != null) break;
+                    }catch(IOException e){
+                        if(failure == null) failure = e;
+                        continue;
+                    }
+                }
+
+                BufferedInputStream is = new BufferedInputStream(new FileInputStream(f));
+                try{
+                    legacy = ConfigCodec.isLegacyFormat(is);
+                    loaded = legacy ? ConfigCodec.readLegacyConfig(is) : ConfigCodec.readConfig(is, blobs);
+                    break;
+                }catch(IOException e){
+                    if(failure == null) failure = e;
+                }finally{
+                    is.close();
+                }
+            }
+
+            // Neither the live file nor its backup is completely intact, so keep whatever is left of them.
+            if(loaded == null && shards <= 1) loaded = salvageIndexFile(target, blobs, damaged);
+
+            synchronized (writeLock)
+            {
+                // Replay any logged mutations over the loaded snapshot. A log with no snapshot underneath
+                // it is still a valid config, it just has not been compacted yet.
+                if(loaded == null){
+                    if(!getLog().exists()) throw failure == null ? new IOException("No valid config file exists at the specified location") : failure;
+                    loaded = new HashMap<>();
+                }
+
+                // If the log holds anything, the files on disk are missing those changes, and all of them need rewriting.
+                writtenShards = getLog().exists() ? 0 : Math.max(shards, 1);
+
+                getLog().replay(loaded);
+                Tracer.counter("Settings.entries", loaded.size());
+                storage = replaceContents(storage, loaded, ++version);
+                resolveChanged(storage, version);
+                writtenVersion = version;
+                setDirty(!damaged.isEmpty());
+                damagedKeys = Collections.unmodifiableList(new ArrayList<>(damaged));
+                scheduleDispatch();
+            }
+
+            // Configs written by older versions use Java serialization. Rewrite them in the binary
+            // format straight away so that future loads can skip the slow path.
+            if(legacy) migrateLegacyConfig();
+        }
+    }
+
+    /**
+     * Reads every shard of a sharded config in parallel, and merges them into one index.
+     * Must be called with the file lock held.
+     * @param count the number of shards listed in the manifest
+     * @param blobs the {@link BlobStore} holding the config's blobs
+     * @param damaged a synchronized list to add the keys of damaged settings to, if any shard has to be salvaged
+     * @return the merged settings index
+     * @throws IOException if any of the shards is missing or could not be read
+     */
+    private HashMap<String, Object> readShards(int count, final BlobStore blobs, final List<String> damaged) throws IOException
+    {
+        final ShardedConfig layout = new ShardedConfig(target);
+        final boolean lazy = lazyLoading;
+        ArrayList<FutureTask<HashMap<String, Object>>> reads = new ArrayList<>();
+        for(int i = 0; i < count; i++)
+        {
+            final File file = layout.getShardFile(count, i);
+            FutureTask<HashMap<String, Object>> read = new FutureTask<>(() -> {
+                HashMap<String, Object> part = readIndexFile(file, lazy, blobs, damaged);
+                if(part == null) throw new IOException("Config shard " + file.getName() + " is missing");
+                return part;
+            });
+
+            reads.add(read);
+            if(i > 0) SettingsBackground.pool().execute(read);
+        }
+
+        HashMap<String, Object> retV = new HashMap<>();
+        for(FutureTask<HashMap<String, Object>> read : reads)
+        {
+            // Run any shard that the pool has not gotten to yet on this thread, so that a busy pool can't stall the load.
+            read.run();
+            try{
+                retV.putAll(read.get());
+            }catch(ExecutionException e){
+                if(e.getCause() instanceof IOException) throw (IOException)e.getCause();
+                throw new IOException("Could not read config shard", e.getCause());
+            }catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while reading config shards");
+            }
+        }
+
+        return retV;
+    }
+
+    /**
+     * Records a mutation to the stored index. The mutation is appended to the write-ahead log if
+     * logging is enabled, and this object is marked as having unsaved changes. Must be called with the write lock held.
+     * @param op the operation code of the mutation
+     * @param key the affected key, or {@code null} for operations that affect the whole index
+     * @param tag the {@link SettingsTable} type tag of the new value, if any
+     * @param bits the raw bits of the new value, if it is a primitive
+     * @param ref the new value itself, if it is an object
+     */
+    private void recordMutation(byte op, String key, byte tag, long bits, Object ref)
+    {
+        logMutation(op, key, tag, bits, ref);
+        markDirty();
+        scheduleDispatch();
+    }
+
+    /**
+     * Marks this object as having unsaved changes, and schedules a write-behind flush if write-behind
+     * is enabled and no flush is pending yet. Must be called with the write lock held.
+     */
+    private void markDirty()
+    {
+        setDirty(true);
+        if(writeBehindDelay <= 0) return;
+
+        lastMutationTime = System.nanoTime();
+        if(flushPending) return;
+
+        flushPending = true;
+        SettingsBackground.get().schedule(this::runWriteBehind, writeBehindDelay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs a scheduled write-behind flush. If changes have been made since the flush was scheduled,
+     * the flush is pushed back until the quiet period has passed since the last of them, so that
+     * bursts of changes are written out only once.
+     */
+    private void runWriteBehind()
+    {
+        synchronized (writeLock)
+        {
+            long remaining = writeBehindDelay - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastMutationTime);
+            if(writeBehindDelay > 0 && remaining > 0) {
+                SettingsBackground.get().schedule(this::runWriteBehind, remaining, TimeUnit.MILLISECONDS);
+                return;
+            }
+
+            flushPending = false;
+        }
+
+        try {
+            flushIfDirty();
+        } catch (IOException | IllegalArgumentException ignored) {
+            // Still marked dirty, and a failed write schedules its own retry.
+        }
+    }
+
+    /**
+     * Schedules another write-behind flush after a failed write, if write-behind is enabled and no flush is
+     * pending already. The delay doubles with each failure in a row, so that a write that keeps failing (such as
+     * on a full disk) is not retried in a tight loop. Must be called with the write lock held.
+     */
+    private void scheduleRetry()
+    {
+        if(writeBehindDelay <= 0 || flushPending) return;
+
+        retryDelay = retryDelay == 0 ? MIN_RETRY_DELAY : Math.min(retryDelay * 2, MAX_RETRY_DELAY);
+        flushPending = true;
+        SettingsBackground.get().schedule(this::runWriteBehind, retryDelay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Writes the stored index to the config file if it has changed since it was last loaded or written.
+     * @throws IOException if an error occurred during the write
+     */
+    private void flushIfDirty() throws IOException {
+        if(dirty) writeStoredConfigToFile();
+    }
+
+    /**
+     * Appends a mutation to the write-ahead log if logging is enabled, and schedules a compaction if
+     * the log has grown past its threshold. The record is only queued here, and is written to the
+     * log file on the settings I/O thread. Must be called with the write lock held.
+     * @param op the operation code of the mutation
+     * @param key the affected key, or {@code null} for operations that affect the whole index
+     * @param tag the {@link SettingsTable} type tag of the new value, if any
+     * @param bits the raw bits of the new value, if it is a primitive
+     * @param ref the new value itself, if it is an object
+     */
+    private void logMutation(byte op, String key, byte tag, long bits, Object ref)
+    {
+        if(!logging || target == null) return;
+
+        try{
+            getLog().append(op, key, tag, bits, ref);
+        }catch(IOException e){
+            // If the change can't be encoded, writing a full snapshot is the only way left to get it onto disk.
+            scheduleCompaction();
+            return;
+        }
+
+        if(getLog().size() >= logCompactionThreshold) scheduleCompaction();
+    }
+
+    /**
+     * Schedules a background rewrite of the config file, which folds the write-ahead log into a new
+     * snapshot. Has no effect if a compaction is already pending. Must be called with the write lock held.
+     */
+    private void scheduleCompaction()
+    {
+        if(compactionPending) return;
+        compactionPending = true;
+
+        SettingsBackground.get().execute(() -> {
+            try {
+                writeStoredConfigToFile();
+            } catch (IOException | IllegalArgumentException ignored) {
+                // The log is still intact, so nothing has been lost. Compaction will be retried on the next logged change.
+            } finally {
+                synchronized (writeLock) {
+                    compactionPending = false;
+                }
+            }
+        });
+    }
+
+    /**
+     * Gets the write-ahead log for the current target, creating its handle if necessary.
+     * Must be called with the write lock held.
+     */
+    private SettingsWriteAheadLog getLog()
+    {
+        if(log == null) log = new SettingsWriteAheadLog(target, this::onLogFailure);
+        return log;
+    }
+
+    /**
+     * Called on the settings I/O thread when queued log records could not be written to the log file.
+     * Those changes are still in memory, so a full snapshot will get them onto disk.
+     */
+    private void onLogFailure()
+    {
+        synchronized (writeLock) {
+            scheduleCompaction();
+        }
+    }
+
+    /**
+     * Copies a settings table into a keyed index, boxing primitives and decoding any values that are still lazily loaded.
+     * @param source the table to copy
+     * @return a keyed copy of the table containing only actual setting values
+     */
+    private HashMap<String, Object> toMap(SettingsTable source)
+    {
+        HashMap<String, Object> retV = new HashMap<>();
+        for(int slot = source.nextSlot(0); slot >= 0; slot = source.nextSlot(slot + 1)) {
+            retV.put(SettingKey.nameOf(slot), source.getBoxed(slot));
+        }
+
+        return retV;
+    }
+
+    /**
+     * Replaces the contents of a settings table with those of a keyed index, registering any new keys.
+     * Entries missing from the index are cleared rather than dropped, so that the replacement is fully
+     * reflected in the modification stamps and any open transaction. Must be called with the write lock held.
+     * @param current the table to replace the contents of
+     * @param source the index to take the new contents from
+     * @param stamp the modification stamp to record for every changed entry
+     * @return a table containing the same entries as the index
+     */
+    private SettingsTable replaceContents(SettingsTable current, HashMap<String, Object> source, long stamp)
+    {
+        SettingsTable retV = current;
+        for(int slot = current.nextSlot(0); slot >= 0; slot = current.nextSlot(slot + 1))
+        {
+            if(source.containsKey(SettingKey.nameOf(slot))) continue;
+
+            recordUndo(current, slot);
+            retV = retV.without(slot, stamp);
+        }
+
+        for(Map.Entry<String, Object> e : source.entrySet())
+        {
+            int slot = SettingKey.slotFor(e.getKey());
+            recordUndo(current, slot);
+            retV = retV.withBoxed(slot, e.getValue(), stamp);
+        }
+
+        return retV;
+    }
+
+    /**
+     * Rewrites the currently loaded index to the config file in the current format.
+     * Failure is not fatal, since the legacy file will simply be migrated on the next load instead.
+     */
+    private void migrateLegacyConfig()
+    {
+        try {
+            writeStoredConfigToFile();
+        } catch (IOException ignored) {}
+    }
+
+    /**
+     * Sets whether {@link SettingsManager#loadConfigFromFile()} should decode settings lazily.
+     * In lazy mode, the config file is memory-mapped and only its key index is read during the load.
+     * Each value is decoded from the mapped file the first time it is requested, and kept from then on.
+     * This makes load time independent of the total size of the stored values. Files written by older
+     * versions of this app that have no index are loaded normally regardless of this setting.
+     * @param lazy {@code true} to enable lazy loading, {@code false} to decode all values during the load
+     */
+    public void setLazyLoading(boolean lazy) {
+        this.lazyLoading = lazy;
+    }
+
+    /**
+     * Gets whether this object loads its config file lazily.
+     * @return {@code true} if lazy loading is enabled, {@code false} if otherwise
+     * @see SettingsManager#setLazyLoading(boolean)
+     */
+    public boolean isLazyLoading() {
+        return lazyLoading;
+    }
+
+    /**
+     * Gets the current target config file for this object.
+     * @return a copy of the {@link File} that this object is currently managing, or {@code null} if it has no target
+     */
+    public File getTarget()
+    {
+        File current = target;
+        return current == null ? null : new File(current.getParent(), current.getName());
+    }
+
+    /**
+     * Sets the config file target of this object.
+     * @param target a {@link File} representing the target configuration file that this object should manage
+     */
+    public void setTarget(File target)
+    {
+        synchronized (writeLock)
+        {
+            if(log != null) log.close();
+            log = null;
+            this.target = target;
+            blobs = null;
+
+            // Nothing is known about what is on disk at the new target, so the next write has to be a full one.
+            writtenShards = 0;
+        }
+    }
+
+    /**
+     * Sets whether this object should keep a write-ahead log of its mutations.
+     * When enabled, every stored or removed setting is appended as a small record to a log file kept
+     * next to the config file, so that changes reach the disk without rewriting the entire config.
+     * {@link SettingsManager#loadConfigFromFile()} replays the log over the stored snapshot, and once the
+     * log grows past the compaction threshold, it is folded into a new snapshot in the background.
+     * Any existing log is replayed by {@link SettingsManager#loadConfigFromFile()} regardless of this setting.
+     * @param enabled {@code true} to log mutations, {@code false} to keep them in memory until the next full write
+     * @see SettingsManager#setLogCompactionThreshold(long)
+     */
+    public void setWriteAheadLogging(boolean enabled)
+    {
+        synchronized (writeLock) {
+            this.logging = enabled;
+        }
+    }
+
+    /**
+     * Gets whether this object keeps a write-ahead log of its mutations.
+     * @return {@code true} if write-ahead logging is enabled, {@code false} if otherwise
+     */
+    public boolean isWriteAheadLogging() {
+        return logging;
+    }
+
+    /**
+     * Sets the quiet period for write-behind persistence. When enabled, any change to the stored index
+     * marks this object as dirty, and the config file is rewritten on a background thread once no
+     * further changes have been made for the specified amount of time. Bursts of changes are thereby
+     * coalesced into a single write, and the calling thread never blocks on disk I/O.
+     * Use {@link SettingsManager#flushNow()} to write out pending changes without waiting, such as when
+     * the app is being paused. A write that fails is tried again later, after a delay that starts at one
+     * second and doubles with each failure in a row, up to a minute.
+     * @param quietPeriod the time in milliseconds to wait after the last change before writing.
+     *                    Setting this to {@code 0} or less disables write-behind persistence.
+     */
+    public void setWriteBehind(long quietPeriod)
+    {
+        synchronized (writeLock)
+        {
+            this.writeBehindDelay = quietPeriod < 0 ? 0 : quietPeriod;
+            if(dirty) markDirty();
+        }
+    }
+
+    /**
+     * Gets the current write-behind quiet period.
+     * @return the quiet period in milliseconds, or {@code 0} if write-behind persistence is disabled
+     */
+    public long getWriteBehind() {
+        return writeBehindDelay;
+    }
+
+    /**
+     * Checks if this object has changes that have not been written to its config file yet.
+     * @return {@code true} if there are unsaved changes, {@code false} if otherwise
+     */
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    /**
+     * Sets whether this object has unsaved changes, and updates its {@link SettingsManager#pinWhileDirty(AtomicReference) pin}
+     * to match. Must be called with the write lock held.
+     * @param dirty {@code true} if there are unsaved changes, {@code false} if otherwise
+     */
+    private void setDirty(boolean dirty)
+    {
+        this.dirty = dirty;
+        if(dirtyPin != null) dirtyPin.set(dirty ? this : null);
+    }
+
+    /**
+     * Sets a reference that this object points at itself for as long as it has unsaved changes, and clears
+     * once they have been written. Holding on to the pin keeps a dirty object from being reclaimed while
+     * the only other references to it are soft or weak, such as in the dynamic instance index of
+     * {@link SettingsManagerDelegator}. Only one pin is kept at a time.
+     * @param pin the reference to keep up to date, or {@code null} to stop updating the current one
+     */
+    void pinWhileDirty(AtomicReference<SettingsManager> pin)
+    {
+        synchronized (writeLock)
+        {
+            if(dirtyPin != null && dirtyPin != pin) dirtyPin.set(null);
+            dirtyPin = pin;
+            if(pin != null) pin.set(dirty ? this : null);
+        }
+    }
+
+    /**
+     * Writes any unsaved changes to the config file on the background settings thread, without waiting
+     * for the write-behind quiet period to pass. This method does not block. If there are no unsaved
+     * changes, no write takes place.
+     * @return a {@link Future} that completes once the write has finished. Calling {@link Future#get()}
+     * on it will throw an {@link java.util.concurrent.ExecutionException} if the write failed.
+     */
+    public Future<?> flushNow()
+    {
+        return SettingsBackground.get().submit(() -> {
+            flushIfDirty();
+            return null;
+        });
+    }
+
+    /**
+     * Writes any unsaved changes to the config file on the background settings thread, and waits for
+     * the write to complete.
+     * @param timeout the maximum time to wait in milliseconds
+     * @return {@code true} if all changes were written (or there were none), {@code false} if the write
+     * failed, or did not finish within the timeout
+     */
+    public boolean awaitFlush(long timeout)
+    {
+        try {
+            flushNow().get(timeout, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * Sets the size that the write-ahead log may grow to before it is compacted into a new config snapshot.
+     * Defaults to {@link SettingsManager#DEFAULT_LOG_COMPACTION_THRESHOLD}.
+     * @param bytes the compaction threshold in bytes. Must be greater than {@code 0}.
+     */
+    public void setLogCompactionThreshold(long bytes)
+    {
+        if(bytes <= 0) throw new IllegalArgumentException("Threshold must be greater than 0");
+        this.logCompactionThreshold = bytes;
+    }
+
+    /**
+     * Gets the keys of the settings that were lost to damage in the config file the last time it was loaded.
+     * These settings were dropped by the load, and will read as their {@link SettingsScope#DEFAULTS default}
+     * value, if they have one. Callers can use this to tell the user which settings have been reset.
+     * @return an unmodifiable list of the damaged keys, which is empty if the last load found no damage
+     * @see SettingsManager#loadConfigFromFile()
+     */
+    public List<String> getDamagedKeys() {
+        return damagedKeys;
+    }
+
+    /**
+     * Sets the encoded size at or above which a setting value is stored out of line. Such values are written
+     * to their own blob file in a directory next to the config target, named after a hash of the value's
+     * contents, and the config itself only holds a reference to it. Blobs are loaded the first time their
+     * setting is read, and a write skips any blob that is already on disk, so a large value that does not change
+     * costs next to nothing on save or load. Blobs that are no longer used are deleted by later writes.
+     * Defaults to {@link SettingsManager#DEFAULT_BLOB_THRESHOLD}. Takes effect on the next write.
+     * @param bytes the blob threshold in bytes, or {@code 0} to store every value inline. Values that are already
+     *              stored as blobs are not moved back inline until they are changed.
+     */
+    public void setBlobThreshold(int bytes)
+    {
+        if(bytes < 0) throw new IllegalArgumentException("Threshold cannot be negative");
+        this.blobThreshold = bytes;
+        this.blobs = null;
+    }
+
+    /**
+     * Gets the encoded size at or above which a setting value is stored out of line.
+     * @return the blob threshold in bytes, or {@code 0} if blobs are disabled
+     * @see SettingsManager#setBlobThreshold(int)
+     */
+    public int getBlobThreshold() {
+        return blobThreshold;
+    }
+
+    /**
+     * Sets whether new blobs should be compressed with deflate. Compression suits large text and serialized
+     * values, but not data that is already compressed, such as image bytes. Blobs written before a change
+     * to this setting stay as they are. Defaults to {@code false}.
+     * @param compress {@code true} to deflate new blobs, {@code false} to store them as-is
+     */
+    public void setBlobCompression(boolean compress)
+    {
+        this.blobCompression = compress;
+        this.blobs = null;
+    }
+
+    /**
+     * Gets whether new blobs are compressed with deflate.
+     * @return {@code true} if blob compression is enabled, {@code false} if otherwise
+     * @see SettingsManager#setBlobCompression(boolean)
+     */
+    public boolean isBlobCompressionEnabled() {
+        return blobCompression;
+    }
+
+    /**
+     * Gets the blob store for the current config target and blob settings, creating it if there is none.
+     * The store is kept across writes, so that it can tell which blobs the previous write still needed.
+     * Must be called with the file lock held.
+     */
+    private BlobStore getBlobStore()
+    {
+        BlobStore retV = blobs;
+        if(retV == null){
+            retV = new BlobStore(target, blobThreshold, blobCompression);
+            blobs = retV;
+        }
+
+        return retV;
+    }
+
+    //
+    // SCOPES
+    //
+
+    /**
+     * Gets a setting value from a single {@link SettingsScope scope}, without resolving it through the others.
+     * @param scope the scope to read from
+     * @param key the key to search for in that scope
+     * @return the value corresponding to the provided key, or {@code null} if the key does not exist in the scope
+     */
+    public Object getSetting(@NonNull SettingsScope scope, @NonNull String key) {
+        return layer(scope).getBoxed(SettingKey.slotOf(key));
+    }
+
+    /**
+     * Sets a specified key in a single {@link SettingsScope scope} to the specified value.
+     * Storing to {@link SettingsScope#GLOBAL} is the same as {@link SettingsManager#storeSetting(String, Object)},
+     * and storing to {@link SettingsScope#DEFAULTS} is the same as {@link SettingsManager#setDefaultSetting(String, Object)}.
+     * Only the global scope is covered by transactions, the cache and the write-ahead log.
+     * Provided object must implement {@link Serializable} to allow reading from/writing to config files.
+     * @param scope the scope to write to
+     * @param key the key to search for in the scope, or the new key that will be created, if that key does not exist
+     * @param value the value to set the existing or new key to
+     */
+    public void storeSetting(@NonNull SettingsScope scope, @NonNull String key, Object value)
+    {
+        if(key.isEmpty()) throw new IllegalArgumentException("Key cannot be zero-length");
+        if(value != null && !(value instanceof Serializable)) throw new IllegalArgumentException("Object must be serializable");
+
+        switch (scope)
+        {
+            case DEFAULTS:
+                setDefaultSetting(key, value);
+                break;
+            case GLOBAL:
+                storeSetting(key, value);
+                break;
+            default:
+                synchronized (writeLock)
+                {
+                    int slot = SettingKey.slotFor(key);
+                    setLayer(scope, layer(scope).withBoxed(slot, value, ++version));
+                    resolve(slot, version);
+                    scheduleDispatch();
+                }
+                break;
+        }
+    }
+
+    /**
+     * Completely removes a setting entry from a single {@link SettingsScope scope}. If the key exists in a
+     * lower scope, reads will fall back to that value.
+     * @param scope the scope to remove the key from
+     * @param key the key to search for in the scope
+     */
+    public void removeSetting(@NonNull SettingsScope scope, @NonNull String key)
+    {
+        if(scope == SettingsScope.GLOBAL){
+            removeSetting(key);
+            return;
+        }
+
+        synchronized (writeLock)
+        {
+            int slot = SettingKey.slotOf(key);
+            SettingsTable current = layer(scope);
+            if(!current.contains(slot)) return;
+
+            setLayer(scope, current.without(slot, ++version));
+            resolve(slot, version);
+            scheduleDispatch();
+        }
+    }
+
+    /**
+     * Clears every setting from a single {@link SettingsScope scope}, leaving the others as they are.
+     * Clearing the global scope discards any open transactions, as {@link SettingsManager#clearStorage()} does.
+     * @param scope the scope to clear
+     */
+    public void clearScope(@NonNull SettingsScope scope)
+    {
+        synchronized (writeLock)
+        {
+            SettingsTable current = layer(scope);
+            if(current.size() == 0) return;
+
+            long stamp = ++version;
+            SettingsTable next = cleared(current, stamp);
+            setLayer(scope, next);
+            resolveChanged(next, stamp);
+
+            if(scope == SettingsScope.GLOBAL){
+                transactions = new ArrayList<>();
+                cacheDepth = -1;
+                recordMutation(SettingsWriteAheadLog.OP_CLEAR, null, SettingsTable.TAG_ABSENT, 0, null);
+            }else{
+                scheduleDispatch();
+            }
+        }
+    }
+
+    /**
+     * Gets the table backing the specified scope.
+     * @param scope the scope to get the table for
+     * @return the scope's current snapshot
+     */
+    private SettingsTable layer(SettingsScope scope)
+    {
+        switch (scope)
+        {
+            case DEFAULTS:
+                return defaults;
+            case GLOBAL:
+                return storage;
+            case PROFILE:
+                return profile;
+            default:
+                return session;
+        }
+    }
+
+    /**
+     * Replaces the table backing the specified scope. Must be called with the write lock held.
+     * Does not update the resolved values; see {@link SettingsManager#resolve(int, long)}.
+     * @param scope the scope to replace the table of
+     * @param table the new snapshot
+     */
+    private void setLayer(SettingsScope scope, SettingsTable table)
+    {
+        switch (scope)
+        {
+            case DEFAULTS:
+                defaults = table;
+                break;
+            case GLOBAL:
+                storage = table;
+                break;
+            case PROFILE:
+                profile = table;
+                break;
+            default:
+                session = table;
+                break;
+        }
+    }
+
+    /**
+     * Recomputes the resolved value of a single setting after any scope has changed it, by taking the value
+     * from the highest scope that holds the key. The resolved table is only replaced if the value it holds
+     * actually changes. Must be called with the write lock held.
+     * @param slot the slot to resolve
+     * @param stamp the modification stamp to record if the resolved value changes
+     */
+    private void resolve(int slot, long stamp)
+    {
+        SettingsTable source = session;
+        if(!source.contains(slot)) source = profile;
+        if(!source.contains(slot)) source = storage;
+        if(!source.contains(slot)) source = defaults;
+
+        SettingsTable current = resolved;
+        byte tag = source.tag(slot);
+        long bits = source.bits(slot);
+        Object ref = source.ref(slot);
+
+        // Compare by identity rather than by value, so that resolving never forces a lazily loaded value.
+        if(current.tag(slot) == tag && current.bits(slot) == bits && current.ref(slot) == ref) return;
+
+        resolved = tag == SettingsTable.TAG_ABSENT ? current.without(slot, stamp) : current.with(slot, tag, bits, ref, stamp);
+    }
+
+    /**
+     * Recomputes the resolved value of every setting that was changed in a scope with the specified stamp.
+     * Must be called with the write lock held.
+     * @param layer the changed scope's new snapshot
+     * @param stamp the modification stamp that the changes were made with
+     */
+    private void resolveChanged(SettingsTable layer, long stamp)
+    {
+        for(int slot : layer.changedSince(stamp - 1)) {
+            resolve(slot, stamp);
+        }
+    }
+
+    //
+    // PROFILES
+    //
+
+    /**
+     * Starts loading the named profile in the background, so that a later call to
+     * {@link SettingsManager#switchProfile(String)} does not have to wait for the disk. Profiles are
+     * memory-mapped where the file format allows it, so values are only decoded once they are read.
+     * Calling this method for a profile that is already loaded or loading has no effect.
+     * Profiles are stored next to the config target, in a file named after both the target and the profile.
+     * @param name the name of the profile to load
+     * @return a {@link Future} that completes once the profile has been loaded
+     */
+    public Future<?> preloadProfile(@NonNull String name)
+    {
+        Future<SettingsTable> existing = profileSnapshots.get(name);
+        if(existing != null) return existing;
+
+        FutureTask<SettingsTable> task = newProfileLoad(name);
+        existing = profileSnapshots.putIfAbsent(name, task);
+        if(existing != null) return existing;
+
+        SettingsBackground.get().execute(task);
+        return task;
+    }
+
+    /**
+     * Makes the named profile the current one, replacing the contents of the {@link SettingsScope#PROFILE} scope.
+     * If the profile has been {@link SettingsManager#preloadProfile(String) preloaded}, this is an in-memory
+     * swap that only has to re-resolve the keys of the outgoing and incoming profiles, and results in a single
+     * change notification. Otherwise, the profile is loaded on the calling thread first.
+     * Changes made to the outgoing profile are kept in memory, and are still there if it is switched back to.
+     * Use {@link SettingsManager#writeProfileToFile()} to save them.
+     * A profile that does not have a file yet starts out empty. Switching to the profile that is already current
+     * has no effect.
+     * @param name the name of the profile to switch to, or {@code null} to switch to no profile
+     * @throws IOException if the profile's file exists, but could not be read
+     */
+    public void switchProfile(String name) throws IOException
+    {
+        if(isCurrentProfile(name)) return;
+        SettingsTable next = name == null ? new SettingsTable() : awaitProfile(name);
+
+        synchronized (writeLock)
+        {
+            // Another thread may have switched to the same profile and changed it while this one was loading.
+            // The copy loaded here would then be out of date, so keep the current one.
+            if(isCurrentProfile(name)) return;
+
+            SettingsTable previous = profile;
+            String previousName = profileName;
+            if(previousName != null) profileSnapshots.put(previousName, completed(previous));
+
+            profile = next;
+            profileName = name;
+
+            long stamp = ++version;
+            for(int slot = previous.nextSlot(0); slot >= 0; slot = previous.nextSlot(slot + 1)) {
+                resolve(slot, stamp);
+            }
+
+            for(int slot = next.nextSlot(0); slot >= 0; slot = next.nextSlot(slot + 1)) {
+                resolve(slot, stamp);
+            }
+
+            scheduleDispatch();
+        }
+    }
+
+    /**
+     * Checks if the named profile is the current one.
+     * @param name the name of the profile to check, or {@code null} to check for no profile
+     */
+    private boolean isCurrentProfile(String name)
+    {
+        String current = profileName;
+        return name == null ? current == null : name.equals(current);
+    }
+
+    /**
+     * Gets the name of the current profile.
+     * @return the name of the current profile, or {@code null} if no profile is selected
+     */
+    public String getProfile() {
+        return profileName;
+    }
+
+    /**
+     * Drops the loaded copy of the named profile from memory, including any unsaved changes to it.
+     * Has no effect on the current profile.
+     * @param name the name of the profile to drop
+     */
+    public void evictProfile(@NonNull String name)
+    {
+        synchronized (writeLock) {
+            if(!name.equals(profileName)) profileSnapshots.remove(name);
+        }
+    }
+
+    /**
+     * Writes the contents of the current profile to its file, through the same crash-safe replacement
+     * used by {@link SettingsManager#writeStoredConfigToFile()}.
+     * @throws IllegalStateException if no profile is selected
+     * @throws IOException if an error occurred during the write or serialization process
+     */
+    public void writeProfileToFile() throws IOException
+    {
+        String name;
+        SettingsTable writeCopy;
+        synchronized (writeLock)
+        {
+            name = profileName;
+            writeCopy = profile;
+        }
+
+        if(name == null) throw new IllegalStateException("No profile is selected");
+
+        synchronized (fileLock)
+        {
+            AtomicConfigFile file = new AtomicConfigFile(getProfileFile(name));
+            FileOutputStream fs = file.startWrite();
+            try{
+                ConfigCodec.writeConfig(new BufferedOutputStream(fs), writeCopy);
+                file.finishWrite(fs);
+            }catch(IOException e){
+                file.failWrite(fs);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Gets the loaded copy of the named profile, loading it on the calling thread if no load has been started,
+     * or waiting for the background load to finish if one has.
+     * @param name the name of the profile to get
+     * @return the profile's contents
+     * @throws IOException if the profile could not be loaded
+     */
+    private SettingsTable awaitProfile(String name) throws IOException
+    {
+        Future<SettingsTable> pending = profileSnapshots.get(name);
+        if(pending == null)
+        {
+            FutureTask<SettingsTable> task = newProfileLoad(name);
+            pending = profileSnapshots.putIfAbsent(name, task);
+            if(pending == null){
+                pending = task;
+                task.run();
+            }
+        }
+
+        try{
+            return pending.get();
+        }catch(ExecutionException e){
+            // Forget the failed load, so that the next attempt tries the disk again.
+            profileSnapshots.remove(name, pending);
+            if(e.getCause() instanceof IOException) throw (IOException)e.getCause();
+            throw new IOException("Could not load profile " + name, e.getCause());
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while loading profile " + name);
+        }
+    }
+
+    /**
+     * Creates a task that loads the named profile from its file. The file location is fixed when the task is created.
+     * @param name the name of the profile to load
+     * @return a task that has not been run yet
+     */
+    private FutureTask<SettingsTable> newProfileLoad(String name)
+    {
+        final File file = getProfileFile(name);
+        return new FutureTask<>(() -> readProfile(file));
+    }
+
+    /**
+     * Gets the file that the named profile is stored in. For a config target of {@code settings.cfg},
+     * the profile {@code night} is stored in {@code settings.night.cfg}.
+     * @param name the name of the profile
+     * @return the profile's file
+     */
+    private File getProfileFile(String name)
+    {
+        if(name.isEmpty()) throw new IllegalArgumentException("Profile name cannot be zero-length");
+        if(name.indexOf('/') >= 0 || name.indexOf(File.separatorChar) >= 0) throw new IllegalArgumentException("Profile name cannot contain path separators");
+
+        File target = this.target;
+        if(target == null || target.isDirectory()) throw new IllegalArgumentException("Config target is invalid");
+
+        String base = target.getName();
+        if(base.endsWith(".cfg")) base = base.substring(0, base.length() - 4);
+        return new File(target.getAbsoluteFile().getParentFile(), base + "." + name + ".cfg");
+    }
+
+    /**
+     * Reads a profile file, falling back to its backup generation if the live file is damaged.
+     * Indexed files are memory-mapped, and their values decoded on first use.
+     * @param file the profile file to read
+     * @return the profile's contents, or an empty table if the profile has no file yet
+     * @throws IOException if a file exists, but neither it nor its backup could be read
+     */
+    private static SettingsTable readProfile(File file) throws IOException
+    {
+        HashMap<String, Object> loaded = readIndexFile(file, true, null, new ArrayList<String>());
+        if(loaded == null) return new SettingsTable();
+
+        SettingsTable retV = new SettingsTable();
+        for(Map.Entry<String, Object> e : loaded.entrySet()) {
+            retV = retV.withBoxed(SettingKey.slotFor(e.getKey()), e.getValue(), 0);
+        }
+
+        return retV;
+    }
+
+    /**
+     * Reads a file in the binary config format, falling back to its backup generation if the live file is damaged.
+     * If both are damaged, every intact setting is salvaged from them instead.
+     * @param file the file to read
+     * @param lazy {@code true} to memory-map the file and decode its values on first use where the file allows it,
+     *             {@code false} to decode every value up front
+     * @param blobs the {@link BlobStore} holding the file's blobs, or {@code null} if it has none
+     * @param damaged a list to add the keys of damaged settings to, if the file has to be salvaged
+     * @return the settings index contained in the file, or {@code null} if neither the file nor its backup exist
+     * @throws IOException if a file exists, but neither it nor its backup could be read or salvaged
+     */
+    private static HashMap<String, Object> readIndexFile(File file, boolean lazy, BlobStore blobs, List<String> damaged) throws IOException
+    {
+        IOException failure = null;
+        for(File f : new AtomicConfigFile(file).getReadCandidates())
+        {
+            if(!f.exists()) continue;
+
+            if(lazy)
+            {
+                try{
+                    HashMap<String, Object> retV = ConfigCodec.mapConfig(f, blobs);
+                    if(retV != null) return retV;
+                }catch(IOException e){
+                    if(failure == null) failure = e;
+                    continue;
+                }
+            }
+
+            BufferedInputStream is = new BufferedInputStream(new FileInputStream(f));
+            try{
+                return ConfigCodec.readConfig(is, blobs);
+            }catch(IOException e){
+                if(failure == null) failure = e;
+            }finally{
+                is.close();
+            }
+        }
+
+        if(failure == null) return null;
+
+        HashMap<String, Object> retV = salvageIndexFile(file, blobs, damaged);
+        if(retV == null) throw failure;
+        return retV;
+    }
+
+    /**
+     * Salvages every intact setting from a damaged file in the binary config format. The live file is tried
+     * first, then its backup generation.
+     * @param file the file to salvage
+     * @param blobs the {@link BlobStore} holding the file's blobs, or {@code null} if it has none
+     * @param damaged a list to add the keys of damaged settings to
+     * @return the intact settings, or {@code null} if neither the file nor its backup can be salvaged
+     */
+    private static HashMap<String, Object> salvageIndexFile(File file, BlobStore blobs, List<String> damaged)
+    {
+        for(File f : new AtomicConfigFile(file).getReadCandidates())
+        {
+            if(!f.exists()) continue;
+
+            try{
+                HashMap<String, Object> retV = ConfigCodec.salvageConfig(f, blobs, damaged);
+                if(retV != null) return retV;
+            }catch(IOException ignored){}
+        }
+
+        return null;
+    }
+
+    /**
+     * Wraps an already loaded profile in a completed {@link Future}, so that it can be kept alongside pending loads.
+     * @param table the profile's contents
+     * @return a completed {@link Future} holding the table
+     */
+    private static Future<SettingsTable> completed(final SettingsTable table)
+    {
+        FutureTask<SettingsTable> retV = new FutureTask<>(() -> table);
+        retV.run();
+        return retV;
+    }
+
+    //
+    // VOLATILE SETTINGS
+    //
+
+    // The volatile tier holds transient state (ex. animation bookkeeping) that must survive for as long as
+    // the program is running, but must never be written to file. It is kept in its own slot storage, so it
+    // never shows up in the index, the log, transactions, change tracking, or change listeners. Since nothing
+    // ever snapshots it, that storage is updated in place, and storing a value into a used slot does not allocate.
+
+    /**
+     * Gets a value from the volatile tier.
+     * @param key the key to search for in the volatile tier
+     * @return the value corresponding to the provided key, or {@code null} if the key does not exist in the volatile tier
+     */
+    public Object getVolatile(@NonNull String key) {
+        int slot = SettingKey.slotOf(key);
+        return slot < 0 ? null : volatileStorage.getBoxed(slot);
+    }
+
+    /**
+     * Gets a value from the volatile tier through a pre-resolved key handle.
+     * @param key the handle of the key to look up
+     * @param <T> the type of value stored under the key
+     * @return the value corresponding to the provided key, or {@code null} if the key does not exist in the volatile tier
+     * @throws ClassCastException if the stored value is not of the handle's type
+     */
+    public <T> T getVolatile(@NonNull SettingKey<T> key) {
+        return key.getType().cast(volatileStorage.getBoxed(key.slot()));
+    }
+
+    /**
+     * Gets an {@code int} value from the volatile tier without boxing it.
+     * @see SettingsManager#getInt(String, int)
+     */
+    public int getVolatileInt(@NonNull SettingKey<Integer> key, int defaultValue) {
+        return volatileStorage.getInt(key.slot(), defaultValue);
+    }
+
+    /**
+     * Gets a {@code float} value from the volatile tier without boxing it.
+     * @see SettingsManager#getFloat(String, float)
+     */
+    public float getVolatileFloat(@NonNull SettingKey<Float> key, float defaultValue) {
+        return volatileStorage.getFloat(key.slot(), defaultValue);
+    }
+
+    /**
+     * Gets a {@code boolean} value from the volatile tier without boxing it.
+     * @see SettingsManager#getBoolean(String, boolean)
+     */
+    public boolean getVolatileBoolean(@NonNull SettingKey<Boolean> key, boolean defaultValue) {
+        return volatileStorage.getBoolean(key.slot(), defaultValue);
+    }
+
+    /**
+     * Gets a {@code long} value from the volatile tier without boxing it.
+     * @see SettingsManager#getLong(String, long)
+     */
+    public long getVolatileLong(@NonNull SettingKey<Long> key, long defaultValue) {
+        return volatileStorage.getLong(key.slot(), defaultValue);
+    }
+
+    /**
+     * Sets a specified key in the volatile tier to the specified value. Volatile values are never written
+     * to file, so unlike {@link SettingsManager#storeSetting(String, Object)}, the value does not have to
+     * implement {@link Serializable}.
+     * @param key the key to search for in the volatile tier, or the new key that will be created, if that key does not exist
+     * @param value the value to set the existing or new key to
+     * @return {@code true} if the specified key existed already, {@code false} if otherwise
+     */
+    public boolean storeVolatile(@NonNull String key, Object value)
+    {
+        if(key.isEmpty()) throw new IllegalArgumentException("Key cannot be zero-length");
+        return storeVolatileSlot(SettingKey.slotFor(key), SettingsTable.tagOf(value), SettingsTable.bitsOf(value), SettingsTable.refOf(value));
+    }
+
+    /**
+     * Sets a value in the volatile tier through a pre-resolved key handle.
+     * @see SettingsManager#storeVolatile(String, Object)
+     */
+    public <T> boolean storeVolatile(@NonNull SettingKey<T> key, T value) {
+        return storeVolatileSlot(key.slot(), SettingsTable.tagOf(value), SettingsTable.bitsOf(value), SettingsTable.refOf(value));
+    }
+
+    /**
+     * Sets an {@code int} value in the volatile tier without boxing it.
+     * @see SettingsManager#storeVolatile(String, Object)
+     */
+    public boolean storeVolatileInt(@NonNull SettingKey<Integer> key, int value) {
+        return storeVolatileSlot(key.slot(), SettingsTable.TAG_INT, value, null);
+    }
+
+    /**
+     * Sets a {@code float} value in the volatile tier without boxing it.
+     * @see SettingsManager#storeVolatile(String, Object)
+     */
+    public boolean storeVolatileFloat(@NonNull SettingKey<Float> key, float value) {
+        return storeVolatileSlot(key.slot(), SettingsTable.TAG_FLOAT, Float.floatToRawIntBits(value), null);
+    }
+
+    /**
+     * Sets a {@code boolean} value in the volatile tier without boxing it.
+     * @see SettingsManager#storeVolatile(String, Object)
+     */
+    public boolean storeVolatileBoolean(@NonNull SettingKey<Boolean> key, boolean value) {
+        return storeVolatileSlot(key.slot(), SettingsTable.TAG_BOOLEAN, value ? 1 : 0, null);
+    }
+
+    /**
+     * Sets a {@code long} value in the volatile tier without boxing it.
+     * @see SettingsManager#storeVolatile(String, Object)
+     */
+    public boolean storeVolatileLong(@NonNull SettingKey<Long> key, long value) {
+        return storeVolatileSlot(key.slot(), SettingsTable.TAG_LONG, value, null);
+    }
+
+    /**
+     * Completely removes a value from the volatile tier.
+     * @param key the key to search for in the volatile tier
+     */
+    public void removeVolatile(@NonNull String key)
+    {
+        int slot = SettingKey.slotOf(key);
+        if(slot < 0) return;
+
+        volatileStorage.remove(slot);
+    }
+
+    /**
+     * Clears the volatile tier completely. Does not affect the main index.
+     */
+    public void clearVolatile() {
+        volatileStorage.clear();
+    }
+
+    /**
+     * Stores a value in its {@link SettingsTable} form in the specified slot of the volatile tier.
+     * @return {@code true} if the slot held a value already, {@code false} if otherwise
+     */
+    private boolean storeVolatileSlot(int slot, byte tag, long bits, Object ref) {
+        return volatileStorage.store(slot, tag, bits, ref);
+    }
+
+    /**
+     * Sets the number of files that the config is split across when it is written. With more than one shard,
+     * settings are hash-partitioned by key across that many shard files, plus a small manifest, all stored
+     * next to the config target. Shards are read in parallel on load, and only shards containing changed
+     * settings are rewritten on save. Changing the shard count takes effect on the next write, which
+     * rewrites the whole config in the new layout and removes the old one. Defaults to {@code 1}.
+     * Loading always detects the layout on disk by itself, whatever the shard count is set to.
+     * @param shards the number of shards, from {@code 1} (a single file, without a manifest) to {@value ShardedConfig#MAX_SHARDS}
+     */
+    public void setShardCount(int shards)
+    {
+        if(shards < 1 || shards > ShardedConfig.MAX_SHARDS) throw new IllegalArgumentException("Shard count must be between 1 and " + ShardedConfig.MAX_SHARDS);
+        this.shardCount = shards;
+    }
+
+    /**
+     * Gets the number of files that the config is split across when it is written.
+     * @return the current shard count
+     */
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    //
+    // TRANSACTIONS
+    //
+
+    /**
+     * Starts a new transaction. Every change made to the main index from now on can be undone as a whole
+     * with {@link SettingsManager#rollback()}, or kept with {@link SettingsManager#commit()}.
+     * Transactions can be nested: committing an inner transaction hands its changes to the enclosing one,
+     * which can still roll them back. Only the old values of the settings that are actually changed are
+     * recorded, so both the memory used by a transaction and the time it takes to roll it back are
+     * proportional to the number of changed settings, not the size of the index.
+     * Transactions belong to this object, not to a thread, so changes made by any thread while a
+     * transaction is open become part of it.
+     */
+    public void beginTransaction()
+    {
+        synchronized (writeLock) {
+            transactions.add(new TransactionFrame(version));
+        }
+    }
+
+    /**
+     * Ends the innermost open transaction, keeping all changes made during it.
+     * @throws IllegalStateException if no transaction is open
+     */
+    public void commit()
+    {
+        synchronized (writeLock)
+        {
+            if(transactions.isEmpty()) throw new IllegalStateException("No transaction is in progress");
+            endTransaction(false);
+        }
+    }
+
+    /**
+     * Ends the innermost open transaction, restoring every setting changed during it to the value it had
+     * when the transaction began.
+     * @throws IllegalStateException if no transaction is open
+     */
+    public void rollback()
+    {
+        synchronized (writeLock)
+        {
+            if(transactions.isEmpty()) throw new IllegalStateException("No transaction is in progress");
+            endTransaction(true);
+        }
+    }
+
+    /**
+     * Gets the number of transactions that are currently open.
+     * @return the current transaction nesting depth, or {@code 0} if no transaction is open
+     */
+    public int getTransactionDepth()
+    {
+        synchronized (writeLock) {
+            return transactions.size();
+        }
+    }
+
+    /**
+     * Ends the innermost open transaction, and hands its undo records to the enclosing transaction, if any.
+     * Must be called with the write lock held.
+     * @param undo {@code true} to restore the values recorded by the transaction, {@code false} to keep the current values
+     */
+    private void endTransaction(boolean undo)
+    {
+        TransactionFrame frame = transactions.remove(transactions.size() - 1);
+        if(transactions.size() <= cacheDepth) cacheDepth = -1;
+
+        if(undo)
+        {
+            long stamp = ++version;
+            SettingsTable current = storage;
+            SettingsTable next = current;
+            for(int i = 0; i < frame.size(); i++)
+            {
+                int slot = frame.slot(i);
+                byte tag = frame.tag(i);
+                long bits = frame.bits(i);
+                Object ref = frame.ref(i);
+
+                // Skip anything that was changed and then set back to its old value.
+                if(SettingsTable.valueEquals(tag, bits, ref, current.tag(slot), current.bits(slot), current.ref(slot))) continue;
+
+                if(tag == SettingsTable.TAG_ABSENT){
+                    next = next.without(slot, stamp);
+                    recordMutation(SettingsWriteAheadLog.OP_REMOVE, SettingKey.nameOf(slot), tag, 0, null);
+                }else{
+                    next = next.with(slot, tag, bits, ref, stamp);
+                    recordMutation(SettingsWriteAheadLog.OP_PUT, SettingKey.nameOf(slot), tag, bits, ref);
+                }
+            }
+
+            storage = next;
+            resolveChanged(next, stamp);
+        }
+
+        // Whether the changes were kept or undone, the enclosing transaction needs to know that these
+        // settings have been changed since it began.
+        if(!transactions.isEmpty()) frame.mergeInto(transactions.get(transactions.size() - 1));
+    }
+
+    /**
+     * Records the current value of a setting in the innermost open transaction before it is changed,
+     * unless that transaction has already recorded it. Must be called with the write lock held.
+     * @param current the index as it is before the change
+     * @param slot the slot that is about to change
+     */
+    private void recordUndo(SettingsTable current, int slot)
+    {
+        if(transactions.isEmpty()) return;
+
+        // Anything stamped after the transaction began has already been recorded by it.
+        TransactionFrame frame = transactions.get(transactions.size() - 1);
+        long stamp = current.stamp(slot);
+        if(stamp > frame.baseVersion) return;
+
+        frame.add(slot, current.tag(slot), current.bits(slot), current.ref(slot), stamp);
+    }
+
+    /**
+     * Tells this object to copy the contents of its internal index to a separate internal cache.
+     * This is useful if, for example, you wish to allow objects to continue writing changes as normal
+     * to the main index, but keep a separate concurrent global copy in case a user cancels changes.
+     * This object will retain the cached copy until the {@link SettingsManager#clearCache()} or {@link SettingsManager#commitCache()} method is called.
+     * Calling this method when a cached copy already exists will invalidate the cached copy and create
+     * a new one from the master index.
+     * The cache is implemented as a {@link SettingsManager#beginTransaction() transaction}, so no copy is
+     * actually made, and transactions started after this method is called are nested inside of the cache.
+     */
+    public void fillCache()
+    {
+        synchronized (writeLock)
+        {
+            if(cacheDepth >= 0) endTransactionsTo(cacheDepth, false);
+
+            transactions.add(new TransactionFrame(version));
+            cacheDepth = transactions.size() - 1;
+        }
+    }
+
+    /**
+     * Checks if this object currently holds a cached index copy. Unlike {@link SettingsManager#getCache()},
+     * this does not copy the cache.
+     * @return {@code true} if a cached copy is present, {@code false} if otherwise
+     */
+    public boolean hasCache() {
+        return cacheDepth >= 0;
+    }
+
+    /**
      * Clears this object's stored index cache, if present.
+     * This commits the cache transaction, along with any transactions still open inside of it.
      */
-    public void clearCache() {
-        cache = null;
+    public void clearCache()
+    {
+        synchronized (writeLock) {
+            if(cacheDepth >= 0) endTransactionsTo(cacheDepth, false);
+        }
     }
 
     /**
      * Commits the currently cached index to the master index. This will erase all currently stored
      * settings in the index and replace them with the cached settings. Calling this method with no
      * cached copy will have no effect on the master index. Clears the cache after completion.
+     * This rolls back the cache transaction, along with any transactions still open inside of it, so
+     * it takes time proportional to the number of changes rather than the size of the index.
      * If for some reason you wish to retain a copy of the cached settings, call {@link SettingsManager#getCache()} before
      * calling this method.
      */
     public void commitCache()
     {
-        if(cache == null) return;
+        synchronized (writeLock) {
+            if(cacheDepth >= 0) endTransactionsTo(cacheDepth, true);
+        }
+    }
+
+    /**
+     * Ends open transactions from the innermost outwards, up to and including the one at the specified depth.
+     * Must be called with the write lock held.
+     * @param depth the index of the outermost transaction to end
+     * @param undo {@code true} to roll the transactions back, {@code false} to commit them
+     */
+    private void endTransactionsTo(int depth, boolean undo)
+    {
+        while(transactions.size() > depth) {
+            endTransaction(undo);
+        }
+    }
+
+    /**
+     * Checks if the main index differs from the cached copy. Only the settings changed since the cache
+     * was filled are compared, and values are compared by equality, so an entry that was changed and
+     * then set back to its original value does not count as a difference.
+     * @return {@code true} if any entry differs from the cached copy, {@code false} if the two are
+     * equal or there is no cached copy
+     */
+    public boolean isCacheModified()
+    {
+        synchronized (writeLock)
+        {
+            if(cacheDepth < 0) return false;
+
+            // Each setting's cached value is the one recorded by the outermost transaction that changed it.
+            SettingsTable current = storage;
+            HashSet<Integer> seen = new HashSet<>();
+            for(int f = cacheDepth; f < transactions.size(); f++)
+            {
+                TransactionFrame frame = transactions.get(f);
+                for(int i = 0; i < frame.size(); i++)
+                {
+                    int slot = frame.slot(i);
+                    if(!seen.add(slot)) continue;
+                    if(!SettingsTable.valueEquals(frame.tag(i), frame.bits(i), frame.ref(i), current.tag(slot), current.bits(slot), current.ref(slot))) return true;
+                }
+            }
 
-        storage = new HashMap<>();
-        storage.putAll(cache);
-        cache = null;
+            return false;
+        }
     }
 
+    //
+    // CHANGE LISTENERS
+    //
+
     /**
-     * Gets the currently cached index copy. Returned object is a copy of the cached index. Returns {@code null} if none is present.
+     * Registers a listener to be notified on the main thread whenever the specified setting changes.
+     * @param key the key of the setting to listen for
+     * @param listener the listener to notify
+     * @see SettingsManager#addChangeListener(String, Executor, SettingsChangeListener)
+     */
+    public void addChangeListener(@NonNull String key, @NonNull SettingsChangeListener listener) {
+        addChangeListener(key, null, listener);
+    }
+
+    /**
+     * Registers a listener to be notified whenever the specified setting changes.
+     * Changes are coalesced: all changes made within the same main thread loop iteration (and thereby
+     * the same UI frame), or within the same {@link SettingsManager#beginBatch() batch}, result in a
+     * single call to the listener. A listener registered multiple times is notified once per registration.
+     * Listeners follow the resolved value of each setting, so a change to any {@link SettingsScope scope}
+     * is delivered, unless a higher scope hides it. While every registered listener has an executor, changes
+     * are gathered on the shared settings thread instead of the main thread, and are coalesced until that
+     * thread gets to them.
+     * @param key the key of the setting to listen for
+     * @param executor the {@link Executor} to notify the listener on, or {@code null} to notify it on the main thread
+     * @param listener the listener to notify
      */
-    public HashMap<String, Object> getCache() {
-        return cache == null ? null : new HashMap<>(cache);
+    public void addChangeListener(@NonNull String key, Executor executor, @NonNull SettingsChangeListener listener) {
+        register(new ListenerRegistration(key, false, executor, listener));
     }
 
     /**
-     * Sets if a setting is temporary (ex. a cached value that must be persistent while the program is running),
-     * and as such, should not be written to file when {@link SettingsManager#writeStoredConfigToFile()} is called.
-     * @param key the key to set the value for. If a key is provided that does not exist in the index,
-     *            that entry will NOT be created in the main index, but the is-temporary state flag will
-     *            still be set.
-     * @param temporary set to {@code true} if the related tag should be skipped when writing to file, {@code false} if otherwise
+     * Registers a listener to be notified on the main thread whenever any setting with a key that
+     * starts with the specified prefix changes.
+     * @param prefix the key prefix to listen for. An empty prefix matches every key.
+     * @param listener the listener to notify
+     * @see SettingsManager#addChangeListener(String, Executor, SettingsChangeListener)
      */
-    public void setTemporary(String key, boolean temporary)
+    public void addPrefixChangeListener(@NonNull String prefix, @NonNull SettingsChangeListener listener) {
+        addPrefixChangeListener(prefix, null, listener);
+    }
+
+    /**
+     * Registers a listener to be notified whenever any setting with a key that starts with the specified prefix changes.
+     * @param prefix the key prefix to listen for. An empty prefix matches every key.
+     * @param executor the {@link Executor} to notify the listener on, or {@code null} to notify it on the main thread
+     * @param listener the listener to notify
+     * @see SettingsManager#addChangeListener(String, Executor, SettingsChangeListener)
+     */
+    public void addPrefixChangeListener(@NonNull String prefix, Executor executor, @NonNull SettingsChangeListener listener) {
+        register(new ListenerRegistration(prefix, true, executor, listener));
+    }
+
+    /**
+     * Removes every registration of the specified listener. Notifications that have already been
+     * handed to an {@link Executor} may still be delivered.
+     * @param listener the listener to remove
+     */
+    public void removeChangeListener(SettingsChangeListener listener)
     {
-        if(key.isEmpty()) throw new IllegalArgumentException("Key cannot be zero-length");
-        tempFlags.put(key, temporary);
+        for(ListenerRegistration r : listeners) {
+            if(r.listener == listener) listeners.remove(r);
+        }
+    }
+
+    /**
+     * Starts a batch of changes. Listeners are not notified of any change made until the matching call to
+     * {@link SettingsManager#endBatch()}, and are then notified once for the whole batch. Batches may be nested,
+     * in which case notifications are held until the outermost batch ends.
+     */
+    public void beginBatch()
+    {
+        synchronized (writeLock) {
+            batchDepth ++;
+        }
+    }
+
+    /**
+     * Ends a batch of changes started with {@link SettingsManager#beginBatch()}, and schedules notification
+     * of any changes made during it once the outermost batch has ended.
+     */
+    public void endBatch()
+    {
+        synchronized (writeLock)
+        {
+            if(batchDepth == 0) throw new IllegalStateException("No batch is in progress");
+
+            batchDepth --;
+            if(version > dispatchedVersion) scheduleDispatch();
+        }
+    }
+
+    /**
+     * Adds a listener registration. Listeners are only told about changes made after they were registered.
+     */
+    private void register(ListenerRegistration registration)
+    {
+        synchronized (writeLock)
+        {
+            if(listeners.isEmpty()) dispatchedVersion = version;
+            listeners.add(registration);
+        }
+    }
+
+    /**
+     * Schedules delivery of all undelivered changes, unless delivery is already scheduled, a batch is in progress,
+     * or there is no one to deliver to. Must be called with the write lock held.
+     */
+    private void scheduleDispatch()
+    {
+        if(dispatchPending || batchDepth > 0 || listeners.isEmpty()) return;
+        dispatchPending = true;
+
+        // If no listener runs on the main thread, there is no reason to look for the changed keys there.
+        // The settings thread runs one task at a time, so deliveries from it still arrive in order.
+        if(hasMainThreadListeners()) mainHandler().post(this::dispatchChanges);
+        else SettingsBackground.get().execute(this::dispatchChanges);
+    }
+
+    /**
+     * Checks if any registered listener is notified on the main thread, rather than through an executor.
+     */
+    private boolean hasMainThreadListeners()
+    {
+        for(ListenerRegistration r : listeners) {
+            if(r.executor == null) return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Gets the {@link Handler} that posts to the main thread, creating it if necessary.
+     */
+    private Handler mainHandler()
+    {
+        synchronized (writeLock)
+        {
+            if(mainHandler == null) mainHandler = new Handler(Looper.getMainLooper());
+            return mainHandler;
+        }
+    }
+
+    /**
+     * Delivers every change made since the last delivery to the listeners registered for it.
+     * The changed keys are found from the modification stamps, so this costs nothing for unchanged settings.
+     */
+    private void dispatchChanges()
+    {
+        SettingsTable current;
+        long since;
+        synchronized (writeLock)
+        {
+            dispatchPending = false;
+
+            // A batch was started after this delivery was scheduled. Its end will schedule a new one.
+            if(batchDepth > 0) return;
+
+            current = resolved;
+            since = dispatchedVersion;
+            dispatchedVersion = version;
+        }
+
+        int[] slots = current.changedSince(since);
+        if(slots.length == 0) return;
+
+        String[] keys = new String[slots.length];
+        for(int i = 0; i < slots.length; i++) {
+            keys[i] = SettingKey.nameOf(slots[i]);
+        }
+
+        for(ListenerRegistration r : listeners)
+        {
+            HashSet<String> matched = null;
+            for(String k : keys)
+            {
+                if(!r.matches(k)) continue;
+                if(matched == null) matched = new HashSet<>();
+                matched.add(k);
+            }
+
+            if(matched != null) r.deliver(this, Collections.unmodifiableSet(matched));
+        }
+    }
+
+    /**
+     * A single listener registration, scoped to either a single key or a key prefix.
+     */
+    private static final class ListenerRegistration
+    {
+        final String key;
+        final boolean prefix;
+        final Executor executor;
+        final SettingsChangeListener listener;
+
+        ListenerRegistration(String key, boolean prefix, Executor executor, SettingsChangeListener listener)
+        {
+            this.key = key;
+            this.prefix = prefix;
+            this.executor = executor;
+            this.listener = listener;
+        }
+
+        boolean matches(String changed) {
+            return prefix ? changed.startsWith(key) : changed.equals(key);
+        }
+
+        /**
+         * Notifies the listener, either on the main thread or through its executor. A listener without an
+         * executor that was registered after a delivery was scheduled off the main thread is posted to the main thread.
+         */
+        void deliver(SettingsManager manager, Set<String> changed)
+        {
+            if(executor != null){
+                executor.execute(() -> listener.onSettingsChanged(manager, changed));
+            }else if(Looper.myLooper() == Looper.getMainLooper()){
+                listener.onSettingsChanged(manager, changed);
+            }else{
+                manager.mainHandler().post(() -> listener.onSettingsChanged(manager, changed));
+            }
+        }
+    }
+
+    //
+    // CHANGE TRACKING
+    //
+
+    /**
+     * Gets the current value of this object's mutation counter. Every change to the main index increases
+     * the counter, and stamps the affected entries with its new value. Keep the returned value to later
+     * check what has changed with {@link SettingsManager#hasChangesSince(long)} or {@link SettingsManager#getChangedKeysSince(long)}.
+     * @return the current mutation counter
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Checks if any entry in the main index has been changed since the specified version. This takes
+     * constant time. Entries that were changed and later set back to their original value still count as changed.
+     * @param version a value previously returned by {@link SettingsManager#getVersion()}
+     * @return {@code true} if any entry has been stored, removed or cleared since then, {@code false} if otherwise
+     */
+    public boolean hasChangesSince(long version) {
+        return storage.maxStamp() > version;
+    }
+
+    /**
+     * Gets the keys of all entries in the main index that have been changed since the specified version,
+     * including entries that have been removed. Takes time proportional to the number of changed entries.
+     * @param version a value previously returned by {@link SettingsManager#getVersion()}
+     * @return a list of every key that has been stored, removed or cleared since then
+     */
+    public ArrayList<String> getChangedKeysSince(long version)
+    {
+        int[] slots = storage.changedSince(version);
+        ArrayList<String> retV = new ArrayList<>(slots.length);
+        for(int slot : slots) {
+            retV.add(SettingKey.nameOf(slot));
+        }
+
+        return retV;
+    }
+
+    /**
+     * Gets the modification stamp of an entry in the main index.
+     * @param key the key to check
+     * @return the value of the mutation counter when the entry was last changed, or {@code 0} if it has never been changed
+     */
+    public long getModificationStamp(@NonNull String key) {
+        return storage.stamp(SettingKey.slotOf(key));
+    }
+
+    /**
+     * Gets the currently cached index copy. Returned object is a copy of the cached index. Returns {@code null} if none is present.
+     */
+    public HashMap<String, Object> getCache()
+    {
+        synchronized (writeLock)
+        {
+            if(cacheDepth < 0) return null;
+
+            // Start from the current index, and roll back each change on paper, innermost transaction first,
+            // so that the outermost transaction's value wins for each setting.
+            HashMap<String, Object> retV = toMap(storage);
+            for(int f = transactions.size() - 1; f >= cacheDepth; f--)
+            {
+                TransactionFrame frame = transactions.get(f);
+                for(int i = 0; i < frame.size(); i++)
+                {
+                    String key = SettingKey.nameOf(frame.slot(i));
+                    if(frame.tag(i) == SettingsTable.TAG_ABSENT){
+                        retV.remove(key);
+                    }else{
+                        retV.put(key, SettingsTable.box(frame.tag(i), frame.bits(i), frame.ref(i)));
+                    }
+                }
+            }
+
+            return retV;
+        }
     }
 
     /**
@@ -377,9 +2666,13 @@ public class SettingsManager
         if(key.length() == 0) throw new IllegalArgumentException("Key cannot be zero-length");
         if(defaultValue != null && !(defaultValue instanceof Serializable)) throw new IllegalArgumentException("Object must be serializable");
 
-        if(defaults.containsKey(key)) defaults.remove(key);
-
-        defaults.put(key, defaultValue);
+        synchronized (writeLock)
+        {
+            int slot = SettingKey.slotFor(key);
+            defaults = defaults.withBoxed(slot, defaultValue, 0);
+            resolve(slot, ++version);
+            scheduleDispatch();
+        }
     }
 
     /**
@@ -388,7 +2681,7 @@ public class SettingsManager
      * @return the default value corresponding to the provided key, or {@code null} if the key does not exist in the defaults index
      */
     public Object getDefaultSetting(@NonNull String key) {
-        return defaults.containsKey(key) ? defaults.get(key) : null;
+        return defaults.getBoxed(SettingKey.slotOf(key));
     }
 
     /**
@@ -400,11 +2693,28 @@ public class SettingsManager
     {
         if(key.length() == 0) throw new IllegalArgumentException("Key cannot be zero-length");
 
-        if(!(defaults.containsKey(key))) return;
+        loadDefault(SettingKey.slotOf(key));
+    }
+
+    /**
+     * Applies a previously set default setting to the main index, if one for the specified key exists.
+     * If no corresponding main index entry for the specified key exists, it will be created.
+     * @param key the handle of the key to load the default for
+     */
+    public void loadDefault(@NonNull SettingKey<?> key) {
+        loadDefault(key.slot());
+    }
 
-        if(storage.containsKey(key)) storage.remove(key);
+    /**
+     * Copies the default value in the specified slot to the main index, if there is one.
+     */
+    private void loadDefault(int slot)
+    {
+        SettingsTable defaults = this.defaults;
+        byte tag = defaults.tag(slot);
+        if(tag == SettingsTable.TAG_ABSENT) return;
 
-        storage.put(key, defaults.get(key));
+        storeSlot(slot, tag, defaults.bits(slot), defaults.ref(slot));
     }
 
     /**
@@ -412,6 +2722,6 @@ public class SettingsManager
      * This does NOT clear the main index.
      */
     public void clearDefaults() {
-        defaults = new HashMap<>();
+        clearScope(SettingsScope.DEFAULTS);
     }
 }
\ No newline at end of file
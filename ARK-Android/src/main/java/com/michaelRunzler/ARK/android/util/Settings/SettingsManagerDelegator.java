@@ -2,17 +2,35 @@ package com.michaelRunzler.ARK.android.util.Settings;
 
 import android.support.annotation.NonNull;
 
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
 import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Manages cross-class instancing of the {@link SettingsManager} object for cases where multiple classes
  * must share an instance of said object.
  * Also manages a multi-object dynamic instance index, for multiple concurrent global instances.
+ * Dynamic instances are created the first time they are asked for, and are only softly held by the index,
+ * so an instance that nobody else holds on to can be reclaimed when memory runs low. It is simply created
+ * again (and reloaded from its backing file) the next time it is asked for. An instance with unsaved changes
+ * is held strongly until they have been written, so that they are never lost this way.
+ * All methods of this class are safe for concurrent use.
  */
 public class SettingsManagerDelegator
 {
-    private static SettingsManager instance = null;
-    private static ArrayList<SettingsManager> dynamicInstances = new ArrayList<>();
+    private static final Object instanceLock = new Object();
+    private static volatile SettingsManager instance = null;
+    private static final ConcurrentHashMap<String, InstanceReference> dynamicInstances = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, FutureTask<SettingsManager>> pendingInstances = new ConcurrentHashMap<>();
+    private static final ReferenceQueue<SettingsManager> releasedInstances = new ReferenceQueue<>();
+    private static volatile File dynamicInstanceDirectory = null;
 
     /**
      * Gets the available {@link SettingsManager} global instance.
@@ -20,10 +38,16 @@ public class SettingsManagerDelegator
      */
     public static SettingsManager getMainInstance()
     {
-        if(instance == null){
-            instance = new SettingsManager();
+        SettingsManager retV = instance;
+        if(retV != null) return retV;
+
+        synchronized (instanceLock)
+        {
+            if(instance == null){
+                instance = new SettingsManager();
+            }
+            return instance;
         }
-        return instance;
     }
 
     /**
@@ -32,11 +56,11 @@ public class SettingsManagerDelegator
      */
     public static SettingsManager refreshMainInstance()
     {
-        if(instance != null){
-            instance = null;
+        synchronized (instanceLock)
+        {
+            instance = new SettingsManager();
+            return instance;
         }
-        instance = new SettingsManager();
-        return instance;
     }
 
     /**
@@ -47,9 +71,36 @@ public class SettingsManagerDelegator
         instance = newInstance;
     }
 
+    /**
+     * Starts loading the specified profiles of the global instance in the background, so that switching
+     * to any of them later is an in-memory swap.
+     * @param names the names of the profiles to load
+     * @see SettingsManager#preloadProfile(String)
+     */
+    public static void preloadProfiles(@NonNull String... names)
+    {
+        SettingsManager manager = getMainInstance();
+        for(String name : names) {
+            manager.preloadProfile(name);
+        }
+    }
+
+    /**
+     * Sets the directory that dynamic instances keep their config files in. Each dynamic instance created
+     * after this call targets a file in this directory named after the instance, such as {@code 3.cfg} for
+     * the instance with ID {@code 3}. Instances that already exist are not affected.
+     * @param directory the directory to store dynamic instance configs in, or {@code null} to create
+     *                  dynamic instances with no file target
+     */
+    public static void setDynamicInstanceDirectory(File directory)
+    {
+        if(directory != null && directory.isFile()) throw new IllegalArgumentException("Instance directory is invalid");
+        dynamicInstanceDirectory = directory;
+    }
+
     /**
      * Generates a new dynamic {@link SettingsManager} instance with the specified ID, or gets an existing
-     * one if one exists.
+     * one if one exists. The instance with ID {@code n} is the same as the one named {@code "n"}.
      * @param ID the ID of the desired {@link SettingsManager} global instance to get or create
      * @return the {@link SettingsManager} global instance at the specified ID, or a new instance if none existed
      */
@@ -59,11 +110,58 @@ public class SettingsManagerDelegator
             throw new IllegalArgumentException("ID must be more than 0");
         }
 
-        if(dynamicInstances.get((int)ID) == null){
-            dynamicInstances.set((int)ID, new SettingsManager());
+        return getDynamicInstance(Short.toString(ID));
+    }
+
+    /**
+     * Generates a new dynamic {@link SettingsManager} instance with the specified name, or gets an existing
+     * one if one exists. New instances target their own file in the {@link SettingsManagerDelegator#setDynamicInstanceDirectory(File) instance directory},
+     * and are loaded from it if it exists. If it can't be read, the instance starts out empty.
+     * @param name the name of the desired {@link SettingsManager} global instance to get or create
+     * @return the {@link SettingsManager} global instance with the specified name, or a new instance if none existed
+     */
+    public static SettingsManager getDynamicInstance(@NonNull final String name)
+    {
+        checkName(name);
+        purgeReleased();
+
+        SettingsManager retV = lookup(name);
+        if(retV != null) return retV;
+
+        // Each new instance is loaded by the first thread to ask for it, and any others asking for it in the
+        // meantime wait for that load. Loads of other instances and lookups of existing ones are not held up.
+        FutureTask<SettingsManager> task = new FutureTask<>(() -> createDynamicInstance(name));
+        FutureTask<SettingsManager> pending = pendingInstances.putIfAbsent(name, task);
+        if(pending == null)
+        {
+            try{
+                task.run();
+            }finally{
+                pendingInstances.remove(name, task);
+            }
+        }else{
+            task = pending;
         }
 
-        return dynamicInstances.get((int)ID);
+        boolean interrupted = false;
+        try{
+            while(true)
+            {
+                try {
+                    return task.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if(cause instanceof RuntimeException) throw (RuntimeException)cause;
+                    if(cause instanceof Error) throw (Error)cause;
+                    throw new IllegalStateException("Unable to create dynamic instance " + name, cause);
+                }
+            }
+        }finally{
+            // Waiting for the load can't be abandoned part way, so pass the interrupt on to the caller instead.
+            if(interrupted) Thread.currentThread().interrupt();
+        }
     }
 
     /**
@@ -77,6 +175,165 @@ public class SettingsManagerDelegator
             throw new IllegalArgumentException("ID must be more than 0");
         }
 
-        dynamicInstances.set(ID, newInstance);
+        setDynamicInstance(Short.toString(ID), newInstance);
+    }
+
+    /**
+     * Sets the specified name in the dynamic instance index to the provided {@link SettingsManager}.
+     * @param name the name of the desired {@link SettingsManager} global instance to replace
+     * @param newInstance the {@link SettingsManager} object to replace the desired name with,
+     *                    or {@code null} to remove it from the index
+     */
+    public static void setDynamicInstance(@NonNull String name, SettingsManager newInstance)
+    {
+        checkName(name);
+        purgeReleased();
+
+        synchronized (dynamicInstances)
+        {
+            if(newInstance == null) dynamicInstances.remove(name);
+            else dynamicInstances.put(name, new InstanceReference(name, newInstance));
+        }
+    }
+
+    /**
+     * Removes the instance with the specified name from the dynamic instance index, so that the next call to
+     * {@link SettingsManagerDelegator#getDynamicInstance(String)} creates a new one. Unsaved changes are not
+     * written; call {@link SettingsManager#flushNow()} on the instance first if they should be kept.
+     * @param name the name of the instance to release
+     * @return the released instance, or {@code null} if there was none
+     */
+    public static SettingsManager releaseDynamicInstance(@NonNull String name)
+    {
+        InstanceReference ref = dynamicInstances.remove(name);
+        return ref == null ? null : ref.get();
+    }
+
+    /**
+     * Writes every instance that has unsaved changes to its config file, including the global instance.
+     * The writes run in parallel on a shared background pool, and this method does not block.
+     * Instances with no file target are skipped.
+     * @return a {@link Future} for each write that was started. Calling {@link Future#get()} on one will
+     * throw an {@link java.util.concurrent.ExecutionException} if that write failed.
+     */
+    public static ArrayList<Future<?>> flushAll()
+    {
+        purgeReleased();
+
+        ArrayList<SettingsManager> targets = new ArrayList<>();
+        SettingsManager main = instance;
+        if(main != null) targets.add(main);
+        for(InstanceReference ref : dynamicInstances.values())
+        {
+            SettingsManager m = ref.get();
+            if(m != null && m != main && !targets.contains(m)) targets.add(m);
+        }
+
+        ArrayList<Future<?>> retV = new ArrayList<>();
+        for(final SettingsManager m : targets)
+        {
+            if(!m.isDirty() || m.getTarget() == null) continue;
+
+            retV.add(SettingsBackground.pool().submit(() -> {
+                m.writeStoredConfigToFile();
+                return null;
+            }));
+        }
+
+        return retV;
+    }
+
+    /**
+     * Creates a new dynamic instance and loads it from its file, then adds it to the index. If an instance was
+     * added under the same name in the meantime, that one is kept and returned instead.
+     * Called without any lock held, so that loading the file holds up nothing but the callers waiting for it.
+     * @param name the name of the instance to create
+     * @return the instance indexed under the name
+     */
+    private static SettingsManager createDynamicInstance(String name)
+    {
+        // Another thread may have finished creating this instance between the lookup and the start of this load.
+        SettingsManager retV = lookup(name);
+        if(retV != null) return retV;
+
+        retV = new SettingsManager(getInstanceFile(name));
+        if(retV.getTarget() != null && retV.getTarget().exists())
+        {
+            try {
+                retV.loadConfigFromFile();
+            } catch (IOException e) {
+                // The file is unreadable, so the instance starts out empty, as if it was brand new.
+            }
+        }
+
+        synchronized (dynamicInstances)
+        {
+            SettingsManager existing = lookup(name);
+            if(existing != null) return existing;
+
+            dynamicInstances.put(name, new InstanceReference(name, retV));
+            return retV;
+        }
+    }
+
+    /**
+     * Gets a live instance from the index, without creating one.
+     * @return the instance, or {@code null} if there is none, or it has been reclaimed
+     */
+    private static SettingsManager lookup(String name)
+    {
+        InstanceReference ref = dynamicInstances.get(name);
+        return ref == null ? null : ref.get();
+    }
+
+    /**
+     * Removes the index entries of instances that have been reclaimed.
+     */
+    private static void purgeReleased()
+    {
+        InstanceReference ref;
+        while((ref = (InstanceReference)releasedInstances.poll()) != null) {
+            dynamicInstances.remove(ref.name, ref);
+        }
+    }
+
+    /**
+     * Gets the config file that a new dynamic instance with the specified name should target.
+     * @return the instance's file, or {@code null} if no instance directory is set
+     */
+    private static File getInstanceFile(String name)
+    {
+        File directory = dynamicInstanceDirectory;
+        return directory == null ? null : new File(directory, name + ".cfg");
+    }
+
+    /**
+     * Checks that an instance name can be used as a file name.
+     */
+    private static void checkName(String name)
+    {
+        if(name.isEmpty()) throw new IllegalArgumentException("Name cannot be zero-length");
+        if(name.indexOf('/') >= 0 || name.indexOf(File.separatorChar) >= 0) throw new IllegalArgumentException("Name cannot contain path separators");
+    }
+
+    /**
+     * A soft reference to a dynamic instance, which remembers the name it is indexed under so that
+     * its entry can be removed once the instance has been reclaimed. It also holds a pin that the instance
+     * points at itself while it has unsaved changes (see {@link SettingsManager#pinWhileDirty(AtomicReference)}),
+     * so that it is held strongly until they have been written. Once the entry leaves the index, nothing holds
+     * on to the pin but the instance itself, so it no longer keeps the instance alive.
+     */
+    private static final class InstanceReference extends SoftReference<SettingsManager>
+    {
+        private final String name;
+        private final AtomicReference<SettingsManager> pin;
+
+        InstanceReference(String name, SettingsManager referent)
+        {
+            super(referent, releasedInstances);
+            this.name = name;
+            this.pin = new AtomicReference<>();
+            referent.pinWhileDirty(pin);
+        }
     }
-}
\ No newline at end of file
+}
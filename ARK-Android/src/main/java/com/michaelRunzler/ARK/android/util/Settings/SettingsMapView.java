@@ -0,0 +1,90 @@
+package com.michaelRunzler.ARK.android.util.Settings;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A read-only {@link java.util.Map} view of the settings stored in a {@link SettingsManager}.
+ * Lookups always read the manager's current index. Iteration walks the index as it was when the
+ * iterator was created, so it is never affected by concurrent changes. Any attempt to modify the
+ * view throws an {@link UnsupportedOperationException}.
+ */
+final class SettingsMapView extends AbstractMap<String, Object>
+{
+    private final SettingsManager manager;
+    private final Set<Entry<String, Object>> entries;
+
+    /**
+     * Constructs a new view of the specified manager's settings.
+     * @param manager the manager to read through to
+     */
+    SettingsMapView(SettingsManager manager)
+    {
+        this.manager = manager;
+        this.entries = new EntrySet();
+    }
+
+    @Override
+    public Object get(Object key) {
+        return key instanceof String ? manager.getSetting((String)key) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof String && manager.snapshot().contains(SettingKey.slotOf((String)key));
+    }
+
+    @Override
+    public int size() {
+        return manager.snapshot().size();
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return entries;
+    }
+
+    /**
+     * The entry set backing this view. Iterators walk a single snapshot of the index.
+     */
+    private final class EntrySet extends AbstractSet<Entry<String, Object>>
+    {
+        @Override
+        public int size() {
+            return manager.snapshot().size();
+        }
+
+        @Override
+        public Iterator<Entry<String, Object>> iterator()
+        {
+            final SettingsTable table = manager.snapshot();
+            return new Iterator<Entry<String, Object>>()
+            {
+                private int next = table.nextSlot(0);
+
+                @Override
+                public boolean hasNext() {
+                    return next >= 0;
+                }
+
+                @Override
+                public Entry<String, Object> next()
+                {
+                    if(next < 0) throw new NoSuchElementException();
+
+                    int slot = next;
+                    next = table.nextSlot(slot + 1);
+                    return new SimpleImmutableEntry<>(SettingKey.nameOf(slot), table.getBoxed(slot));
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException("Settings view is read-only");
+                }
+            };
+        }
+    }
+}
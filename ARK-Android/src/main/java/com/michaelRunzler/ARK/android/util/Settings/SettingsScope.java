@@ -0,0 +1,17 @@
+package com.michaelRunzler.ARK.android.util.Settings;
+
+/**
+ * The layers that a {@link SettingsManager} resolves each setting through. When a setting is read,
+ * the value from the highest layer that holds it is used. From lowest to highest:
+ *
+ * <ol>
+ * <li> {@link SettingsScope#DEFAULTS}: Fallback values, set with {@link SettingsManager#setDefaultSetting(String, Object)}. Never written to file. </li>
+ * <li> {@link SettingsScope#GLOBAL}: The main settings index. This is the layer that is written to and loaded from the config file. </li>
+ * <li> {@link SettingsScope#PROFILE}: Values belonging to the currently selected profile, which override the global ones. </li>
+ * <li> {@link SettingsScope#SESSION}: Overrides that only last for as long as the program is running. Never written to file. </li>
+ * </ol>
+ */
+public enum SettingsScope
+{
+    DEFAULTS, GLOBAL, PROFILE, SESSION
+}
@@ -0,0 +1,555 @@
+package com.michaelRunzler.ARK.android.util.Settings;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Slot-indexed storage for setting values, used internally by {@link SettingsManager}.
+ * Each slot holds a type tag alongside either the raw bits of a primitive value or a reference to an
+ * object value, so {@code int}, {@code float}, {@code boolean} and {@code long} settings are stored
+ * and read back without boxing. Slots are assigned to keys by the {@link SettingKey} registry.
+ * Tables are persistent: they are never modified once created, and each change returns a new table.
+ * Slots are stored in fixed-size leaves at the bottom of a shallow trie, and a new table shares every
+ * leaf and node with the old one except those on the path to the changed slot. Taking a snapshot of a
+ * table is therefore free, and a chain of snapshots only costs memory for the entries that differ.
+ * Every change also records a caller-supplied modification stamp on its slot, and each node tracks
+ * the highest stamp below it, so the slots changed since a given stamp can be found without visiting
+ * any unchanged part of the table.
+ */
+final class SettingsTable
+{
+    static final byte TAG_ABSENT = 0;
+    static final byte TAG_NULL = 1;
+    static final byte TAG_INT = 2;
+    static final byte TAG_FLOAT = 3;
+    static final byte TAG_BOOLEAN = 4;
+    static final byte TAG_LONG = 5;
+    static final byte TAG_OBJECT = 6;
+
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+
+    /**
+     * An interior trie node. Each child is either another {@link Node} or, on the lowest level, a {@link Leaf}.
+     */
+    private static final class Node
+    {
+        final Object[] children = new Object[WIDTH];
+        long maxStamp;
+
+        Node copy()
+        {
+            Node retV = new Node();
+            System.arraycopy(children, 0, retV.children, 0, WIDTH);
+            retV.maxStamp = maxStamp;
+            return retV;
+        }
+    }
+
+    /**
+     * A block of {@link SettingsTable#WIDTH} consecutive slots.
+     */
+    private static final class Leaf
+    {
+        final byte[] tags = new byte[WIDTH];
+        final long[] bits = new long[WIDTH];
+        final Object[] refs = new Object[WIDTH];
+        final long[] stamps = new long[WIDTH];
+        long maxStamp;
+
+        Leaf copy()
+        {
+            Leaf retV = new Leaf();
+            System.arraycopy(tags, 0, retV.tags, 0, WIDTH);
+            System.arraycopy(bits, 0, retV.bits, 0, WIDTH);
+            System.arraycopy(refs, 0, retV.refs, 0, WIDTH);
+            System.arraycopy(stamps, 0, retV.stamps, 0, WIDTH);
+            retV.maxStamp = maxStamp;
+            return retV;
+        }
+    }
+
+    private final Object root;
+    private final int shift;
+    private final int size;
+
+    /**
+     * Constructs a new, empty table.
+     */
+    SettingsTable() {
+        this(null, 0, 0);
+    }
+
+    private SettingsTable(Object root, int shift, int size)
+    {
+        this.root = root;
+        this.shift = shift;
+        this.size = size;
+    }
+
+    /**
+     * Gets the number of occupied slots in this table.
+     * @return the number of stored entries
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Gets the type tag of the specified slot. Slots outside of the table, including negative ones, are treated as empty.
+     * @param slot the slot to check
+     * @return one of the {@code TAG_*} constants, or {@link SettingsTable#TAG_ABSENT} if the slot is empty
+     */
+    byte tag(int slot)
+    {
+        Leaf leaf = leafFor(slot);
+        return leaf == null ? TAG_ABSENT : leaf.tags[slot & MASK];
+    }
+
+    /**
+     * Gets the raw primitive bits stored in the specified slot. Only meaningful for primitive tags.
+     * @param slot the slot to check
+     * @return the raw bits of the slot's primitive value
+     */
+    long bits(int slot)
+    {
+        Leaf leaf = leafFor(slot);
+        return leaf == null ? 0 : leaf.bits[slot & MASK];
+    }
+
+    /**
+     * Gets the object reference stored in the specified slot, without resolving lazily loaded values.
+     * Only meaningful for {@link SettingsTable#TAG_OBJECT}.
+     * @param slot the slot to check
+     * @return the slot's object reference
+     */
+    Object ref(int slot)
+    {
+        Leaf leaf = leafFor(slot);
+        return leaf == null ? null : leaf.refs[slot & MASK];
+    }
+
+    /**
+     * Gets the modification stamp of the specified slot. Cleared slots keep the stamp of the change that cleared them.
+     * @param slot the slot to check
+     * @return the stamp of the last change to the slot, or {@code 0} if it has never been changed
+     */
+    long stamp(int slot)
+    {
+        Leaf leaf = leafFor(slot);
+        return leaf == null ? 0 : leaf.stamps[slot & MASK];
+    }
+
+    /**
+     * Gets the highest modification stamp in this table.
+     * @return the stamp of the most recent change to any slot, or {@code 0} if the table has never been changed
+     */
+    long maxStamp()
+    {
+        if(root == null) return 0;
+        return root instanceof Node ? ((Node)root).maxStamp : ((Leaf)root).maxStamp;
+    }
+
+    /**
+     * Checks if the specified slot holds an entry (including a {@code null} value).
+     * @param slot the slot to check
+     * @return {@code true} if the slot is occupied, {@code false} if otherwise
+     */
+    boolean contains(int slot) {
+        return tag(slot) != TAG_ABSENT;
+    }
+
+    /**
+     * Returns a table with a value stored in the specified slot. This table is not modified.
+     * @param slot the slot to store the value in
+     * @param tag the type tag of the value. Must not be {@link SettingsTable#TAG_ABSENT}.
+     * @param bits the raw bits of the value, if it is a primitive
+     * @param ref the value itself, if it is an object
+     * @param stamp the modification stamp to record for the slot. Must not be lower than any stamp already in the table.
+     * @return a new table containing the value
+     */
+    SettingsTable with(int slot, byte tag, long bits, Object ref, long stamp)
+    {
+        if(slot < 0) throw new IllegalArgumentException("Slot cannot be negative");
+
+        // Add levels on top of the root until the trie is tall enough to reach the slot.
+        Object root = this.root;
+        int shift = this.shift;
+        while((slot >>> (shift + BITS)) != 0)
+        {
+            if(root != null){
+                Node top = new Node();
+                top.children[0] = root;
+                root = top;
+            }
+            shift += BITS;
+        }
+
+        int size = contains(slot) ? this.size : this.size + 1;
+        return new SettingsTable(assoc(root, shift, slot, tag, bits, ref, stamp), shift, size);
+    }
+
+    /**
+     * Returns a table with a boxed value stored in the specified slot, unboxed into primitive storage if possible.
+     * This table is not modified.
+     * @param slot the slot to store the value in
+     * @param value the value to store
+     * @param stamp the modification stamp to record for the slot
+     * @return a new table containing the value
+     */
+    SettingsTable withBoxed(int slot, Object value, long stamp) {
+        return with(slot, tagOf(value), bitsOf(value), refOf(value), stamp);
+    }
+
+    /**
+     * Returns a table with the specified slot cleared. This table is not modified.
+     * @param slot the slot to clear
+     * @param stamp the modification stamp to record for the slot
+     * @return a new table without the slot, or this table if the slot was already empty
+     */
+    SettingsTable without(int slot, long stamp)
+    {
+        if(!contains(slot)) return this;
+        return new SettingsTable(assoc(root, shift, slot, TAG_ABSENT, 0, null, stamp), shift, size - 1);
+    }
+
+    /**
+     * Finds every slot that was changed or cleared after the specified stamp. Subtrees that contain no
+     * such slot are skipped entirely, so the cost depends on the number of changed slots, not on the size of the table.
+     * @param since the stamp to compare against
+     * @return the changed slots in ascending order
+     */
+    int[] changedSince(long since)
+    {
+        SlotList retV = new SlotList();
+        collectChanged(root, shift, 0, since, retV);
+        return retV.toArray();
+    }
+
+    /**
+     * Finds the next occupied slot at or after the specified slot.
+     * @param from the slot to start searching from
+     * @return the index of the next occupied slot, or {@code -1} if there are no more
+     */
+    int nextSlot(int from)
+    {
+        if(root == null) return -1;
+
+        long capacity = 1L << (shift + BITS);
+        for(long slot = Math.max(from, 0); slot < capacity; slot = (slot | MASK) + 1)
+        {
+            // Skip over whole leaves that were never created.
+            Leaf leaf = leafFor((int)slot);
+            if(leaf == null) continue;
+
+            for(int i = (int)slot & MASK; i < WIDTH; i++) {
+                if(leaf.tags[i] != TAG_ABSENT) return ((int)slot & ~MASK) | i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Gets the value in the specified slot as an object, boxing primitives and resolving lazily loaded values.
+     * @param slot the slot to read
+     * @return the slot's value, or {@code null} if the slot is empty or holds {@code null}
+     */
+    Object getBoxed(int slot)
+    {
+        Leaf leaf = leafFor(slot);
+        if(leaf == null) return null;
+
+        int i = slot & MASK;
+        return box(leaf.tags[i], leaf.bits[i], leaf.refs[i]);
+    }
+
+    /**
+     * Gets the value in the specified slot as an {@code int}.
+     * @param slot the slot to read
+     * @param defaultValue the value to return if the slot is empty or holds {@code null}
+     * @return the slot's value, or {@code defaultValue}
+     * @throws ClassCastException if the slot holds a value of another type
+     */
+    int getInt(int slot, int defaultValue)
+    {
+        Leaf leaf = leafFor(slot);
+        if(leaf == null) return defaultValue;
+
+        int i = slot & MASK;
+        return asInt(leaf.tags[i], leaf.bits[i], leaf.refs[i], defaultValue);
+    }
+
+    /**
+     * Gets the value in the specified slot as a {@code float}.
+     * @see SettingsTable#getInt(int, int)
+     */
+    float getFloat(int slot, float defaultValue)
+    {
+        Leaf leaf = leafFor(slot);
+        if(leaf == null) return defaultValue;
+
+        int i = slot & MASK;
+        return asFloat(leaf.tags[i], leaf.bits[i], leaf.refs[i], defaultValue);
+    }
+
+    /**
+     * Gets the value in the specified slot as a {@code boolean}.
+     * @see SettingsTable#getInt(int, int)
+     */
+    boolean getBoolean(int slot, boolean defaultValue)
+    {
+        Leaf leaf = leafFor(slot);
+        if(leaf == null) return defaultValue;
+
+        int i = slot & MASK;
+        return asBoolean(leaf.tags[i], leaf.bits[i], leaf.refs[i], defaultValue);
+    }
+
+    /**
+     * Gets the value in the specified slot as a {@code long}.
+     * @see SettingsTable#getInt(int, int)
+     */
+    long getLong(int slot, long defaultValue)
+    {
+        Leaf leaf = leafFor(slot);
+        if(leaf == null) return defaultValue;
+
+        int i = slot & MASK;
+        return asLong(leaf.tags[i], leaf.bits[i], leaf.refs[i], defaultValue);
+    }
+
+    /**
+     * Walks down the trie to the leaf holding the specified slot.
+     * @return the leaf, or {@code null} if the slot is out of range or its leaf was never created
+     */
+    private Leaf leafFor(int slot)
+    {
+        if(slot < 0 || (slot >>> (shift + BITS)) != 0) return null;
+
+        Object node = root;
+        for(int level = shift; level > 0 && node != null; level -= BITS) {
+            node = ((Node)node).children[(slot >>> level) & MASK];
+        }
+
+        return (Leaf)node;
+    }
+
+    /**
+     * Adds the slots below the specified node that have a stamp above {@code since} to the provided list.
+     * @param base the first slot covered by the node
+     */
+    private static void collectChanged(Object node, int level, int base, long since, SlotList out)
+    {
+        if(node == null) return;
+
+        if(level == 0)
+        {
+            Leaf leaf = (Leaf)node;
+            if(leaf.maxStamp <= since) return;
+
+            for(int i = 0; i < WIDTH; i++) {
+                if(leaf.stamps[i] > since) out.add(base | i);
+            }
+            return;
+        }
+
+        Node n = (Node)node;
+        if(n.maxStamp <= since) return;
+
+        for(int i = 0; i < WIDTH; i++) {
+            collectChanged(n.children[i], level - BITS, base | (i << level), since, out);
+        }
+    }
+
+    /**
+     * Copies the path from the specified node down to the leaf holding the specified slot, and sets the
+     * slot in the copied leaf. Nodes and leaves off the path are shared with the original.
+     * @param node the node to start from, or {@code null} if it does not exist yet
+     * @param level the shift of the node's level, or {@code 0} if it is a leaf
+     * @return the copy of the node
+     */
+    private static Object assoc(Object node, int level, int slot, byte tag, long bits, Object ref, long stamp)
+    {
+        if(level == 0)
+        {
+            Leaf leaf = node == null ? new Leaf() : ((Leaf)node).copy();
+            int i = slot & MASK;
+            leaf.tags[i] = tag;
+            leaf.bits[i] = bits;
+            leaf.refs[i] = ref;
+            leaf.stamps[i] = stamp;
+            leaf.maxStamp = Math.max(leaf.maxStamp, stamp);
+            return leaf;
+        }
+
+        Node copy = node == null ? new Node() : ((Node)node).copy();
+        int i = (slot >>> level) & MASK;
+        copy.children[i] = assoc(copy.children[i], level - BITS, slot, tag, bits, ref, stamp);
+        copy.maxStamp = Math.max(copy.maxStamp, stamp);
+        return copy;
+    }
+
+    /**
+     * A growable list of slot indices.
+     */
+    private static final class SlotList
+    {
+        int[] slots = new int[8];
+        int size;
+
+        void add(int slot)
+        {
+            if(size == slots.length) slots = Arrays.copyOf(slots, size * 2);
+            slots[size++] = slot;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(slots, size);
+        }
+    }
+
+    //
+    // VALUE CONVERSION
+    //
+
+    /**
+     * Gets the type tag that a value would be stored under.
+     * @param value the value to check
+     * @return the matching {@code TAG_*} constant
+     */
+    static byte tagOf(Object value)
+    {
+        if(value == null) return TAG_NULL;
+        if(value instanceof Integer) return TAG_INT;
+        if(value instanceof Float) return TAG_FLOAT;
+        if(value instanceof Boolean) return TAG_BOOLEAN;
+        if(value instanceof Long) return TAG_LONG;
+        return TAG_OBJECT;
+    }
+
+    /**
+     * Gets the raw bits that a value would be stored as.
+     * @param value the value to convert
+     * @return the raw bits of the value if it is a boxed primitive, or {@code 0} if otherwise
+     */
+    static long bitsOf(Object value)
+    {
+        if(value instanceof Integer) return (Integer)value;
+        if(value instanceof Float) return Float.floatToRawIntBits((Float)value);
+        if(value instanceof Boolean) return (Boolean)value ? 1 : 0;
+        if(value instanceof Long) return (Long)value;
+        return 0;
+    }
+
+    /**
+     * Gets the object reference that a value would be stored as.
+     * @param value the value to convert
+     * @return the value itself if it is stored as an object, or {@code null} if it is stored as a primitive
+     */
+    static Object refOf(Object value) {
+        return tagOf(value) == TAG_OBJECT ? value : null;
+    }
+
+    /**
+     * Checks if two stored values are equal. Primitive values are compared by their raw bits, and object
+     * values with {@link Object#equals(Object)} after resolving lazily loaded values.
+     * @return {@code true} if both values are equal, {@code false} if otherwise
+     */
+    static boolean valueEquals(byte tagA, long bitsA, Object refA, byte tagB, long bitsB, Object refB)
+    {
+        if(tagA != tagB) return false;
+        if(tagA != TAG_OBJECT) return bitsA == bitsB;
+        return refA == refB || Objects.equals(LazyValue.resolve(refA), LazyValue.resolve(refB));
+    }
+
+    /**
+     * Converts a stored value back into its object form.
+     * @param tag the type tag of the value
+     * @param bits the raw bits of the value, if it is a primitive
+     * @param ref the value itself, if it is an object
+     * @return the boxed value, or {@code null} if the value is absent or {@code null}
+     */
+    static Object box(byte tag, long bits, Object ref)
+    {
+        switch(tag)
+        {
+            case TAG_INT:
+                return (int)bits;
+            case TAG_FLOAT:
+                return Float.intBitsToFloat((int)bits);
+            case TAG_BOOLEAN:
+                return bits != 0;
+            case TAG_LONG:
+                return bits;
+            case TAG_OBJECT:
+                return LazyValue.resolve(ref);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Converts a stored value to an {@code int}, unboxing lazily loaded values if necessary.
+     * The {@code asFloat}, {@code asBoolean} and {@code asLong} methods behave in the same way.
+     * @return the converted value, or {@code defaultValue} if the value is absent or {@code null}
+     * @throws ClassCastException if the value is of another type
+     */
+    static int asInt(byte tag, long bits, Object ref, int defaultValue)
+    {
+        if(tag == TAG_INT) return (int)bits;
+
+        Object v = unboxable(tag, bits, ref, Integer.class);
+        return v == null ? defaultValue : (Integer)v;
+    }
+
+    /**
+     * @see SettingsTable#asInt(byte, long, Object, int)
+     */
+    static float asFloat(byte tag, long bits, Object ref, float defaultValue)
+    {
+        if(tag == TAG_FLOAT) return Float.intBitsToFloat((int)bits);
+
+        Object v = unboxable(tag, bits, ref, Float.class);
+        return v == null ? defaultValue : (Float)v;
+    }
+
+    /**
+     * @see SettingsTable#asInt(byte, long, Object, int)
+     */
+    static boolean asBoolean(byte tag, long bits, Object ref, boolean defaultValue)
+    {
+        if(tag == TAG_BOOLEAN) return bits != 0;
+
+        Object v = unboxable(tag, bits, ref, Boolean.class);
+        return v == null ? defaultValue : (Boolean)v;
+    }
+
+    /**
+     * @see SettingsTable#asInt(byte, long, Object, int)
+     */
+    static long asLong(byte tag, long bits, Object ref, long defaultValue)
+    {
+        if(tag == TAG_LONG) return bits;
+
+        Object v = unboxable(tag, bits, ref, Long.class);
+        return v == null ? defaultValue : (Long)v;
+    }
+
+    /**
+     * Handles the slow path of a typed read, where the stored tag does not match the requested type.
+     * This covers absent and {@code null} values, and lazily loaded values that have not been unboxed yet.
+     * @return the value to unbox, or {@code null} if the default value should be used instead
+     * @throws ClassCastException if a value is present, but is not of the requested type
+     */
+    private static Object unboxable(byte tag, long bits, Object ref, Class<?> type)
+    {
+        if(tag == TAG_ABSENT || tag == TAG_NULL) return null;
+
+        Object v = box(tag, bits, ref);
+        if(v == null || type.isInstance(v)) return v;
+
+        throw new ClassCastException("Setting of type " + v.getClass().getSimpleName() + " cannot be read as " + type.getSimpleName());
+    }
+}
@@ -0,0 +1,15 @@
+package com.michaelRunzler.ARK.android.util.Settings;
+
+/**
+ * Visits each setting stored in a {@link SettingsManager}, without copying the index.
+ * @see SettingsManager#forEach(SettingsVisitor)
+ */
+public interface SettingsVisitor
+{
+    /**
+     * Called once for each stored setting.
+     * @param entry the setting being visited. The same object is reused for every setting in a pass,
+     *              so it must not be kept or used after this method returns.
+     */
+    void visit(SettingsEntry entry);
+}
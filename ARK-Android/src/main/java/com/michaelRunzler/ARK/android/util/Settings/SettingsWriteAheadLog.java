@@ -0,0 +1,391 @@
+package com.michaelRunzler.ARK.android.util.Settings;
+
+import android.support.annotation.NonNull;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Manages the append-only mutation log kept next to a config file when write-ahead logging is enabled
+ * on a {@link SettingsManager}. Each mutation is appended as a small record, and the log is replayed
+ * over the base config snapshot when it is loaded. Writing a new snapshot rolls the log aside first,
+ * then discards the rolled log once the snapshot is safely on disk.
+ * Appending a record only encodes it into memory. Pending records are written to the file in batches on the
+ * shared settings I/O thread (see {@link SettingsBackground}), so the caller never waits on the disk. Records are
+ * written without syncing, so once written they survive process death, but not necessarily sudden power loss.
+ * Appends and rolls must be serialized by the caller. Everything else is safe to call from any thread.
+ */
+final class SettingsWriteAheadLog
+{
+    static final String LOG_SUFFIX = ".wal";
+    static final String ROLLED_SUFFIX = ".wal.old";
+
+    static final byte OP_PUT = 1;
+    static final byte OP_REMOVE = 2;
+    static final byte OP_CLEAR = 3;
+
+    private final File log;
+    private final File rolled;
+    private final Runnable onFailure;
+    private final ByteArrayOutputStream record;
+    private final DataOutputStream recordOut;
+
+    // Records that have been appended but not written yet, and the records cut off by a roll that has not
+    // been carried out yet. Guarded by this object.
+    private ByteArrayOutputStream pending;
+    private ByteArrayOutputStream writing;
+    private byte[] sealed;
+    private boolean rollRequested;
+    private boolean drainScheduled;
+    private long size;
+
+    // The active log's file handle. Guarded by the I/O lock, which is held for all file access.
+    private final Object io = new Object();
+    private FileOutputStream out;
+
+    /**
+     * Constructs a new instance of this object managing the log for the specified config file.
+     * @param target the config {@link File} that the log belongs to
+     * @param onFailure run on the settings I/O thread if pending records could not be written to the file,
+     *                  so that the changes they describe can be saved some other way
+     */
+    SettingsWriteAheadLog(@NonNull File target, @NonNull Runnable onFailure)
+    {
+        this.log = new File(target.getPath() + LOG_SUFFIX);
+        this.rolled = new File(target.getPath() + ROLLED_SUFFIX);
+        this.onFailure = onFailure;
+        this.record = new ByteArrayOutputStream();
+        this.recordOut = new DataOutputStream(record);
+        this.pending = new ByteArrayOutputStream();
+        this.writing = new ByteArrayOutputStream();
+        this.out = null;
+        this.size = log.length();
+    }
+
+    /**
+     * Appends a mutation record to the log. Records are encoded completely before being queued,
+     * so a value that cannot be encoded never leaves a partial record behind. The record is written
+     * to the file shortly afterwards on the settings I/O thread, along with any others appended in the meantime.
+     * @param op the operation code of the record
+     * @param key the key affected by the operation. Ignored for {@link SettingsWriteAheadLog#OP_CLEAR}.
+     * @param tag the {@link SettingsTable} type tag of the new value. Ignored for all operations except {@link SettingsWriteAheadLog#OP_PUT}.
+     * @param bits the raw bits of the new value, if it is a primitive
+     * @param ref the new value itself, if it is an object
+     * @throws IOException if the record could not be encoded
+     */
+    void append(byte op, String key, byte tag, long bits, Object ref) throws IOException
+    {
+        record.reset();
+        recordOut.writeByte(op);
+        if(op != OP_CLEAR) recordOut.writeUTF(key);
+        if(op == OP_PUT) ConfigCodec.writeValue(recordOut, tag, bits, ref);
+        recordOut.flush();
+
+        synchronized (this)
+        {
+            record.writeTo(pending);
+            size += record.size();
+            if(drainScheduled) return;
+            drainScheduled = true;
+        }
+
+        SettingsBackground.get().execute(this::drain);
+    }
+
+    /**
+     * Gets the current size of the active log, including records that have not been written yet.
+     * @return the size of the active log in bytes
+     */
+    synchronized long size() {
+        return size;
+    }
+
+    /**
+     * Checks if there are any log records, rolled or active, on disk or waiting to be written.
+     * @return {@code true} if there are any records, {@code false} if otherwise
+     */
+    boolean exists()
+    {
+        synchronized (this) {
+            if(pending.size() > 0 || sealed != null) return true;
+        }
+
+        return log.exists() || rolled.exists();
+    }
+
+    /**
+     * Replays all log records on disk over the provided settings index, rolled log first.
+     * A record that was only partially written (such as by the process being killed mid-write) ends
+     * the replay, and is cut off the active log so that new records are not appended after it.
+     * @param storage the settings index to apply the logged mutations to
+     * @throws IOException if a log file could not be read or truncated
+     */
+    void replay(@NonNull Map<String, Object> storage) throws IOException
+    {
+        synchronized (io)
+        {
+            // Records appended before the load are part of what is being loaded, so they have to reach the file first.
+            flush();
+            closeFile();
+
+            replayFile(rolled, storage);
+            long valid = replayFile(log, storage);
+
+            if(log.exists() && valid < log.length())
+            {
+                RandomAccessFile raf = new RandomAccessFile(log, "rw");
+                try {
+                    raf.setLength(valid);
+                } finally {
+                    raf.close();
+                }
+            }
+
+            synchronized (this) {
+                size = log.length();
+            }
+        }
+    }
+
+    /**
+     * Cuts the log so that a snapshot covering all records logged so far can be written. Records appended
+     * after this call go to a fresh active log. Only the cut is made here, in memory. The file work is done
+     * by {@link SettingsWriteAheadLog#completeRoll()}, or by the settings I/O thread if it gets there first.
+     */
+    void roll()
+    {
+        synchronized (this)
+        {
+            if(pending.size() > 0)
+            {
+                byte[] cut = pending.toByteArray();
+                if(sealed == null){
+                    sealed = cut;
+                }else{
+                    byte[] merged = Arrays.copyOf(sealed, sealed.length + cut.length);
+                    System.arraycopy(cut, 0, merged, sealed.length, cut.length);
+                    sealed = merged;
+                }
+                pending.reset();
+            }
+
+            rollRequested = true;
+            size = 0;
+        }
+    }
+
+    /**
+     * Carries out the last {@link SettingsWriteAheadLog#roll()}, if that has not happened yet. Records cut off by
+     * the roll are written to the active log, which is then moved aside. If a previously rolled log is still present
+     * (because its snapshot failed), the active log is appended to it instead.
+     * @return {@code true} if there is a rolled log that should be discarded once the snapshot succeeds
+     * @throws IOException if the records could not be written, or the active log could not be moved
+     */
+    boolean completeRoll() throws IOException
+    {
+        synchronized (io)
+        {
+            performRoll();
+            return rolled.exists();
+        }
+    }
+
+    /**
+     * Deletes the rolled log. Call only after a snapshot covering its records has been committed.
+     */
+    void discardRolled()
+    {
+        synchronized (io) {
+            rolled.delete();
+        }
+    }
+
+    /**
+     * Writes any pending records to the file, and closes the active log's file handle, if it is open.
+     * It will be reopened by the next write.
+     */
+    void close()
+    {
+        try{
+            synchronized (io) {
+                flush();
+            }
+        }catch(IOException e){
+            onFailure.run();
+        }finally{
+            synchronized (io) {
+                closeFile();
+            }
+        }
+    }
+
+    /**
+     * Writes pending records to the file on the settings I/O thread.
+     */
+    private void drain()
+    {
+        try {
+            synchronized (io) {
+                flush();
+            }
+        } catch (IOException e) {
+            onFailure.run();
+        }
+    }
+
+    /**
+     * Carries out any outstanding roll, then writes every pending record to the active log.
+     * Must be called with the I/O lock held.
+     */
+    private void flush() throws IOException
+    {
+        // Anything appended from here on needs another drain, even if this one fails.
+        synchronized (this) {
+            drainScheduled = false;
+        }
+        performRoll();
+
+        // Swap the buffers, so that appends can carry on into an empty one while this one is written out.
+        ByteArrayOutputStream batch;
+        synchronized (this)
+        {
+            batch = pending;
+            pending = writing;
+            writing = batch;
+        }
+
+        if(batch.size() == 0) return;
+        try{
+            if(out == null) out = new FileOutputStream(log, true);
+            batch.writeTo(out);
+        }finally{
+            batch.reset();
+        }
+    }
+
+    /**
+     * Carries out any outstanding roll. Must be called with the I/O lock held.
+     */
+    private void performRoll() throws IOException
+    {
+        while(true)
+        {
+            byte[] cut;
+            synchronized (this)
+            {
+                if(!rollRequested) return;
+                cut = sealed;
+                sealed = null;
+            }
+
+            if(cut != null)
+            {
+                if(out == null) out = new FileOutputStream(log, true);
+                out.write(cut);
+            }
+            closeFile();
+
+            if(log.exists())
+            {
+                if(rolled.exists())
+                {
+                    FileInputStream is = new FileInputStream(log);
+                    FileOutputStream os = new FileOutputStream(rolled, true);
+                    try{
+                        byte[] buffer = new byte[8192];
+                        int read;
+                        while((read = is.read(buffer)) > 0) os.write(buffer, 0, read);
+                    }finally{
+                        is.close();
+                        os.close();
+                    }
+
+                    if(!log.delete()) throw new IOException("Unable to delete merged write-ahead log");
+                }else if(!log.renameTo(rolled)){
+                    throw new IOException("Unable to roll write-ahead log");
+                }
+            }
+
+            // Another roll may have been made while this one was carried out. If so, carry that one out too.
+            synchronized (this)
+            {
+                if(sealed == null){
+                    rollRequested = false;
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes the active log's file handle, if it is open. Must be called with the I/O lock held.
+     */
+    private void closeFile()
+    {
+        if(out == null) return;
+
+        try {
+            out.close();
+        } catch (IOException ignored) {}
+        out = null;
+    }
+
+    /**
+     * Replays a single log file over the provided index.
+     * @return the number of bytes in the file that make up complete records
+     */
+    private static long replayFile(File f, Map<String, Object> storage) throws IOException
+    {
+        if(!f.exists()) return 0;
+
+        CountingInputStream counter = new CountingInputStream(new BufferedInputStream(new FileInputStream(f)));
+        DataInputStream is = new DataInputStream(counter);
+        long valid = 0;
+        try{
+            while(true)
+            {
+                int op = is.read();
+                if(op == -1) break;
+
+                // Decode the whole record before applying it, so that a torn record is never half-applied.
+                String key = op == OP_CLEAR ? null : is.readUTF();
+                Object value = op == OP_PUT ? ConfigCodec.readValue(is) : null;
+
+                switch(op)
+                {
+                    case OP_PUT:
+                        storage.put(key, value);
+                        break;
+                    case OP_REMOVE:
+                        storage.remove(key);
+                        break;
+                    case OP_CLEAR:
+                        storage.clear();
+                        break;
+                    default:
+                        throw new IOException("Unknown write-ahead log operation");
+                }
+
+                valid = counter.position();
+            }
+        }catch(EOFException e){
+            // The last record was cut off part way through. Everything before it is still good.
+        }catch(IOException e){
+            // Damaged record. Keep everything that was applied before it, but stop here.
+        }finally{
+            is.close();
+        }
+
+        return valid;
+    }
+}
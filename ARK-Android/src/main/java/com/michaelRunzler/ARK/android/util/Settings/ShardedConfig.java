@@ -0,0 +1,150 @@
+package com.michaelRunzler.ARK.android.util.Settings;
+
+import android.support.annotation.NonNull;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Describes the sharded on-disk layout of a config file. Instead of one file, the settings index is
+ * hash-partitioned by key across several shard files, each in the regular binary config format, so that
+ * the shards can be read in parallel and only the shards containing changed keys need to be rewritten.
+ * A small manifest next to the config target records how many shards there are. The manifest and each
+ * shard are replaced through {@link AtomicConfigFile}, so each of them keeps its own backup generation.
+ * Shard files are named after the shard count as well as the shard index, so that a layout with a new
+ * shard count can be written in full before the manifest is switched over to it.
+ */
+final class ShardedConfig
+{
+    static final String MANIFEST_SUFFIX = ".manifest";
+    static final int MAGIC = 0x41524B4D; // 'ARKM'
+    static final short VERSION = 1;
+    static final int MAX_SHARDS = 256;
+
+    private final File base;
+    private final AtomicConfigFile manifest;
+
+    /**
+     * Constructs a new instance of this object describing the sharded layout of the specified config target.
+     * @param base the config target that the shards belong to
+     */
+    ShardedConfig(@NonNull File base)
+    {
+        this.base = base;
+        this.manifest = new AtomicConfigFile(new File(base.getPath() + MANIFEST_SUFFIX));
+    }
+
+    /**
+     * Gets the shard that a key belongs to. The partitioning only depends on the key and the shard count,
+     * so it is stable across runs.
+     * @param key the key to partition
+     * @param count the total number of shards
+     * @return the index of the key's shard
+     */
+    static int shardOf(@NonNull String key, int count) {
+        return (key.hashCode() & 0x7FFFFFFF) % count;
+    }
+
+    /**
+     * Gets the file that holds a single shard.
+     * @param count the total number of shards in the layout
+     * @param index the index of the shard
+     * @return the shard's {@link File}
+     */
+    File getShardFile(int count, int index) {
+        return new File(base.getPath() + ".s" + count + "-" + index);
+    }
+
+    /**
+     * Checks if a manifest, or its backup generation, exists for this layout.
+     * @return {@code true} if a sharded layout has been written, {@code false} if otherwise
+     */
+    boolean exists()
+    {
+        for(File f : manifest.getReadCandidates()) {
+            if(f.exists()) return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Reads the shard count from the manifest, falling back to its backup generation if the live copy is damaged.
+     * @return the number of shards, or {@code 0} if no manifest exists
+     * @throws IOException if a manifest exists, but neither it nor its backup could be read
+     */
+    int readManifest() throws IOException
+    {
+        IOException failure = null;
+        for(File f : manifest.getReadCandidates())
+        {
+            if(!f.exists()) continue;
+
+            DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+            try{
+                if(is.readInt() != MAGIC) throw new IOException("Config manifest is damaged");
+                if(is.readShort() > VERSION) throw new IOException("Config manifest was written by a newer version");
+
+                int count = is.readInt();
+                if(count < 2 || count > MAX_SHARDS) throw new IOException("Config manifest is damaged");
+                return count;
+            }catch(IOException e){
+                if(failure == null) failure = e;
+            }finally{
+                is.close();
+            }
+        }
+
+        if(failure != null) throw failure;
+        return 0;
+    }
+
+    /**
+     * Points the manifest at a layout with the specified number of shards. All shards of that layout
+     * should have been written before this is called.
+     * @param count the number of shards
+     * @throws IOException if the manifest could not be written
+     */
+    void writeManifest(int count) throws IOException
+    {
+        FileOutputStream fs = manifest.startWrite();
+        try{
+            DataOutputStream os = new DataOutputStream(fs);
+            os.writeInt(MAGIC);
+            os.writeShort(VERSION);
+            os.writeInt(count);
+            manifest.finishWrite(fs);
+        }catch(IOException e){
+            manifest.failWrite(fs);
+            throw e;
+        }
+    }
+
+    /**
+     * Deletes the manifest and its backup generation. Does not delete any shards.
+     */
+    void deleteManifest()
+    {
+        for(File f : manifest.getReadCandidates()) {
+            f.delete();
+        }
+    }
+
+    /**
+     * Deletes every shard of a layout, along with their backup generations.
+     * @param count the number of shards in the layout to delete
+     */
+    void deleteShards(int count)
+    {
+        for(int i = 0; i < count; i++) {
+            for(File f : new AtomicConfigFile(getShardFile(count, i)).getReadCandidates()) {
+                f.delete();
+            }
+        }
+    }
+}
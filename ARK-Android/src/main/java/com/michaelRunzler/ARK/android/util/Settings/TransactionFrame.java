@@ -0,0 +1,115 @@
+package com.michaelRunzler.ARK.android.util.Settings;
+
+import java.util.Arrays;
+
+/**
+ * The undo log of a single {@link SettingsManager} transaction. Records the value that each slot held
+ * before the transaction first changed it, so that the transaction can be rolled back by restoring only
+ * the slots it touched. Each slot is recorded at most once per frame.
+ */
+final class TransactionFrame
+{
+    private static final int INITIAL_CAPACITY = 8;
+
+    final long baseVersion;
+
+    private int size;
+    private int[] slots;
+    private byte[] tags;
+    private long[] bits;
+    private Object[] refs;
+    private long[] stamps;
+
+    /**
+     * Constructs a new, empty frame.
+     * @param baseVersion the manager's mutation counter at the time the transaction began. Any slot with a
+     *                    higher modification stamp has already been recorded in this frame.
+     */
+    TransactionFrame(long baseVersion)
+    {
+        this.baseVersion = baseVersion;
+        this.size = 0;
+        this.slots = new int[INITIAL_CAPACITY];
+        this.tags = new byte[INITIAL_CAPACITY];
+        this.bits = new long[INITIAL_CAPACITY];
+        this.refs = new Object[INITIAL_CAPACITY];
+        this.stamps = new long[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Records the value that a slot held before this transaction first changed it.
+     * @param slot the changed slot
+     * @param tag the type tag of the old value
+     * @param bits the raw bits of the old value, if it is a primitive
+     * @param ref the old value itself, if it is an object
+     * @param stamp the modification stamp of the old value
+     */
+    void add(int slot, byte tag, long bits, Object ref, long stamp)
+    {
+        if(size == slots.length)
+        {
+            int capacity = size * 2;
+            this.slots = Arrays.copyOf(this.slots, capacity);
+            this.tags = Arrays.copyOf(this.tags, capacity);
+            this.bits = Arrays.copyOf(this.bits, capacity);
+            this.refs = Arrays.copyOf(this.refs, capacity);
+            this.stamps = Arrays.copyOf(this.stamps, capacity);
+        }
+
+        this.slots[size] = slot;
+        this.tags[size] = tag;
+        this.bits[size] = bits;
+        this.refs[size] = ref;
+        this.stamps[size] = stamp;
+        size ++;
+    }
+
+    /**
+     * Hands this frame's records to its enclosing frame when this frame ends, whether it was committed or
+     * rolled back. Records for slots that the enclosing frame had already changed before this frame began
+     * are dropped, since the enclosing frame holds an older value for them.
+     * @param parent the enclosing frame
+     */
+    void mergeInto(TransactionFrame parent)
+    {
+        for(int i = 0; i < size; i++) {
+            if(stamps[i] <= parent.baseVersion) parent.add(slots[i], tags[i], bits[i], refs[i], stamps[i]);
+        }
+    }
+
+    /**
+     * Gets the number of slots recorded in this frame.
+     * @return the number of records
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Gets the slot of the record at the specified index.
+     */
+    int slot(int index) {
+        return slots[index];
+    }
+
+    /**
+     * Gets the type tag of the old value of the record at the specified index.
+     */
+    byte tag(int index) {
+        return tags[index];
+    }
+
+    /**
+     * Gets the raw bits of the old value of the record at the specified index.
+     */
+    long bits(int index) {
+        return bits[index];
+    }
+
+    /**
+     * Gets the old object value of the record at the specified index.
+     */
+    Object ref(int index) {
+        return refs[index];
+    }
+}
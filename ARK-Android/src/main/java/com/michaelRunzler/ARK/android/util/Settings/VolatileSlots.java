@@ -0,0 +1,250 @@
+package com.michaelRunzler.ARK.android.util.Settings;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Mutable slot-indexed storage for the volatile tier of a {@link SettingsManager}.
+ * Values are stored in the same tag, bits, and reference form as in a {@link SettingsTable}, but in flat arrays
+ * that are updated in place, since the volatile tier is never snapshotted, logged, or tracked for changes.
+ * Storing a value in a slot that has been used before therefore does not allocate.
+ * All methods of this class are safe for concurrent use. Changes are serialized on this object's lock, but reads
+ * never take it: each slot has a version that is odd while the slot is being changed, and a read that overlaps
+ * a change simply reads the slot again.
+ * Container-type object, used internally by {@link SettingsManager}.
+ */
+final class VolatileSlots
+{
+    private static final int INITIAL_CAPACITY = 32;
+
+    private volatile Slots slots = new Slots(INITIAL_CAPACITY);
+
+    /**
+     * Stores a value in the specified slot.
+     * @param slot the slot to store the value in
+     * @param tag the {@link SettingsTable} type tag of the value
+     * @param bits the raw bits of the value, if it is a primitive
+     * @param ref the value itself, if it is an object
+     * @return {@code true} if the slot held a value already, {@code false} if otherwise
+     */
+    synchronized boolean store(int slot, byte tag, long bits, Object ref)
+    {
+        Slots s = slots;
+        if(slot >= s.capacity) s = grow(slot);
+
+        boolean retV = s.tags.get(slot) != SettingsTable.TAG_ABSENT;
+        s.write(slot, tag, bits, ref);
+        return retV;
+    }
+
+    /**
+     * Empties the specified slot.
+     * @param slot the slot to empty
+     */
+    synchronized void remove(int slot)
+    {
+        Slots s = slots;
+        if(slot < 0 || slot >= s.capacity) return;
+
+        s.write(slot, SettingsTable.TAG_ABSENT, 0, null);
+    }
+
+    /**
+     * Empties every slot, and releases the storage used by them.
+     */
+    synchronized void clear() {
+        slots = new Slots(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Gets the value in the specified slot as an object.
+     * @see SettingsTable#getBoxed(int)
+     */
+    Object getBoxed(int slot)
+    {
+        Slots s = slots;
+        if(slot < 0 || slot >= s.capacity) return null;
+
+        byte tag;
+        long bits;
+        Object ref;
+        int version;
+        do {
+            version = s.awaitVersion(slot);
+            tag = (byte)s.tags.get(slot);
+            bits = s.bits.get(slot);
+            ref = s.refs.get(slot);
+        } while(s.versions.get(slot) != version);
+
+        return SettingsTable.box(tag, bits, ref);
+    }
+
+    /**
+     * Gets the value in the specified slot as an {@code int}.
+     * @see SettingsTable#getInt(int, int)
+     */
+    int getInt(int slot, int defaultValue)
+    {
+        Slots s = slots;
+        if(slot < 0 || slot >= s.capacity) return defaultValue;
+
+        byte tag;
+        long bits;
+        Object ref;
+        int version;
+        do {
+            version = s.awaitVersion(slot);
+            tag = (byte)s.tags.get(slot);
+            bits = s.bits.get(slot);
+            ref = s.refs.get(slot);
+        } while(s.versions.get(slot) != version);
+
+        return SettingsTable.asInt(tag, bits, ref, defaultValue);
+    }
+
+    /**
+     * Gets the value in the specified slot as a {@code float}.
+     * @see SettingsTable#getFloat(int, float)
+     */
+    float getFloat(int slot, float defaultValue)
+    {
+        Slots s = slots;
+        if(slot < 0 || slot >= s.capacity) return defaultValue;
+
+        byte tag;
+        long bits;
+        Object ref;
+        int version;
+        do {
+            version = s.awaitVersion(slot);
+            tag = (byte)s.tags.get(slot);
+            bits = s.bits.get(slot);
+            ref = s.refs.get(slot);
+        } while(s.versions.get(slot) != version);
+
+        return SettingsTable.asFloat(tag, bits, ref, defaultValue);
+    }
+
+    /**
+     * Gets the value in the specified slot as a {@code boolean}.
+     * @see SettingsTable#getBoolean(int, boolean)
+     */
+    boolean getBoolean(int slot, boolean defaultValue)
+    {
+        Slots s = slots;
+        if(slot < 0 || slot >= s.capacity) return defaultValue;
+
+        byte tag;
+        long bits;
+        Object ref;
+        int version;
+        do {
+            version = s.awaitVersion(slot);
+            tag = (byte)s.tags.get(slot);
+            bits = s.bits.get(slot);
+            ref = s.refs.get(slot);
+        } while(s.versions.get(slot) != version);
+
+        return SettingsTable.asBoolean(tag, bits, ref, defaultValue);
+    }
+
+    /**
+     * Gets the value in the specified slot as a {@code long}.
+     * @see SettingsTable#getLong(int, long)
+     */
+    long getLong(int slot, long defaultValue)
+    {
+        Slots s = slots;
+        if(slot < 0 || slot >= s.capacity) return defaultValue;
+
+        byte tag;
+        long bits;
+        Object ref;
+        int version;
+        do {
+            version = s.awaitVersion(slot);
+            tag = (byte)s.tags.get(slot);
+            bits = s.bits.get(slot);
+            ref = s.refs.get(slot);
+        } while(s.versions.get(slot) != version);
+
+        return SettingsTable.asLong(tag, bits, ref, defaultValue);
+    }
+
+    /**
+     * Replaces the slot arrays with larger copies that can hold the specified slot.
+     * Must be called with this object's lock held.
+     * @return the new slot arrays
+     */
+    private Slots grow(int slot)
+    {
+        Slots old = slots;
+        int capacity = old.capacity;
+        while(capacity <= slot) {
+            capacity <<= 1;
+        }
+
+        // Nothing changes the old arrays while the lock is held, so they can be copied without checking versions.
+        // Readers that still hold them see the values they held up to this point, which are the current ones.
+        Slots retV = new Slots(capacity);
+        for(int i = 0; i < old.capacity; i++)
+        {
+            retV.tags.set(i, old.tags.get(i));
+            retV.bits.set(i, old.bits.get(i));
+            retV.refs.set(i, old.refs.get(i));
+        }
+
+        slots = retV;
+        return retV;
+    }
+
+    /**
+     * A fixed-capacity set of slot arrays. The arrays are replaced as a whole when more slots are needed,
+     * so a reader only has to read the {@code volatile} field that holds them once.
+     * Every element access goes through the atomic array classes, so that the version checks of a read
+     * are ordered with the value reads between them.
+     */
+    private static final class Slots
+    {
+        final int capacity;
+        final AtomicIntegerArray tags;
+        final AtomicLongArray bits;
+        final AtomicReferenceArray<Object> refs;
+        final AtomicIntegerArray versions;
+
+        Slots(int capacity)
+        {
+            this.capacity = capacity;
+            this.tags = new AtomicIntegerArray(capacity);
+            this.bits = new AtomicLongArray(capacity);
+            this.refs = new AtomicReferenceArray<>(capacity);
+            this.versions = new AtomicIntegerArray(capacity);
+        }
+
+        /**
+         * Changes the value in a slot. Must be called with the owning object's lock held.
+         */
+        void write(int slot, byte tag, long bits, Object ref)
+        {
+            int version = versions.get(slot);
+            versions.set(slot, version + 1);
+            this.tags.set(slot, tag);
+            this.bits.set(slot, bits);
+            this.refs.set(slot, ref);
+            versions.set(slot, version + 2);
+        }
+
+        /**
+         * Gets the version of a slot, waiting for any change that is in progress to finish first.
+         */
+        int awaitVersion(int slot)
+        {
+            int version;
+            while(((version = versions.get(slot)) & 1) != 0) {
+                Thread.yield();
+            }
+            return version;
+        }
+    }
+}
@@ -2,19 +2,25 @@ package com.michaelRunzler.ARK.android.util.SlideoutControl;
 
 import android.content.Context;
 import android.graphics.drawable.ColorDrawable;
-import android.os.Handler;
 import android.view.View;
 import android.widget.RelativeLayout;
 
 import com.michaelRunzler.ARK.android.R;
+import com.michaelRunzler.ARK.android.util.Animation.FrameMonitor;
+import com.michaelRunzler.ARK.android.util.Animation.FrameStats;
+import com.michaelRunzler.ARK.android.util.Animation.Timeline;
 
 /**
  * Allows interaction with a Modular Slideout Panel layout.
+ * The panel is rendered into a hardware layer while it slides, and the smoothness of each slide
+ * is recorded, and can be checked through {@link SlideoutPanelController#getLastAnimationStats()}.
  */
 public class SlideoutPanelController
 {
     private RelativeLayout linkedView;
     private int animTime;
+    private Timeline timeline;
+    private FrameMonitor frameMonitor;
 
     private int DEFAULT_BG_COLOR;
 
@@ -43,36 +49,45 @@ public class SlideoutPanelController
         DEFAULT_BG_COLOR = context.getResources().getColor(R.color.mainSlideoutBackground);
         linkedView.setBackgroundColor(BGColor <= 0 ? DEFAULT_BG_COLOR : BGColor);
         this.animTime = animTime <= 0 ? 250 : animTime;
+
+        // Extending the panel slides it in from off the left edge of the screen. Its width can change while it is
+        // retracted, so the retracted position is worked out afresh every time it moves.
+        timeline = new Timeline();
+        timeline.addStage(this.animTime)
+                .animate(linkedView, Timeline.TRANSLATION_X, () -> -1.0f * (linkedView.getWidth() * linkedView.getScaleX()), () -> 0.0f)
+                .atStart(() -> linkedView.setVisibility(View.VISIBLE), () -> linkedView.setVisibility(View.GONE));
+
+        // The panel's contents do not change while it slides, so render them once and move the result around.
+        frameMonitor = new FrameMonitor(linkedView);
+        timeline.addHardwareLayer(linkedView);
+        timeline.setFrameMonitor(frameMonitor);
+
+        // Start the timeline off at whichever end matches the panel's current state.
+        if(linkedView.getVisibility() == View.VISIBLE) timeline.play(false);
     }
 
     /**
      * Switches the visibility state of the overlay, running all associated animations.
+     * If the overlay is still animating from the last switch, it turns around where it is.
      */
-    public void switchState()
-    {
-        Handler handler = new Handler();
-
-        if(linkedView.getVisibility() == View.VISIBLE)
-        {
-            linkedView.animate().translationX(-1.0f * (linkedView.getWidth() * linkedView.getScaleX())).setDuration(animTime).start();
-            handler.postDelayed(() -> linkedView.setVisibility(View.GONE), animTime);
-        }else{
-            linkedView.setVisibility(View.VISIBLE);
-            linkedView.animate().translationX(0).setDuration(animTime).start();
-        }
+    public void switchState() {
+        switchState(true);
     }
 
     /**
      * Switches the visibility state of the overlay, skipping all animations that would normally run.
      */
-    public void switchStateNoAnim()
-    {
-        int cachedAnimTime = animTime;
-        animTime = 0;
-
-        switchState();
+    public void switchStateNoAnim() {
+        switchState(false);
+    }
 
-        animTime = cachedAnimTime;
+    /**
+     * Extends the overlay if it is retracted or on its way there, and retracts it otherwise.
+     */
+    private void switchState(boolean animate)
+    {
+        if(timeline.isForward()) timeline.reverse(animate);
+        else timeline.play(animate);
     }
 
     /**
@@ -110,6 +125,31 @@ public class SlideoutPanelController
         return animTime;
     }
 
+    /**
+     * Gets the frame timing statistics for the most recent panel animation. An animation that is reversed
+     * part-way through counts as one animation.
+     * @return the {@link FrameStats} for the last animation, or {@code null} if none has finished since
+     * the statistics were last reset
+     */
+    public FrameStats getLastAnimationStats() {
+        return frameMonitor.getLastStats();
+    }
+
+    /**
+     * Gets the combined frame timing statistics for every panel animation since the statistics were last reset.
+     * @return the combined {@link FrameStats}, or {@code null} if no animation has finished since they were last reset
+     */
+    public FrameStats getTotalAnimationStats() {
+        return frameMonitor.getTotalStats();
+    }
+
+    /**
+     * Discards all recorded frame timing statistics.
+     */
+    public void resetAnimationStats() {
+        frameMonitor.reset();
+    }
+
     /**
      * Gets the current width of this slideout panel.
      * @return the width in pixels. The returned value will directly reflect the actual width,
@@ -0,0 +1,262 @@
+package com.michaelRunzler.ARK.android.util.Startup;
+
+import android.support.annotation.NonNull;
+
+import com.michaelRunzler.ARK.android.util.Tracing.Tracer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a set of named startup tasks, such as loading config files or warming up resources, as a dependency graph.
+ * Each task declares the tasks that it depends on, and is started the moment all of them have finished, so
+ * independent tasks run in parallel on a small pool of background threads. Each task also has a weight, which is
+ * its share of the total startup work, so that a progress indicator can be driven by how much work is actually done.
+ * A graph can only be started once. Tasks must all be added before it is started.
+ */
+public class StartupGraph
+{
+    private static final long POOL_KEEP_ALIVE = 1;
+
+    private final Object lock = new Object();
+    private final LinkedHashMap<String, Node> nodes;
+    private StartupListener listener;
+    private ThreadPoolExecutor pool;
+    private boolean started;
+    private int totalWeight;
+    private int completedWeight;
+    private int remaining;
+
+    /**
+     * Constructs a new instance of this object with no tasks.
+     */
+    public StartupGraph() {
+        nodes = new LinkedHashMap<>();
+    }
+
+    /**
+     * Adds a task to this graph.
+     * @param name the name of the task, which other tasks refer to it by. Must be unique within this graph.
+     * @param weight the task's share of the total startup work. The unit is arbitrary, but should be the same across tasks.
+     * @param task the work to perform
+     * @param dependencies the names of the tasks that must finish before this one starts. They do not have to
+     *                     have been added yet, but must all have been added by the time the graph is started.
+     */
+    public void addTask(@NonNull String name, int weight, @NonNull StartupTask task, @NonNull String... dependencies)
+    {
+        if(name.isEmpty()) throw new IllegalArgumentException("Task name cannot be zero-length");
+        if(weight < 0) throw new IllegalArgumentException("Task weight cannot be negative");
+
+        synchronized (lock)
+        {
+            if(started) throw new IllegalStateException("Tasks cannot be added once the graph has started");
+            if(nodes.containsKey(name)) throw new IllegalArgumentException("A task named " + name + " already exists");
+            nodes.put(name, new Node(name, weight, task, dependencies.clone()));
+        }
+    }
+
+    /**
+     * Starts running this graph in the background. Tasks with no dependencies are started straight away,
+     * and every other task is started as soon as its last dependency finishes. This method does not block.
+     * @param listener the {@link StartupListener} to notify as tasks finish
+     */
+    public void start(@NonNull StartupListener listener)
+    {
+        synchronized (lock)
+        {
+            if(started) throw new IllegalStateException("Graph has already been started");
+            checkDependencies();
+
+            // Link each task to the tasks waiting on it.
+            for(Node n : nodes.values())
+            {
+                for(String dependency : n.dependencies) {
+                    nodes.get(dependency).dependents.add(n);
+                }
+                n.pending = n.dependencies.length;
+                totalWeight += n.weight;
+            }
+
+            this.listener = listener;
+            this.started = true;
+            this.remaining = nodes.size();
+
+            if(remaining == 0){
+                listener.onFinished();
+                return;
+            }
+
+            pool = createPool();
+            for(Node n : nodes.values()) {
+                if(n.pending == 0) submit(n);
+            }
+        }
+    }
+
+    /**
+     * Checks if every task in this graph has finished.
+     * @return {@code true} if the graph has been started and has finished, {@code false} if otherwise
+     */
+    public boolean isFinished()
+    {
+        synchronized (lock) {
+            return started && remaining == 0;
+        }
+    }
+
+    /**
+     * Gets the total weight of the tasks that have finished so far.
+     * @return the completed weight, which is {@code 0} if the graph has not been started
+     */
+    public int getCompletedWeight()
+    {
+        synchronized (lock) {
+            return completedWeight;
+        }
+    }
+
+    /**
+     * Checks that every dependency refers to a task in this graph, and that no task depends on itself,
+     * either directly or through other tasks.
+     */
+    private void checkDependencies()
+    {
+        HashMap<String, Integer> pending = new HashMap<>();
+        HashMap<String, ArrayList<String>> dependents = new HashMap<>();
+        for(Node n : nodes.values())
+        {
+            pending.put(n.name, n.dependencies.length);
+            for(String dependency : n.dependencies)
+            {
+                if(!nodes.containsKey(dependency)) throw new IllegalArgumentException("Task " + n.name + " depends on unknown task " + dependency);
+
+                ArrayList<String> list = dependents.get(dependency);
+                if(list == null){
+                    list = new ArrayList<>();
+                    dependents.put(dependency, list);
+                }
+                list.add(n.name);
+            }
+        }
+
+        // Walk the graph in dependency order. Any task that is never reached is part of a cycle.
+        ArrayList<String> ready = new ArrayList<>();
+        for(Node n : nodes.values()) {
+            if(n.dependencies.length == 0) ready.add(n.name);
+        }
+
+        int reached = 0;
+        while(!ready.isEmpty())
+        {
+            String name = ready.remove(ready.size() - 1);
+            reached++;
+
+            ArrayList<String> list = dependents.get(name);
+            if(list == null) continue;
+            for(String dependent : list)
+            {
+                int left = pending.get(dependent) - 1;
+                pending.put(dependent, left);
+                if(left == 0) ready.add(dependent);
+            }
+        }
+
+        if(reached != nodes.size()) throw new IllegalStateException("Startup tasks have a circular dependency");
+    }
+
+    /**
+     * Runs a task on the pool, then marks it as finished.
+     */
+    private void submit(final Node node)
+    {
+        pool.execute(() -> {
+            Exception failure = null;
+            Tracer.begin(node.spanName);
+            try {
+                node.task.run();
+            } catch (Exception e) {
+                failure = e;
+            } finally {
+                Tracer.end();
+            }
+
+            finish(node, failure);
+        });
+    }
+
+    /**
+     * Records a finished task, notifies the listener, and starts any tasks that were only waiting on this one.
+     */
+    private void finish(Node node, Exception failure)
+    {
+        synchronized (lock)
+        {
+            completedWeight += node.weight;
+            remaining--;
+            Tracer.counter("Startup.completedWeight", completedWeight);
+
+            if(failure != null) listener.onTaskFailed(node.name, failure);
+            listener.onProgress(completedWeight, totalWeight);
+
+            for(Node dependent : node.dependents) {
+                if(--dependent.pending == 0) submit(dependent);
+            }
+
+            if(remaining == 0){
+                pool.shutdown();
+                listener.onFinished();
+            }
+        }
+    }
+
+    /**
+     * Creates the pool that this graph's tasks run on. The pool has one thread per processor core, from two up to
+     * four, and its threads are daemons that exit shortly after they run out of work. Startup work is mostly disk
+     * I/O, so even a single core benefits from having a second task in flight.
+     */
+    private static ThreadPoolExecutor createPool()
+    {
+        int threads = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+        final AtomicInteger count = new AtomicInteger();
+        ThreadPoolExecutor retV = new ThreadPoolExecutor(threads, threads, POOL_KEEP_ALIVE, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable r) {
+                Thread t = new Thread(r, "ARK-Startup-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        retV.allowCoreThreadTimeOut(true);
+        return retV;
+    }
+
+    /**
+     * A single task in the graph, along with its place in the dependency order.
+     */
+    private static final class Node
+    {
+        private final String name;
+        private final String spanName;
+        private final int weight;
+        private final StartupTask task;
+        private final String[] dependencies;
+        private final ArrayList<Node> dependents;
+        private int pending;
+
+        Node(String name, int weight, StartupTask task, String[] dependencies)
+        {
+            this.name = name;
+            this.spanName = "Startup." + name;
+            this.weight = weight;
+            this.task = task;
+            this.dependencies = dependencies;
+            this.dependents = new ArrayList<>();
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.michaelRunzler.ARK.android.util.Startup;
+
+/**
+ * Receives progress notifications from a running {@link StartupGraph}.
+ * Every method is called on one of the graph's background threads, one call at a time, so implementations
+ * do not need to synchronize between their own methods. They must not block, and must post any UI
+ * changes to the main thread.
+ * @see StartupGraph#start(StartupListener)
+ */
+public interface StartupListener
+{
+    /**
+     * Called each time a task finishes, whether it succeeded or not.
+     * @param completedWeight the total weight of every task that has finished so far
+     * @param totalWeight the total weight of every task in the graph
+     */
+    void onProgress(int completedWeight, int totalWeight);
+
+    /**
+     * Called when a task throws. The failed task still counts as finished, so the tasks that depend on it
+     * still run.
+     * @param name the name of the task that failed
+     * @param error the exception that the task threw
+     */
+    void onTaskFailed(String name, Exception error);
+
+    /**
+     * Called once, after every task in the graph has finished. If the graph has no tasks at all, this is called
+     * straight away, on the thread that started the graph.
+     */
+    void onFinished();
+}
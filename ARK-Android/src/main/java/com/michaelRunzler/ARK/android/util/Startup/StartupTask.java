@@ -0,0 +1,16 @@
+package com.michaelRunzler.ARK.android.util.Startup;
+
+/**
+ * A single unit of work in a {@link StartupGraph}.
+ * @see StartupGraph#addTask(String, int, StartupTask, String...)
+ */
+public interface StartupTask
+{
+    /**
+     * Performs this task's work. Called once, on one of the graph's background threads, after every
+     * task that this task depends on has finished.
+     * @throws Exception if the task failed. The failure is reported to the graph's {@link StartupListener},
+     * and the rest of the graph still runs.
+     */
+    void run() throws Exception;
+}
@@ -0,0 +1,306 @@
+package com.michaelRunzler.ARK.android.util.Tracing;
+
+import android.content.Context;
+import android.os.Process;
+import android.os.Trace;
+import android.support.annotation.NonNull;
+
+import com.michaelRunzler.ARK.android.BuildConfig;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lightweight tracing facade for measuring where time goes during startup and UI interaction.
+ * Spans are opened with {@link Tracer#begin(String)} and closed with {@link Tracer#end()} on the same thread,
+ * and nest like the sections of {@link Trace}, which they are also forwarded to, so they show up in systrace.
+ * Counters and instant events mark values and moments in time.
+ * Every event is also recorded into a preallocated ring buffer, which holds the most recent events only, and can
+ * be written out as a Chrome trace file (see {@link Tracer#dump(Context)}) to be opened in {@code chrome://tracing}.
+ * Recording an event does not allocate, and costs a few array writes. Tracing is enabled by default in debug builds only.
+ * All methods of this class are safe for concurrent use.
+ */
+public final class Tracer
+{
+    /**
+     * The default number of events that the ring buffer holds.
+     */
+    public static final int DEFAULT_CAPACITY = 16 * 1024;
+
+    /**
+     * The directory within the app's files directory that {@link Tracer#dump(Context)} writes trace files to.
+     */
+    public static final String TRACE_DIRECTORY = "traces";
+
+    /**
+     * The number of trace files that {@link Tracer#dump(Context)} keeps. Older files are deleted.
+     */
+    public static final int MAX_TRACE_FILES = 5;
+
+    private static final byte TYPE_BEGIN = 0;
+    private static final byte TYPE_END = 1;
+    private static final byte TYPE_COUNTER = 2;
+    private static final byte TYPE_INSTANT = 3;
+
+    // Section names longer than this are rejected by the platform.
+    private static final int MAX_SECTION_NAME = 127;
+
+    private static volatile boolean enabled = BuildConfig.DEBUG;
+    private static volatile Buffer buffer = new Buffer(DEFAULT_CAPACITY);
+    private static final ConcurrentHashMap<Integer, String> threadNames = new ConcurrentHashMap<>();
+    private static final ThreadLocal<Integer> threadID = new ThreadLocal<Integer>() {
+        @Override
+        protected Integer initialValue()
+        {
+            // Note down each thread's name the first time it records something, so that the dump can label it.
+            int tid = Process.myTid();
+            threadNames.put(tid, Thread.currentThread().getName());
+            return tid;
+        }
+    };
+
+    private Tracer() {}
+
+    /**
+     * Opens a span on the calling thread. Must be matched by a call to {@link Tracer#end()} on the same thread.
+     * @param name the name of the span
+     */
+    public static void begin(@NonNull String name)
+    {
+        if(!enabled) return;
+
+        Trace.beginSection(name.length() > MAX_SECTION_NAME ? name.substring(0, MAX_SECTION_NAME) : name);
+        buffer.record(TYPE_BEGIN, name, 0);
+    }
+
+    /**
+     * Closes the span most recently opened on the calling thread.
+     */
+    public static void end()
+    {
+        if(!enabled) return;
+
+        buffer.record(TYPE_END, null, 0);
+        Trace.endSection();
+    }
+
+    /**
+     * Records the current value of a counter, such as a queue length or the number of loaded settings.
+     * Counters are only recorded into the ring buffer, since the platform's counter API is newer than this app's SDK.
+     * @param name the name of the counter
+     * @param value the counter's current value
+     */
+    public static void counter(@NonNull String name, long value)
+    {
+        if(!enabled) return;
+        buffer.record(TYPE_COUNTER, name, value);
+    }
+
+    /**
+     * Records a single moment in time, such as an activity switch.
+     * @param name the name of the event
+     */
+    public static void instant(@NonNull String name)
+    {
+        if(!enabled) return;
+        buffer.record(TYPE_INSTANT, name, 0);
+    }
+
+    /**
+     * Sets whether events are recorded. Should only be changed while no spans are open, since a span that
+     * is opened while tracing is disabled is not closed once it is enabled, and vice versa.
+     * @param enable {@code true} to record events, {@code false} to ignore them
+     */
+    public static void setEnabled(boolean enable) {
+        enabled = enable;
+    }
+
+    /**
+     * Gets whether events are being recorded.
+     * @return {@code true} if tracing is enabled, {@code false} if otherwise
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Replaces the ring buffer with an empty one of the specified size. Any recorded events are discarded.
+     * @param events the minimum number of events that the buffer should hold. Rounded up to a power of two.
+     */
+    public static void setCapacity(int events)
+    {
+        if(events <= 0 || events > (1 << 24)) throw new IllegalArgumentException("Capacity must be between 1 and " + (1 << 24));
+        int capacity = 1;
+        while(capacity < events) {
+            capacity <<= 1;
+        }
+
+        buffer = new Buffer(capacity);
+    }
+
+    /**
+     * Discards every recorded event.
+     */
+    public static void clear() {
+        buffer = new Buffer(buffer.mask + 1);
+    }
+
+    /**
+     * Writes the recorded events to a new trace file in the {@link Tracer#TRACE_DIRECTORY trace directory}
+     * of the app's files directory. Events recorded while the dump is in progress may or may not be included.
+     * Only the {@value Tracer#MAX_TRACE_FILES} most recent trace files are kept.
+     * @param context the {@link Context} whose files directory should hold the trace
+     * @return the trace {@link File} that was written
+     * @throws IOException if the file could not be written
+     */
+    public static File dump(@NonNull Context context) throws IOException
+    {
+        File directory = new File(context.getFilesDir(), TRACE_DIRECTORY);
+        if(!directory.exists() && !directory.mkdirs()) throw new IOException("Unable to create trace directory");
+
+        File retV = new File(directory, "trace-" + System.currentTimeMillis() + ".json");
+        writeTo(retV);
+
+        // File names sort by age, so everything before the last few names can go.
+        String[] names = directory.list();
+        if(names != null && names.length > MAX_TRACE_FILES)
+        {
+            Arrays.sort(names);
+            for(int i = 0; i < names.length - MAX_TRACE_FILES; i++) {
+                new File(directory, names[i]).delete();
+            }
+        }
+
+        return retV;
+    }
+
+    /**
+     * Writes the recorded events to a file in the Chrome trace event format.
+     * @param file the {@link File} to write to. Any existing file is replaced.
+     * @throws IOException if the file could not be written
+     */
+    public static void writeTo(@NonNull File file) throws IOException
+    {
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+        try{
+            buffer.writeTo(out, Process.myPid());
+        }finally{
+            out.close();
+        }
+    }
+
+    /**
+     * Appends a string to a JSON document as a quoted, escaped string literal.
+     */
+    private static void writeString(Writer out, String s) throws IOException
+    {
+        out.write('"');
+        for(int i = 0; i < s.length(); i++)
+        {
+            char c = s.charAt(i);
+            if(c == '"' || c == '\\'){
+                out.write('\\');
+                out.write(c);
+            }else if(c < 0x20){
+                out.write(String.format("\\u%04x", (int)c));
+            }else{
+                out.write(c);
+            }
+        }
+        out.write('"');
+    }
+
+    /**
+     * Fixed-size ring of trace events, stored as parallel arrays so that recording an event does not allocate.
+     * Writers claim slots with a single atomic increment, so they never block each other. Once the ring is full,
+     * each new event overwrites the oldest one.
+     */
+    private static final class Buffer
+    {
+        private final int mask;
+        private final long[] times;
+        private final long[] values;
+        private final int[] threads;
+        private final byte[] types;
+        private final String[] names;
+        private final AtomicLong next;
+
+        Buffer(int capacity)
+        {
+            this.mask = capacity - 1;
+            this.times = new long[capacity];
+            this.values = new long[capacity];
+            this.threads = new int[capacity];
+            this.types = new byte[capacity];
+            this.names = new String[capacity];
+            this.next = new AtomicLong();
+        }
+
+        /**
+         * Records an event into the next slot in the ring.
+         */
+        void record(byte type, String name, long value)
+        {
+            int slot = (int)(next.getAndIncrement() & mask);
+            times[slot] = System.nanoTime();
+            values[slot] = value;
+            threads[slot] = threadID.get();
+            types[slot] = type;
+            names[slot] = name;
+        }
+
+        /**
+         * Writes every event still held by the ring to a JSON document, oldest first.
+         */
+        void writeTo(Writer out, int pid) throws IOException
+        {
+            long end = next.get();
+            long start = Math.max(0, end - (mask + 1));
+
+            out.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+
+            // Label each thread with its name first.
+            boolean first = true;
+            for(Integer tid : threadNames.keySet())
+            {
+                if(!first) out.write(',');
+                first = false;
+                out.write("{\"ph\":\"M\",\"name\":\"thread_name\",\"pid\":" + pid + ",\"tid\":" + tid + ",\"args\":{\"name\":");
+                writeString(out, threadNames.get(tid));
+                out.write("}}");
+            }
+
+            for(long i = start; i < end; i++)
+            {
+                int slot = (int)(i & mask);
+                byte type = types[slot];
+                String name = names[slot];
+
+                if(!first) out.write(',');
+                first = false;
+                out.write("{\"ph\":\"");
+                out.write(type == TYPE_BEGIN ? "B" : type == TYPE_END ? "E" : type == TYPE_COUNTER ? "C" : "i");
+                out.write("\",\"ts\":" + (times[slot] / 1000) + ",\"pid\":" + pid + ",\"tid\":" + threads[slot]);
+
+                if(name != null){
+                    out.write(",\"name\":");
+                    writeString(out, name);
+                }
+
+                if(type == TYPE_COUNTER) out.write(",\"args\":{\"value\":" + values[slot] + "}");
+                else if(type == TYPE_INSTANT) out.write(",\"s\":\"t\"");
+                out.write('}');
+            }
+
+            out.write("]}");
+        }
+    }
+}
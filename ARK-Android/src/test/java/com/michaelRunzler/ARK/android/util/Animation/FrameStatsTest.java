@@ -0,0 +1,69 @@
+package com.michaelRunzler.ARK.android.util.Animation;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks how frame statistics are combined, and how the gap between two frames is turned into a count of
+ * dropped frames.
+ */
+public class FrameStatsTest
+{
+    // One refresh of a 60Hz display, in nanoseconds.
+    private static final long INTERVAL = 16666667;
+
+    @Test
+    public void frameOnTimeDropsNothing()
+    {
+        assertEquals(0, FrameStats.droppedFrames(INTERVAL, INTERVAL));
+        assertEquals(0, FrameStats.droppedFrames(0, INTERVAL));
+    }
+
+    @Test
+    public void jitterIsRoundedAway()
+    {
+        // A frame that is late or early by less than half a refresh still landed on the refresh it was meant for.
+        assertEquals(0, FrameStats.droppedFrames(INTERVAL + INTERVAL / 2 - 1, INTERVAL));
+        assertEquals(0, FrameStats.droppedFrames(INTERVAL / 2, INTERVAL));
+        assertEquals(1, FrameStats.droppedFrames(INTERVAL + INTERVAL / 2 + 1, INTERVAL));
+    }
+
+    @Test
+    public void everyMissedRefreshIsCounted()
+    {
+        assertEquals(1, FrameStats.droppedFrames(2 * INTERVAL, INTERVAL));
+        assertEquals(2, FrameStats.droppedFrames(3 * INTERVAL, INTERVAL));
+        assertEquals(9, FrameStats.droppedFrames(10 * INTERVAL + 1000, INTERVAL));
+    }
+
+    @Test
+    public void plusAddsCountsAndKeepsWorstFrame()
+    {
+        FrameStats first = new FrameStats(10, 1, 200000000L, 33000000L, new long[]{16000000L, 33000000L});
+        FrameStats second = new FrameStats(5, 3, 100000000L, 50000000L, new long[]{50000000L});
+
+        FrameStats combined = first.plus(second);
+        assertEquals(15, combined.getFrameCount());
+        assertEquals(4, combined.getDroppedFrames());
+        assertEquals(300.0f, combined.getDurationMillis(), 0.001f);
+        assertEquals(50.0f, combined.getWorstFrameMillis(), 0.001f);
+
+        // Combined statistics do not keep per-frame times, and neither input is changed.
+        assertEquals(0, combined.getFrameDurations().length);
+        assertEquals(2, first.getFrameDurations().length);
+        assertEquals(10, first.getFrameCount());
+    }
+
+    @Test
+    public void emptyIsIdentityForPlus()
+    {
+        FrameStats stats = new FrameStats(3, 2, 50000000L, 20000000L, new long[]{10000000L, 20000000L});
+
+        FrameStats combined = FrameStats.EMPTY.plus(stats);
+        assertEquals(stats.getFrameCount(), combined.getFrameCount());
+        assertEquals(stats.getDroppedFrames(), combined.getDroppedFrames());
+        assertEquals(stats.getDurationMillis(), combined.getDurationMillis(), 0.0f);
+        assertEquals(stats.getWorstFrameMillis(), combined.getWorstFrameMillis(), 0.0f);
+    }
+}
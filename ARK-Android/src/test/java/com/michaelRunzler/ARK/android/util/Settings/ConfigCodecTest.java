@@ -0,0 +1,221 @@
+package com.michaelRunzler.ARK.android.util.Settings;
+
+import com.michaelRunzler.ARK.android.util.Tracing.Tracer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Writes every kind of value that the binary config format supports, and checks that the sequential
+ * and memory-mapped readers both return them unchanged. Also checks that legacy (Java-serialized)
+ * config files can still be read.
+ */
+public class ConfigCodecTest
+{
+    private File directory;
+    private File config;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        // The platform's trace calls are not available outside a device.
+        Tracer.setEnabled(false);
+
+        directory = File.createTempFile("codec", "");
+        if(!directory.delete() || !directory.mkdir()) throw new IOException("Could not create test directory");
+        config = new File(directory, "settings.cfg");
+    }
+
+    @After
+    public void tearDown() {
+        delete(directory);
+    }
+
+    @Test
+    public void everyValueTypeRoundTrips() throws IOException
+    {
+        HashMap<String, Object> values = sampleValues();
+        write(values, null);
+
+        assertFalse(isLegacy(config));
+        assertResolvesTo(values, readSequential(null));
+        assertResolvesTo(values, ConfigCodec.mapConfig(config, null));
+    }
+
+    @Test
+    public void blobReferencesRoundTrip() throws IOException
+    {
+        StringBuilder sb = new StringBuilder();
+        for(int i = 0; i < 2048; i++) sb.append((char)('a' + i % 26));
+
+        HashMap<String, Object> values = sampleValues();
+        values.put("codec.blob", sb.toString());
+        ArrayList<Integer> list = new ArrayList<>();
+        for(int i = 0; i < 512; i++) list.add(i);
+        values.put("codec.serializedBlob", list);
+
+        for(boolean compress : new boolean[]{false, true})
+        {
+            BlobStore blobs = new BlobStore(config, 256, compress);
+            write(values, blobs);
+
+            // Large values are moved out of line, and only their references are kept in the config itself.
+            assertTrue(config.length() < sb.length());
+            File blobDirectory = new File(config.getPath() + BlobStore.DIRECTORY_SUFFIX);
+            assertEquals(2, blobDirectory.list().length);
+
+            HashMap<String, Object> read = readSequential(blobs);
+            assertTrue(read.get("codec.blob") instanceof BlobValue);
+            assertResolvesTo(values, read);
+            assertResolvesTo(values, ConfigCodec.mapConfig(config, blobs));
+
+            delete(blobDirectory);
+        }
+    }
+
+    @Test
+    public void legacyConfigIsRead() throws Exception
+    {
+        HashMap<String, Object> values = sampleValues();
+        ObjectOutputStream os = new ObjectOutputStream(new FileOutputStream(config));
+        try {
+            os.writeObject(values);
+        } finally {
+            os.close();
+        }
+
+        assertTrue(isLegacy(config));
+        BufferedInputStream is = new BufferedInputStream(new FileInputStream(config));
+        try {
+            assertEquals(values, ConfigCodec.readLegacyConfig(is));
+        } finally {
+            is.close();
+        }
+
+        // A manager loading a legacy file rewrites it in the binary format straight away.
+        SettingsManager manager = new SettingsManager(config);
+        manager.loadConfigFromFile();
+        for(Map.Entry<String, Object> e : values.entrySet()) assertEquals(e.getValue(), manager.getSetting(e.getKey()));
+        assertFalse(isLegacy(config));
+        assertResolvesTo(values, readSequential(null));
+    }
+
+    @Test(expected = IOException.class)
+    public void legacyReaderRejectsOtherObjects() throws IOException
+    {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        ObjectOutputStream os = new ObjectOutputStream(buffer);
+        os.writeObject("not a map");
+        os.close();
+
+        ConfigCodec.readLegacyConfig(new ByteArrayInputStream(buffer.toByteArray()));
+    }
+
+    /**
+     * Builds a set of values covering every type tag, including edge values of each primitive type.
+     */
+    private static HashMap<String, Object> sampleValues()
+    {
+        HashMap<String, Object> retV = new HashMap<>();
+        retV.put("codec.int", 42);
+        retV.put("codec.intMin", Integer.MIN_VALUE);
+        retV.put("codec.float", 3.5f);
+        retV.put("codec.floatNegativeZero", -0.0f);
+        retV.put("codec.floatNaN", Float.NaN);
+        retV.put("codec.long", Long.MAX_VALUE);
+        retV.put("codec.longNegative", -1L);
+        retV.put("codec.true", true);
+        retV.put("codec.false", false);
+        retV.put("codec.string", "ARK");
+        retV.put("codec.emptyString", "");
+        retV.put("codec.unicodeString", "\u00e9t\u00e9 \u2603 \ud83d\ude00");
+        retV.put("codec.file", new File("ark", "settings.cfg"));
+        retV.put("codec.null", null);
+
+        // Not a natively supported type, so this one goes through the Java serialization fallback.
+        ArrayList<String> list = new ArrayList<>();
+        list.add("first");
+        list.add("second");
+        retV.put("codec.serialized", list);
+        return retV;
+    }
+
+    /**
+     * Writes a set of values to the test config.
+     */
+    private void write(HashMap<String, Object> values, BlobStore blobs) throws IOException
+    {
+        SettingsTable table = new SettingsTable();
+        for(Map.Entry<String, Object> e : values.entrySet()) table = table.withBoxed(SettingKey.slotFor(e.getKey()), e.getValue(), 0);
+
+        FileOutputStream os = new FileOutputStream(config);
+        try {
+            ConfigCodec.writeConfig(os, table, blobs);
+        } finally {
+            os.close();
+        }
+    }
+
+    /**
+     * Reads the test config with the sequential reader.
+     */
+    private HashMap<String, Object> readSequential(BlobStore blobs) throws IOException
+    {
+        BufferedInputStream is = new BufferedInputStream(new FileInputStream(config));
+        try {
+            return ConfigCodec.readConfig(is, blobs);
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Checks that a read index holds exactly the expected keys, and that each of its values resolves to the expected value.
+     */
+    private static void assertResolvesTo(HashMap<String, Object> expected, HashMap<String, Object> actual)
+    {
+        assertNotNull(actual);
+        assertEquals(expected.keySet(), actual.keySet());
+        for(Map.Entry<String, Object> e : expected.entrySet()) assertEquals(e.getKey(), e.getValue(), LazyValue.resolve(actual.get(e.getKey())));
+    }
+
+    /**
+     * Checks if a file holds a legacy (Java-serialized) config.
+     */
+    private static boolean isLegacy(File f) throws IOException
+    {
+        BufferedInputStream is = new BufferedInputStream(new FileInputStream(f));
+        try {
+            return ConfigCodec.isLegacyFormat(is);
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Deletes a file, or a directory and everything in it.
+     */
+    private static void delete(File f)
+    {
+        File[] children = f.listFiles();
+        if(children != null) {
+            for(File c : children) delete(c);
+        }
+        f.delete();
+    }
+}
@@ -0,0 +1,97 @@
+package com.michaelRunzler.ARK.android.util.Settings;
+
+import com.michaelRunzler.ARK.android.util.Tracing.Tracer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that blobs stay on disk for as long as anything can still put a reference to them back into the index.
+ */
+public class SettingsManagerBlobTest
+{
+    private static final String KEY = "blob.value";
+
+    private File directory;
+    private File config;
+    private String large;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        // The platform's trace calls are not available outside a device.
+        Tracer.setEnabled(false);
+
+        directory = File.createTempFile("blobs", "");
+        if(!directory.delete() || !directory.mkdir()) throw new IOException("Could not create test directory");
+        config = new File(directory, "settings.cfg");
+
+        StringBuilder sb = new StringBuilder();
+        for(int i = 0; i < 1024; i++) sb.append(i);
+        large = sb.toString();
+
+        SettingsManager writer = new SettingsManager(config);
+        writer.setBlobThreshold(256);
+        writer.storeSetting(KEY, large);
+        writer.writeStoredConfigToFile();
+    }
+
+    @After
+    public void tearDown() {
+        delete(directory);
+    }
+
+    @Test
+    public void rolledBackBlobSurvivesWritesInsideCache() throws Exception {
+        checkRollbackAfterWrites(false);
+    }
+
+    @Test
+    public void rolledBackLazyBlobSurvivesWritesInsideCache() throws Exception {
+        checkRollbackAfterWrites(true);
+    }
+
+    /**
+     * Replaces a blob-valued setting inside the cache, writes twice so that the blob is in neither
+     * of the last two generations, then rolls the cache back and checks that the blob can still be read.
+     */
+    private void checkRollbackAfterWrites(boolean lazy) throws Exception
+    {
+        SettingsManager manager = new SettingsManager(config);
+        manager.setBlobThreshold(256);
+        manager.setLazyLoading(lazy);
+        manager.loadConfigFromFile();
+
+        manager.fillCache();
+        manager.storeSetting(KEY, "small");
+        manager.writeStoredConfigToFile();
+        manager.writeStoredConfigToFile();
+
+        manager.commitCache();
+        assertEquals(large, manager.getSetting(KEY));
+
+        // The restored reference must also still resolve once it is written out and read back.
+        manager.writeStoredConfigToFile();
+        SettingsManager reloaded = new SettingsManager(config);
+        reloaded.loadConfigFromFile();
+        assertEquals(large, reloaded.getSetting(KEY));
+    }
+
+    /**
+     * Deletes a file, or a directory and everything in it.
+     */
+    private static void delete(File f)
+    {
+        File[] children = f.listFiles();
+        if(children != null) {
+            for(File c : children) delete(c);
+        }
+        f.delete();
+    }
+}
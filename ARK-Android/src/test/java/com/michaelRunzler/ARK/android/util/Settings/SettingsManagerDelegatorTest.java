@@ -0,0 +1,167 @@
+package com.michaelRunzler.ARK.android.util.Settings;
+
+import com.michaelRunzler.ARK.android.util.Tracing.Tracer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the dynamic instance index creates, reuses, and flushes instances correctly,
+ * both with and without an instance directory.
+ */
+public class SettingsManagerDelegatorTest
+{
+    private File directory;
+    private SettingsManager previousMain;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        // The platform's trace calls are not available outside a device.
+        Tracer.setEnabled(false);
+
+        directory = File.createTempFile("delegator", "");
+        if(!directory.delete() || !directory.mkdir()) throw new IOException("Could not create test directory");
+        previousMain = SettingsManagerDelegator.getMainInstance();
+    }
+
+    @After
+    public void tearDown()
+    {
+        SettingsManagerDelegator.setDynamicInstanceDirectory(null);
+        SettingsManagerDelegator.setMainInstance(previousMain);
+        SettingsManagerDelegator.releaseDynamicInstance("untargeted");
+        SettingsManagerDelegator.releaseDynamicInstance("targeted");
+        delete(directory);
+    }
+
+    @Test
+    public void instancesWithNoDirectoryHaveNoTarget()
+    {
+        SettingsManagerDelegator.setDynamicInstanceDirectory(null);
+
+        SettingsManager first = SettingsManagerDelegator.getDynamicInstance("untargeted");
+        assertNull(first.getTarget());
+        assertSame(first, SettingsManagerDelegator.getDynamicInstance("untargeted"));
+    }
+
+    @Test
+    public void instancesInDirectoryAreLoadedFromTheirFile() throws Exception
+    {
+        SettingsManager writer = new SettingsManager(new File(directory, "targeted.cfg"));
+        writer.storeSetting("delegator.loaded", 7);
+        writer.writeStoredConfigToFile();
+
+        SettingsManagerDelegator.setDynamicInstanceDirectory(directory);
+        SettingsManager loaded = SettingsManagerDelegator.getDynamicInstance("targeted");
+        assertEquals(new File(directory, "targeted.cfg"), loaded.getTarget());
+        assertEquals(7, loaded.getSetting("delegator.loaded"));
+    }
+
+    @Test
+    public void flushAllSkipsInstancesWithNoTarget() throws Exception
+    {
+        SettingsManager main = new SettingsManager();
+        main.storeSetting("delegator.main", 1);
+        SettingsManagerDelegator.setMainInstance(main);
+
+        SettingsManagerDelegator.setDynamicInstanceDirectory(null);
+        SettingsManager untargeted = SettingsManagerDelegator.getDynamicInstance("untargeted");
+        untargeted.storeSetting("delegator.untargeted", 2);
+
+        SettingsManagerDelegator.setDynamicInstanceDirectory(directory);
+        SettingsManager targeted = SettingsManagerDelegator.getDynamicInstance("targeted");
+        targeted.storeSetting("delegator.targeted", 3);
+
+        // Only the instance with a file can be written. The others keep their changes in memory.
+        ArrayList<Future<?>> writes = SettingsManagerDelegator.flushAll();
+        assertEquals(1, writes.size());
+        writes.get(0).get();
+
+        assertFalse(targeted.isDirty());
+        assertTrue(main.isDirty());
+        assertTrue(untargeted.isDirty());
+
+        SettingsManager reloaded = new SettingsManager(new File(directory, "targeted.cfg"));
+        reloaded.loadConfigFromFile();
+        assertEquals(3, reloaded.getSetting("delegator.targeted"));
+    }
+
+    @Test
+    public void concurrentRequestsShareOneInstance() throws Exception
+    {
+        SettingsManager writer = new SettingsManager(new File(directory, "targeted.cfg"));
+        writer.storeSetting("delegator.loaded", 7);
+        writer.writeStoredConfigToFile();
+        SettingsManagerDelegator.setDynamicInstanceDirectory(directory);
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final ConcurrentLinkedQueue<SettingsManager> seen = new ConcurrentLinkedQueue<>();
+        ArrayList<Thread> threads = new ArrayList<>();
+        for(int i = 0; i < 8; i++)
+        {
+            Thread t = new Thread(() -> {
+                try {
+                    start.await();
+                    seen.add(SettingsManagerDelegator.getDynamicInstance("targeted"));
+                } catch (InterruptedException ignored) {}
+            });
+            threads.add(t);
+            t.start();
+        }
+
+        start.countDown();
+        for(Thread t : threads) t.join();
+
+        // Every thread gets the same instance, and it is only handed out once it has been loaded.
+        SettingsManager first = seen.peek();
+        assertEquals(8, seen.size());
+        for(SettingsManager m : seen) assertSame(first, m);
+        assertEquals(7, first.getSetting("delegator.loaded"));
+    }
+
+    @Test
+    public void pinHoldsInstanceOnlyWhileDirty() throws Exception
+    {
+        SettingsManager manager = new SettingsManager(new File(directory, "pinned.cfg"));
+        AtomicReference<SettingsManager> pin = new AtomicReference<>();
+        manager.pinWhileDirty(pin);
+        assertNull(pin.get());
+
+        manager.storeSetting("delegator.pinned", 1);
+        assertSame(manager, pin.get());
+
+        manager.writeStoredConfigToFile();
+        assertNull(pin.get());
+
+        // Moving to another pin lets go of the old one.
+        manager.storeSetting("delegator.pinned", 2);
+        AtomicReference<SettingsManager> next = new AtomicReference<>();
+        manager.pinWhileDirty(next);
+        assertNull(pin.get());
+        assertSame(manager, next.get());
+    }
+
+    /**
+     * Deletes a file, or a directory and everything in it.
+     */
+    private static void delete(File f)
+    {
+        File[] children = f.listFiles();
+        if(children != null) {
+            for(File c : children) delete(c);
+        }
+        f.delete();
+    }
+}
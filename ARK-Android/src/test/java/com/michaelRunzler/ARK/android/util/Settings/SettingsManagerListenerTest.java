@@ -0,0 +1,48 @@
+package com.michaelRunzler.ARK.android.util.Settings;
+
+import com.michaelRunzler.ARK.android.util.Tracing.Tracer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that changes are found off the main thread when every listener has an executor.
+ */
+public class SettingsManagerListenerTest
+{
+    @Before
+    public void setUp() {
+        // The platform's trace calls are not available outside a device.
+        Tracer.setEnabled(false);
+    }
+
+    @Test
+    public void executorListenersAreDispatchedFromSettingsThread() throws Exception
+    {
+        final CountDownLatch delivered = new CountDownLatch(1);
+        final AtomicReference<Thread> dispatcher = new AtomicReference<>();
+        final AtomicReference<Set<String>> keys = new AtomicReference<>();
+
+        // The executor runs the listener on whichever thread hands it over, which is the one that found the changes.
+        SettingsManager manager = new SettingsManager();
+        manager.addChangeListener("listener.value", Runnable::run, (m, changed) -> {
+            dispatcher.set(Thread.currentThread());
+            keys.set(changed);
+            delivered.countDown();
+        });
+        manager.storeSetting("listener.value", 1);
+
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        assertNotSame(Thread.currentThread(), dispatcher.get());
+        assertEquals("ARK-Settings-IO", dispatcher.get().getName());
+        assertEquals(Collections.singleton("listener.value"), keys.get());
+    }
+}
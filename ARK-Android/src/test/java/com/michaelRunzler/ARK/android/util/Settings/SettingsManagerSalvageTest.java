@@ -0,0 +1,211 @@
+package com.michaelRunzler.ARK.android.util.Settings;
+
+import com.michaelRunzler.ARK.android.util.Tracing.Tracer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Damages single bytes of a written config file, and checks which settings a load still recovers,
+ * and which ones it reports as damaged.
+ */
+public class SettingsManagerSalvageTest
+{
+    private static final int COUNT = 5;
+    private static final int DAMAGED = 2;
+
+    private File directory;
+    private File config;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        // The platform's trace calls are not available outside a device.
+        Tracer.setEnabled(false);
+
+        directory = File.createTempFile("salvage", "");
+        if(!directory.delete() || !directory.mkdir()) throw new IOException("Could not create test directory");
+        config = new File(directory, "settings.cfg");
+
+        // Written once, so that there is no backup generation to fall back to.
+        SettingsManager writer = new SettingsManager(config);
+        for(int i = 0; i < COUNT; i++) writer.storeSetting(key(i), value(i));
+        writer.writeStoredConfigToFile();
+    }
+
+    @After
+    public void tearDown() {
+        delete(directory);
+    }
+
+    @Test
+    public void damagedRecordIsReportedAndOthersAreSalvaged() throws Exception
+    {
+        flip(find(value(DAMAGED)) + 2);
+
+        SettingsManager loaded = load(false);
+        for(int i = 0; i < COUNT; i++) {
+            if(i != DAMAGED) assertEquals(value(i), loaded.getSetting(key(i)));
+        }
+        assertNull(loaded.getSetting(key(DAMAGED)));
+        assertEquals(Collections.singletonList(key(DAMAGED)), loaded.getDamagedKeys());
+        assertTrue(loaded.isDirty());
+    }
+
+    @Test
+    public void damagedRecordReadsAsNullWhenMapped() throws Exception
+    {
+        flip(find(value(DAMAGED)) + 2);
+
+        // The index is intact, so the mapped reader loads the file, and the damaged record only shows when it is read.
+        SettingsManager loaded = load(true);
+        for(int i = 0; i < COUNT; i++) {
+            if(i != DAMAGED) assertEquals(value(i), loaded.getSetting(key(i)));
+        }
+        assertNull(loaded.getSetting(key(DAMAGED)));
+    }
+
+    @Test
+    public void damagedIndexLosesNothing() throws Exception
+    {
+        flip(indexOffset() + 2);
+
+        // Every record is intact, so both readers load the whole file, the mapped one by falling back to a sequential read.
+        for(boolean lazy : new boolean[]{false, true})
+        {
+            SettingsManager loaded = load(lazy);
+            for(int i = 0; i < COUNT; i++) assertEquals(value(i), loaded.getSetting(key(i)));
+            assertTrue(loaded.getDamagedKeys().isEmpty());
+            assertFalse(loaded.isDirty());
+        }
+    }
+
+    @Test
+    public void damagedRecordAndIndexKeepRecordsBeforeDamage() throws Exception
+    {
+        int[] offsets = new int[COUNT];
+        for(int i = 0; i < COUNT; i++) offsets[i] = find(value(i));
+        flip(offsets[DAMAGED] + 2);
+        flip(indexOffset() + 2);
+
+        // With no index to find the records after the damaged one, only the ones before it can be recovered.
+        SettingsManager loaded = load(false);
+        for(int i = 0; i < COUNT; i++)
+        {
+            if(offsets[i] < offsets[DAMAGED]) assertEquals(value(i), loaded.getSetting(key(i)));
+            else assertNull(loaded.getSetting(key(i)));
+        }
+        assertEquals(Collections.singletonList(key(DAMAGED)), loaded.getDamagedKeys());
+    }
+
+    @Test(expected = IOException.class)
+    public void damagedHeaderCannotBeSalvaged() throws Exception
+    {
+        flip(0);
+        load(false);
+    }
+
+    private static String key(int i) {
+        return "salvage.key" + i;
+    }
+
+    private static String value(int i) {
+        return "salvage-value-" + i;
+    }
+
+    /**
+     * Loads the test config into a new manager.
+     */
+    private SettingsManager load(boolean lazy) throws IOException
+    {
+        SettingsManager retV = new SettingsManager(config);
+        retV.setLazyLoading(lazy);
+        retV.loadConfigFromFile();
+        return retV;
+    }
+
+    /**
+     * Finds the offset of the first occurrence of a string's UTF-8 bytes in the test config.
+     */
+    private int find(String s) throws IOException
+    {
+        byte[] data = read();
+        byte[] target = s.getBytes(StandardCharsets.UTF_8);
+        outer:
+        for(int i = 0; i <= data.length - target.length; i++)
+        {
+            for(int j = 0; j < target.length; j++) {
+                if(data[i + j] != target[j]) continue outer;
+            }
+            return i;
+        }
+
+        throw new IllegalArgumentException("Not found in config: " + s);
+    }
+
+    /**
+     * Gets the offset of the key index in the test config from its footer.
+     */
+    private int indexOffset() throws IOException
+    {
+        RandomAccessFile file = new RandomAccessFile(config, "r");
+        try {
+            file.seek(file.length() - 8);
+            return file.readInt();
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Inverts every bit of a single byte in the test config.
+     */
+    private void flip(long offset) throws IOException
+    {
+        RandomAccessFile file = new RandomAccessFile(config, "rw");
+        try {
+            file.seek(offset);
+            int b = file.read();
+            file.seek(offset);
+            file.write(~b);
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Reads the whole test config into memory.
+     */
+    private byte[] read() throws IOException
+    {
+        RandomAccessFile file = new RandomAccessFile(config, "r");
+        try {
+            byte[] retV = new byte[(int)file.length()];
+            file.readFully(retV);
+            return retV;
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Deletes a file, or a directory and everything in it.
+     */
+    private static void delete(File f)
+    {
+        File[] children = f.listFiles();
+        if(children != null) {
+            for(File c : children) delete(c);
+        }
+        f.delete();
+    }
+}
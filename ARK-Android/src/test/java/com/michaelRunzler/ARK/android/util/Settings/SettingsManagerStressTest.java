@@ -0,0 +1,250 @@
+package com.michaelRunzler.ARK.android.util.Settings;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * Hammers a single {@link SettingsManager} from many threads at once, checking that no updates are
+ * lost, that readers never see a value go backwards, and that nothing throws.
+ */
+public class SettingsManagerStressTest
+{
+    private static final int WRITERS = 8;
+    private static final int READERS = 4;
+    private static final int KEYS_PER_WRITER = 4;
+    private static final int ITERATIONS = 5000;
+
+    @Test
+    public void concurrentStoresAreNeverLost() throws Exception
+    {
+        final SettingsManager manager = new SettingsManager();
+        final ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final CountDownLatch start = new CountDownLatch(1);
+
+        ArrayList<Thread> writers = new ArrayList<>();
+        for(int w = 0; w < WRITERS; w++)
+        {
+            final int id = w;
+            writers.add(new Thread(() -> {
+                try {
+                    start.await();
+                    for(int i = 0; i < ITERATIONS; i++) {
+                        manager.storeSetting(key(id, i % KEYS_PER_WRITER), i);
+                    }
+                } catch (Throwable t) {
+                    failures.add(t);
+                }
+            }));
+        }
+
+        // Each key is only ever written with increasing values, so a reader must never see one decrease.
+        ArrayList<Thread> readers = new ArrayList<>();
+        for(int r = 0; r < READERS; r++)
+        {
+            readers.add(new Thread(() -> {
+                HashMap<String, Integer> lastSeen = new HashMap<>();
+                try {
+                    start.await();
+                    while(running.get())
+                    {
+                        for(int w = 0; w < WRITERS; w++) {
+                            for(int k = 0; k < KEYS_PER_WRITER; k++)
+                            {
+                                String key = key(w, k);
+                                Object value = manager.getSetting(key);
+                                if(value == null) continue;
+
+                                int current = (Integer)value;
+                                Integer previous = lastSeen.get(key);
+                                if(previous != null && current < previous) throw new AssertionError("Value of " + key + " went from " + previous + " to " + current);
+                                lastSeen.put(key, current);
+                            }
+                        }
+                    }
+                } catch (Throwable t) {
+                    failures.add(t);
+                }
+            }));
+        }
+
+        runAll(writers, readers, start, running);
+        assertNoFailures(failures);
+
+        // Every key must hold the last value its writer stored.
+        for(int w = 0; w < WRITERS; w++) {
+            for(int k = 0; k < KEYS_PER_WRITER; k++) {
+                assertEquals(lastValue(k), manager.getInt(key(w, k), -1));
+            }
+        }
+
+        assertEquals(WRITERS * KEYS_PER_WRITER, manager.getAllSettings().size());
+    }
+
+    @Test
+    public void concurrentCacheCommitsStayConsistent() throws Exception
+    {
+        final SettingsManager manager = new SettingsManager();
+        final ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final CountDownLatch start = new CountDownLatch(1);
+
+        // Create every key up front, so that any snapshot restored by a commit contains all of them.
+        for(int w = 0; w < WRITERS; w++) {
+            for(int k = 0; k < KEYS_PER_WRITER; k++) {
+                manager.storeSetting(key(w, k), 0);
+            }
+        }
+
+        ArrayList<Thread> writers = new ArrayList<>();
+        for(int w = 0; w < WRITERS; w++)
+        {
+            final int id = w;
+            writers.add(new Thread(() -> {
+                try {
+                    start.await();
+                    for(int i = 0; i < ITERATIONS; i++)
+                    {
+                        manager.storeSetting(key(id, i % KEYS_PER_WRITER), i);
+                        if(i % 97 == 0) manager.fillCache();
+                        if(i % 101 == 0) manager.commitCache();
+                    }
+                } catch (Throwable t) {
+                    failures.add(t);
+                }
+            }));
+        }
+
+        ArrayList<Thread> readers = new ArrayList<>();
+        for(int r = 0; r < READERS; r++)
+        {
+            readers.add(new Thread(() -> {
+                try {
+                    start.await();
+                    while(running.get())
+                    {
+                        HashMap<String, Object> all = manager.getAllSettings();
+                        if(all.size() != WRITERS * KEYS_PER_WRITER) throw new AssertionError("Snapshot has " + all.size() + " entries");
+
+                        for(Object value : all.values()) {
+                            if(!(value instanceof Integer)) throw new AssertionError("Unexpected value " + value);
+                        }
+
+                        HashMap<String, Object> cache = manager.getCache();
+                        if(cache != null && cache.size() != WRITERS * KEYS_PER_WRITER) throw new AssertionError("Cache has " + cache.size() + " entries");
+                    }
+                } catch (Throwable t) {
+                    failures.add(t);
+                }
+            }));
+        }
+
+        runAll(writers, readers, start, running);
+        assertNoFailures(failures);
+
+        // Commits may have rolled individual keys back, but no key may have been lost or corrupted.
+        for(int w = 0; w < WRITERS; w++) {
+            for(int k = 0; k < KEYS_PER_WRITER; k++) {
+                int value = manager.getInt(key(w, k), -1);
+                assertTrue(value == 0 || (value < ITERATIONS && value % KEYS_PER_WRITER == k));
+            }
+        }
+    }
+
+    @Test
+    public void concurrentVolatileReadsAreNeverTorn() throws Exception
+    {
+        final SettingsManager manager = new SettingsManager();
+        final ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final CountDownLatch start = new CountDownLatch(1);
+
+        // Each value alternates between a primitive and an object, so that a read mixing the type of one store
+        // with the value of another would show up as an older value, or one of the wrong type.
+        ArrayList<Thread> writers = new ArrayList<>();
+        for(int w = 0; w < WRITERS; w++)
+        {
+            final int id = w;
+            writers.add(new Thread(() -> {
+                try {
+                    start.await();
+                    for(int i = 0; i < ITERATIONS; i++) {
+                        manager.storeVolatile(volatileKey(id), i % 2 == 0 ? (Object)i : Integer.toString(i));
+                    }
+                } catch (Throwable t) {
+                    failures.add(t);
+                }
+            }));
+        }
+
+        ArrayList<Thread> readers = new ArrayList<>();
+        for(int r = 0; r < READERS; r++)
+        {
+            readers.add(new Thread(() -> {
+                int[] lastSeen = new int[WRITERS];
+                try {
+                    start.await();
+                    while(running.get())
+                    {
+                        for(int w = 0; w < WRITERS; w++)
+                        {
+                            Object value = manager.getVolatile(volatileKey(w));
+                            if(value == null) continue;
+
+                            int current = value instanceof String ? Integer.parseInt((String)value) : (Integer)value;
+                            if(current % 2 != (value instanceof String ? 1 : 0)) throw new AssertionError("Value " + value + " has the wrong type");
+                            if(current < lastSeen[w]) throw new AssertionError("Value of " + volatileKey(w) + " went from " + lastSeen[w] + " to " + current);
+                            lastSeen[w] = current;
+                        }
+                    }
+                } catch (Throwable t) {
+                    failures.add(t);
+                }
+            }));
+        }
+
+        runAll(writers, readers, start, running);
+        assertNoFailures(failures);
+
+        for(int w = 0; w < WRITERS; w++) assertEquals(Integer.toString(ITERATIONS - 1), manager.getVolatile(volatileKey(w)));
+    }
+
+    private static String key(int writer, int index) {
+        return "stress" + writer + "_" + index;
+    }
+
+    private static String volatileKey(int writer) {
+        return "stressVolatile" + writer;
+    }
+
+    private static int lastValue(int index) {
+        return ITERATIONS - KEYS_PER_WRITER + index;
+    }
+
+    private static void runAll(ArrayList<Thread> writers, ArrayList<Thread> readers, CountDownLatch start, AtomicBoolean running) throws InterruptedException
+    {
+        for(Thread t : writers) t.start();
+        for(Thread t : readers) t.start();
+        start.countDown();
+
+        for(Thread t : writers) t.join();
+        running.set(false);
+        for(Thread t : readers) t.join();
+    }
+
+    private static void assertNoFailures(ConcurrentLinkedQueue<Throwable> failures)
+    {
+        if(!failures.isEmpty()) {
+            AssertionError e = new AssertionError(failures.size() + " thread(s) failed");
+            e.initCause(failures.peek());
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.michaelRunzler.ARK.android.util.Settings;
+
+import com.michaelRunzler.ARK.android.util.Tracing.Tracer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that mutations queued for the write-ahead log reach the file in order, and are replayed over
+ * the config snapshot on load, whether or not a snapshot was written in between.
+ */
+public class SettingsWriteAheadLogTest
+{
+    private static final int COUNT = 500;
+
+    private File directory;
+    private File config;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        // The platform's trace calls are not available outside a device.
+        Tracer.setEnabled(false);
+
+        directory = File.createTempFile("wal", "");
+        if(!directory.delete() || !directory.mkdir()) throw new IOException("Could not create test directory");
+        config = new File(directory, "settings.cfg");
+    }
+
+    @After
+    public void tearDown() {
+        delete(directory);
+    }
+
+    @Test
+    public void queuedRecordsAreReplayedWithoutSnapshot() throws Exception
+    {
+        SettingsManager manager = logged();
+        for(int i = 0; i < COUNT; i++) manager.storeSetting("wal." + (i % 10), i);
+        manager.removeSetting("wal.0");
+        awaitBackground();
+
+        assertTrue(new File(config.getPath() + SettingsWriteAheadLog.LOG_SUFFIX).exists());
+        SettingsManager reloaded = reload();
+        assertNull(reloaded.getSetting("wal.0"));
+        for(int k = 1; k < 10; k++) assertEquals(COUNT - 10 + k, reloaded.getSetting("wal." + k));
+    }
+
+    @Test
+    public void recordsAfterSnapshotAreReplayedOverIt() throws Exception
+    {
+        SettingsManager manager = logged();
+        manager.storeSetting("wal.before", 1);
+        manager.storeSetting("wal.changed", 1);
+        manager.writeStoredConfigToFile();
+
+        manager.storeSetting("wal.changed", 2);
+        manager.storeSetting("wal.after", 3);
+        awaitBackground();
+
+        // The rolled log is gone once the snapshot holds its records, and the new records are in a fresh log.
+        assertFalse(new File(config.getPath() + SettingsWriteAheadLog.ROLLED_SUFFIX).exists());
+        SettingsManager reloaded = reload();
+        assertEquals(1, reloaded.getSetting("wal.before"));
+        assertEquals(2, reloaded.getSetting("wal.changed"));
+        assertEquals(3, reloaded.getSetting("wal.after"));
+    }
+
+    @Test
+    public void loadReplaysRecordsStillQueued() throws Exception
+    {
+        SettingsManager manager = logged();
+        manager.storeSetting("wal.value", 1);
+        manager.writeStoredConfigToFile();
+
+        // Loading straight away must not lose a record that has not reached the file yet.
+        manager.storeSetting("wal.value", 2);
+        manager.loadConfigFromFile();
+        assertEquals(2, manager.getSetting("wal.value"));
+    }
+
+    /**
+     * Creates a manager for the test config with write-ahead logging enabled, and compaction out of the way.
+     */
+    private SettingsManager logged()
+    {
+        SettingsManager retV = new SettingsManager(config);
+        retV.setWriteAheadLogging(true);
+        retV.setLogCompactionThreshold(Long.MAX_VALUE);
+        return retV;
+    }
+
+    /**
+     * Loads the test config into a new manager.
+     */
+    private SettingsManager reload() throws IOException
+    {
+        SettingsManager retV = new SettingsManager(config);
+        retV.loadConfigFromFile();
+        return retV;
+    }
+
+    /**
+     * Waits for every task queued on the settings I/O thread so far to finish.
+     */
+    private static void awaitBackground() throws Exception {
+        SettingsBackground.get().submit(() -> {}).get();
+    }
+
+    /**
+     * Deletes a file, or a directory and everything in it.
+     */
+    private static void delete(File f)
+    {
+        File[] children = f.listFiles();
+        if(children != null) {
+            for(File c : children) delete(c);
+        }
+        f.delete();
+    }
+}